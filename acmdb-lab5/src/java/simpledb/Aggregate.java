@@ -123,8 +123,11 @@ public class Aggregate extends Operator {
         else
             aggregator = new StringAggregator(gfield, gtype, afield, aop);
         child.open();
-        while(child.hasNext())
-            aggregator.mergeTupleIntoGroup(child.next());
+        TupleBatch batch;
+        while((batch = child.nextBatch()) != null){
+            for(int i = 0; i < batch.size(); ++i)
+                aggregator.mergeTupleIntoGroup(batch.get(i));
+        }
         child.close();
         res = aggregator.iterator();
         res.open();
@@ -145,6 +148,17 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    /**
+     * Returns the results of the aggregate a batch at a time; the child was
+     * read a batch at a time by open().
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!isOpen())
+            throw new IllegalStateException("Operator not yet open");
+        return res.nextBatch();
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
         res.rewind();
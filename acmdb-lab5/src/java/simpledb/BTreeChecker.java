@@ -75,7 +75,11 @@ public class BTreeChecker {
                                        BTreePageId pageId, Field lowerBound, Field upperBound,
                                        BTreePageId parentId, boolean checkOccupancy, int depth) throws
             TransactionAbortedException, DbException {
+        boolean pinned = !dirtypages.containsKey(pageId);
         BTreePage page = (BTreePage )bt.getPage(tid, dirtypages, pageId, Permissions.READ_ONLY);
+        // the whole tree may not fit in the pool at once
+        if (pinned)
+            Database.getBufferPool().unpinPage(tid, pageId);
         assert(page.getParentId().equals(parentId));
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -22,6 +23,7 @@ import simpledb.Predicate.Op;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final FileHandle handle;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
@@ -35,7 +37,10 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		if (!td.isFixedSize())
+			throw new IllegalArgumentException("B+ tree pages only hold fields of fixed length");
 		this.f = f;
+		this.handle = FileHandle.open(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -79,14 +84,12 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
+				int retval = handle.read(pageBuf, 0);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -99,13 +102,8 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+				int retval = handle.read(pageBuf, pageOffset(id.pageNumber()));
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BufferPool.getPageSize()) {
@@ -113,30 +111,63 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+				return pageFromData(id, pageBuf);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
+		}
+	}
+
+	/**
+	 * Build a page of the kind its id says from the bytes read from disk
+	 */
+	private Page pageFromData(BTreePageId id, byte[] pageBuf) throws IOException {
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		}
+		else if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
+	/**
+	 * Read the pages in file order, with one scattering read per run of
+	 * adjacent pages.
+	 */
+	@Override
+	public List<Page> readPages(List<PageId> ids) throws IOException {
+		int numPages = numPages();
+		ArrayList<BTreePageId> present = new ArrayList<BTreePageId>();
+		for (PageId pid : ids) {
+			BTreePageId id = (BTreePageId) pid;
+			if(id.pgcateg() == BTreePageId.ROOT_PTR ? handle.length() >= BTreeRootPtrPage.getPageSize()
+					: id.pageNumber() <= numPages)
+				present.add(id);
+		}
+		long[] offsets = new long[present.size()];
+		ByteBuffer[] blocks = new ByteBuffer[present.size()];
+		for (int i = 0; i < blocks.length; ++i) {
+			BTreePageId id = present.get(i);
+			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+				offsets[i] = 0;
+				blocks[i] = ByteBuffer.wrap(new byte[BTreeRootPtrPage.getPageSize()]);
+			}
+			else {
+				offsets[i] = pageOffset(id.pageNumber());
+				blocks[i] = ByteBuffer.wrap(new byte[BufferPool.getPageSize()]);
 			}
 		}
+		handle.readBatch(offsets, blocks);
+		ArrayList<Page> pages = new ArrayList<Page>();
+		for (int i = 0; i < blocks.length; ++i)
+			pages.add(pageFromData(present.get(i), blocks[i].array()));
+		return pages;
 	}
 
 	/**
@@ -149,24 +180,44 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			handle.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			handle.write(data, pageOffset(page.getId().pageNumber()));
 		}
 	}
+
+	/**
+	 * Write the pages in file order, with one gathering write per run of
+	 * adjacent pages, and force the file once.
+	 */
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		long[] offsets = new long[pages.size()];
+		ByteBuffer[] blocks = new ByteBuffer[pages.size()];
+		for (int i = 0; i < blocks.length; ++i) {
+			BTreePageId id = (BTreePageId) pages.get(i).getId();
+			offsets[i] = id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : pageOffset(id.pageNumber());
+			blocks[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+		}
+		handle.writeBatch(offsets, blocks);
+	}
+
+	/**
+	 * @return the offset in the file of the page with the given number; page
+	 *   0 is the root pointer page, which is smaller than the others
+	 */
+	private static long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((handle.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
 	/**
@@ -201,22 +252,26 @@ public class BTreeFile implements DbFile {
 			assert leaf instanceof BTreeLeafPage;
 			return (BTreeLeafPage) leaf;
 		}
+		boolean pinned = !dirtypages.containsKey(pid);
 		Page page = getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
 		assert page instanceof BTreeInternalPage;
 		BTreeInternalPage internalPage = (BTreeInternalPage)page;
 		Iterator<BTreeEntry> iterator = internalPage.iterator();
-		if (f == null)
-			return findLeafPage(tid, dirtypages, iterator.next().getLeftChild(), perm, null);
-		BTreeEntry entry = iterator.next();
-		IndexPredicate pred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, f);
-		while (true){
-			if(pred.filter(entry.getKey()))
-				return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-			if(!iterator.hasNext())
-				break;
-			entry = iterator.next();
+		BTreePageId child;
+		if (f == null) {
+			child = iterator.next().getLeftChild();
+		} else {
+			BTreeEntry entry = iterator.next();
+			IndexPredicate pred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, f);
+			while (!pred.filter(entry.getKey()) && iterator.hasNext())
+				entry = iterator.next();
+			child = pred.filter(entry.getKey()) ? entry.getLeftChild() : entry.getRightChild();
 		}
-		return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
+		// the internal page was only needed to choose the child; the leaf
+		// is returned pinned
+		if (pinned)
+			Database.getBufferPool().unpinPage(tid, pid);
+		return findLeafPage(tid, dirtypages, child, perm, f);
 	}
 	
 	/**
@@ -407,12 +462,21 @@ public class BTreeFile implements DbFile {
 	private void updateParentPointer(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child) 
 			throws DbException, IOException, TransactionAbortedException {
 
+		boolean pinned = !dirtypages.containsKey(child);
 		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
 
-		if(!p.getParentId().equals(pid)) {
+		boolean changed = !p.getParentId().equals(pid);
+		if(changed) {
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
 			p.setParentId(pid);
 		}
+		// a changed child is kept in dirtypages; either way the pool need
+		// not keep it, as a split or merge may move more children than fit
+		if (pinned) {
+			Database.getBufferPool().unpinPage(tid, child);
+			if (changed)
+				Database.getBufferPool().unpinPage(tid, child);
+		}
 
 	}
 	
@@ -970,15 +1034,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(handle.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				handle.write(emptyRootPtrData, 0);
+				handle.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -1034,11 +1095,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				handle.write(emptyData, handle.length());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1069,10 +1127,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		handle.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1202,6 +1257,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ScanRing ring = null;
+	ReadAhead readAhead = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1223,8 +1280,14 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		Database.getBufferPool().unpinPage(tid, rootPtr.getId());
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		it = curp.iterator();
+		// leaves are read through a ring; the few internal pages are not
+		ring = Database.getBufferPool().newScanRing(f.numPages());
+		readAhead = Database.getBufferPool().newReadAhead(ring);
+		if (readAhead != null)
+			readAhead.leafRead(curp);
 	}
 
 	/**
@@ -1241,11 +1304,14 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
-				curp = null;
+				unpinCurrent();
 			}
 			else {
+				unpinCurrent();
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
+				if (readAhead != null)
+					readAhead.leafRead(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1268,10 +1334,21 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	/**
 	 * close the iterator
 	 */
+	/** Unpin the leaf the iterator was on; tuples read from it stay valid. */
+	private void unpinCurrent() {
+		if (curp != null)
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		curp = null;
+	}
+
 	public void close() {
 		super.close();
 		it = null;
-		curp = null;
+		unpinCurrent();
+		ring = null;
+		if (readAhead != null)
+			readAhead.close();
+		readAhead = null;
 	}
 }
 
@@ -1308,6 +1385,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		Database.getBufferPool().unpinPage(tid, rootPtr.getId());
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
@@ -1353,6 +1431,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
+				unpinCurrent();
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
@@ -1373,8 +1452,16 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	/**
 	 * close the iterator
 	 */
+	/** Unpin the leaf the iterator was on; tuples read from it stay valid. */
+	private void unpinCurrent() {
+		if (curp != null)
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		curp = null;
+	}
+
 	public void close() {
 		super.close();
 		it = null;
+		unpinCurrent();
 	}
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeHeaderPage stores data for one page of a BTreeFile and 
@@ -17,7 +18,7 @@ public class BTreeHeaderPage implements Page {
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
 	final BTreePageId pid;
-	final byte header[];
+	final SlotBitmap slots;
 	final int numSlots;
 
 	private int nextPage; // next header page or 0
@@ -54,10 +55,8 @@ public class BTreeHeaderPage implements Page {
 			e.printStackTrace();
 		}
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		// read the header slots of this page, which follow the pointers
+		slots = new SlotBitmap(ByteBuffer.wrap(data), 2 * INDEX_SIZE, numSlots);
 
 		dis.close();
 
@@ -68,8 +67,7 @@ public class BTreeHeaderPage implements Page {
 	 * Initially mark all slots in the header used.
 	 */
 	public void init() {
-		for (int i=0; i<header.length; i++)
-			header[i] = (byte) 0xFF;
+		slots.setAll();
 	}
 
 	/**
@@ -151,13 +149,13 @@ public class BTreeHeaderPage implements Page {
 		}
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
+		byte[] header = new byte[getHeaderSize()];
+		slots.write(header, 0, header.length);
+		try {
+			dos.write(header);
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
 		}
 
 		try {
@@ -268,23 +266,15 @@ public class BTreeHeaderPage implements Page {
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return slots.isUsed(i);
 	}
 
 	/**
 	 * Abstraction to mark a page of the BTreeFile used or unused
 	 */
 	public void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeHeaderPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		slots.set(i, value);
 	}
 
 	/**
@@ -292,15 +282,6 @@ public class BTreeHeaderPage implements Page {
 	 * @return the index of the first empty slot or -1 if none exists
 	 */
 	public int getEmptySlot() {
-		for (int i=0; i<header.length; i++) {
-			if((int) header[i] != 0xFF) {
-				for(int j = 0; j < 8; j++) {
-					if(!isSlotUsed(i*8 + j)) {
-						return i*8 + j;
-					}
-				}
-			}
-		}
-		return -1;
+		return slots.nextFree(0);
 	}
 }
@@ -14,10 +14,17 @@ import simpledb.Predicate.Op;
  *
  */
 public class BTreeInternalPage extends BTreePage {
-	private final byte header[];
+	// page layout: parent pointer, child category, header, keys, child pointers
+	private static final int CATEGORY_OFFSET = INDEX_SIZE;
+	private static final int HEADER_OFFSET = INDEX_SIZE + 1;
+
+	private final int headerSize;
+	private final int keySize;
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	/** Which slots are used; kept in step with the header bytes in page. */
+	private final SlotBitmap slots;
 	
 	private int childCategory; // either leaf or internal
 
@@ -66,8 +73,11 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		super(id, data, key);
 		this.numSlots = getMaxEntries() + 1;
+		this.headerSize = getHeaderSize();
+		this.keySize = td.getFieldType(keyField).getLen();
+		this.slots = new SlotBitmap(pageBuffer, HEADER_OFFSET, numSlots);
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -81,10 +91,8 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = (int) dis.readByte();
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		// the header slots of this page are read from the page image
+		dis.skipBytes(headerSize);
 
 		keys = new Field[numSlots];
 		try{
@@ -154,13 +162,6 @@ public class BTreeInternalPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read keys from the source file.
 	 */
@@ -221,116 +222,35 @@ public class BTreeInternalPage extends BTreePage {
 	}
 
 	/**
-	 * Generates a byte array representing the contents of this page.
-	 * Used to serialize this page to disk.
-	 * <p>
-	 * The invariant here is that it should be possible to pass the byte
-	 * array generated by getPageData to the BTreeInternalPage constructor and
-	 * have it produce an identical BTreeInternalPage object.
-	 *
-	 * @see #BTreeInternalPage
-	 * @return A byte array correspond to the bytes of this page.
+	 * Store the key of slot i, in the key array and the page image
 	 */
-	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the keys
-		// start from 1 because the first key slot is not used
-		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-		}
-
-		// create the child pointers
-		for (int i=0; i<children.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+	private void setKey(int i, Field key) {
+		keys[i] = key;
+		beforeWrite();
+		// there is no key in slot 0
+		key.getType().serialize(key, pageBuffer, HEADER_OFFSET + headerSize + (i - 1) * keySize);
+	}
 
-		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Store the child pointer of slot i, in the child array and the page image
+	 */
+	private void setChild(int i, int child) {
+		children[i] = child;
+		beforeWrite();
+		pageBuffer.putInt(childOffset(i), child);
+	}
 
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	private int childOffset(int i) {
+		return HEADER_OFFSET + headerSize + (numSlots - 1) * keySize + i * INDEX_SIZE;
+	}
 
-		return baos.toByteArray();
+	/**
+	 * Zero the key and child pointer of an empty slot in the page image
+	 */
+	private void clearSlot(int i) {
+		if (i > 0)
+			clearBytes(HEADER_OFFSET + headerSize + (i - 1) * keySize, keySize);
+		clearBytes(childOffset(i), INDEX_SIZE);
 	}
 
 	/**
@@ -356,12 +276,10 @@ public class BTreeInternalPage extends BTreePage {
 			markSlotUsed(rid.tupleno(), false); 
 		}
 		else {
-			for(int i = rid.tupleno() - 1; i >= 0; i--) {
-				if(isSlotUsed(i)) {
-					children[i] = children[rid.tupleno()];
-					markSlotUsed(rid.tupleno(), false); 
-					break;
-				}	
+			int i = slots.prevUsed(rid.tupleno() - 1);
+			if(i >= 0) {
+				setChild(i, children[rid.tupleno()]);
+				markSlotUsed(rid.tupleno(), false); 
 			}
 		}
 		e.setRecordId(null);
@@ -410,27 +328,21 @@ public class BTreeInternalPage extends BTreePage {
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to update null entry.");
 		
-		for(int i = rid.tupleno() + 1; i < numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
-					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
-							" HINT: updated key must be less than or equal to keys on the right");
-				}
-				break;
-			}	
-		}
-		for(int i = rid.tupleno() - 1; i >= 0; i--) {
-			if(isSlotUsed(i)) {
-				if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
-					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
-							" HINT: updated key must be greater than or equal to keys on the left");
-				}
-				children[i] = e.getLeftChild().pageNumber();
-				break;
-			}	
+		int right = slots.nextUsed(rid.tupleno() + 1);
+		if(right >= 0 && keys[right].compare(Op.LESS_THAN, e.getKey())) {
+			throw new DbException("attempt to update entry with invalid key " + e.getKey() +
+					" HINT: updated key must be less than or equal to keys on the right");
+		}
+		int left = slots.prevUsed(rid.tupleno() - 1);
+		if(left >= 0) {
+			if(left > 0 && keys[left].compare(Op.GREATER_THAN, e.getKey())) {
+				throw new DbException("attempt to update entry with invalid key " + e.getKey() +
+						" HINT: updated key must be greater than or equal to keys on the left");
+			}
+			setChild(left, e.getLeftChild().pageNumber());
 		}
-		children[rid.tupleno()] = e.getRightChild().pageNumber(); 
-		keys[rid.tupleno()] = e.getKey();
+		setChild(rid.tupleno(), e.getRightChild().pageNumber());
+		setKey(rid.tupleno(), e.getKey());
 	}
 
 	/**
@@ -452,15 +364,17 @@ public class BTreeInternalPage extends BTreePage {
 				throw new DbException("child page category mismatch in insertEntry");
 
 			childCategory = e.getLeftChild().pgcateg();
+			beforeWrite();
+			page[CATEGORY_OFFSET] = (byte) childCategory;
 		}
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
 		if(getNumEmptySlots() == getMaxEntries()) {
-			children[0] = e.getLeftChild().pageNumber();
-			children[1] = e.getRightChild().pageNumber();
-			keys[1] = e.getKey();
+			setChild(0, e.getLeftChild().pageNumber());
+			setChild(1, e.getRightChild().pageNumber());
+			setKey(1, e.getKey());
 			markSlotUsed(0, true);
 			markSlotUsed(1, true);
 			e.setRecordId(new RecordId(pid, 1));
@@ -468,47 +382,39 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// find the first empty slot, starting from 1
-		int emptySlot = -1;
-		for (int i=1; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = slots.nextFree(1);
 
 		if (emptySlot == -1)
 			throw new DbException("called insertEntry on page with no empty slots.");        
 
 		// find the child pointer matching the left or right child in this entry
 		int lessOrEqKey = -1;
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(children[i] == e.getLeftChild().pageNumber() || children[i] == e.getRightChild().pageNumber()) {
-					if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
-						throw new DbException("attempt to insert invalid entry with left child " + 
-								e.getLeftChild().pageNumber() + ", right child " + 
-								e.getRightChild().pageNumber() + " and key " + e.getKey() +
-								" HINT: one of these children must match an existing child on the page" +
-								" and this key must be correctly ordered in between that child's" +
-								" left and right keys");
-					}
-					lessOrEqKey = i;
-					if(children[i] == e.getRightChild().pageNumber()) {
-						children[i] = e.getLeftChild().pageNumber();
-					}
+		for (int i = slots.nextUsed(0); i >= 0; i = slots.nextUsed(i + 1)) {
+			if(children[i] == e.getLeftChild().pageNumber() || children[i] == e.getRightChild().pageNumber()) {
+				if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+					throw new DbException("attempt to insert invalid entry with left child " + 
+							e.getLeftChild().pageNumber() + ", right child " + 
+							e.getRightChild().pageNumber() + " and key " + e.getKey() +
+							" HINT: one of these children must match an existing child on the page" +
+							" and this key must be correctly ordered in between that child's" +
+							" left and right keys");
+				}
+				lessOrEqKey = i;
+				if(children[i] == e.getRightChild().pageNumber()) {
+					setChild(i, e.getLeftChild().pageNumber());
 				}
-				else if(lessOrEqKey != -1) {
-					// validate that the next key is greater than or equal to the one we are inserting
-					if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
-						throw new DbException("attempt to insert invalid entry with left child " + 
-								e.getLeftChild().pageNumber() + ", right child " + 
-								e.getRightChild().pageNumber() + " and key " + e.getKey() +
-								" HINT: one of these children must match an existing child on the page" +
-								" and this key must be correctly ordered in between that child's" +
-								" left and right keys");
-					}
-					break;
+			}
+			else if(lessOrEqKey != -1) {
+				// validate that the next key is greater than or equal to the one we are inserting
+				if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
+					throw new DbException("attempt to insert invalid entry with left child " + 
+							e.getLeftChild().pageNumber() + ", right child " + 
+							e.getRightChild().pageNumber() + " and key " + e.getKey() +
+							" HINT: one of these children must match an existing child on the page" +
+							" and this key must be correctly ordered in between that child's" +
+							" left and right keys");
 				}
+				break;
 			}
 		}
 
@@ -540,8 +446,8 @@ public class BTreeInternalPage extends BTreePage {
 		// insert new entry into the correct spot in sorted order
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.pageNumber(), goodSlot);
-		keys[goodSlot] = e.getKey();
-		children[goodSlot] = e.getRightChild().pageNumber();
+		setKey(goodSlot, e.getKey());
+		setChild(goodSlot, e.getRightChild().pageNumber());
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
 
@@ -552,8 +458,8 @@ public class BTreeInternalPage extends BTreePage {
 	private void moveEntry(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
-			keys[to] = keys[from];
-			children[to] = children[from];
+			setKey(to, keys[from]);
+			setChild(to, children[from]);
 			markSlotUsed(from, false);
 		}
 	}
@@ -569,36 +475,42 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		// start from 1 because the first key slot is not used
+		// slot 0 does not count because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return slots.numFree() - (slots.isUsed(0) ? 0 : 1);
 	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return slots.isUsed(i);
+	}
+
+	/**
+	 * @return the first used slot at or after from, or -1 if there is none
+	 */
+	int nextUsedSlot(int from) {
+		return slots.nextUsed(from);
+	}
+
+	/**
+	 * @return the last used slot at or before from, or -1 if there is none
+	 */
+	int prevUsedSlot(int from) {
+		return slots.prevUsed(from);
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		beforeWrite();
+		slots.set(i, value);
+		page[HEADER_OFFSET + i / 8] = slots.getByte(i / 8);
+		if(!value)
+			clearSlot(i);
 	}
 
 	/**
@@ -693,17 +605,16 @@ class BTreeInternalPageIterator implements Iterator<BTreeEntry> {
 					return false;
 				}
 			}
-			while (true) {
-				int entry = curEntry++;
-				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry);
-				if(key != null && childId != null) {
-					nextToReturn = new BTreeEntry(key, prevChildId, childId);
-					nextToReturn.setRecordId(new RecordId(p.pid, entry));
-					prevChildId = childId;
-					return true;
-				}
+			int entry = p.nextUsedSlot(curEntry);
+			if(entry < 0) {
+				return false;
 			}
+			curEntry = entry + 1;
+			BTreePageId childId = p.getChildId(entry);
+			nextToReturn = new BTreeEntry(p.getKey(entry), prevChildId, childId);
+			nextToReturn.setRecordId(new RecordId(p.pid, entry));
+			prevChildId = childId;
+			return true;
 		} catch(NoSuchElementException e) {
 			return false;
 		}
@@ -743,10 +654,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
-		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
-			--curEntry;
-		}
+		this.curEntry = Math.max(p.prevUsedSlot(p.getMaxEntries()), 0);
 	}
 
 	public boolean hasNext() {
@@ -762,19 +670,18 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 					return false;
 				}
 			}
-			while (curEntry > 0) {
-				int entry = --curEntry;
-				BTreePageId nextChildId = p.getChildId(entry);
-				if(nextChildId != null) {
-					nextToReturn = new BTreeEntry(key, nextChildId, childId);
-					nextToReturn.setRecordId(recordId);
-					childId = nextChildId;
-					key = p.getKey(entry);
-					recordId = new RecordId(p.pid, entry);
-					return true;
-				}
+			int entry = p.prevUsedSlot(curEntry - 1);
+			if(entry < 0) {
+				return false;
 			}
-			return false;
+			curEntry = entry;
+			BTreePageId nextChildId = p.getChildId(entry);
+			nextToReturn = new BTreeEntry(key, nextChildId, childId);
+			nextToReturn.setRecordId(recordId);
+			childId = nextChildId;
+			key = p.getKey(entry);
+			recordId = new RecordId(p.pid, entry);
+			return true;
 		} catch(NoSuchElementException e) {
 			return false;
 		}
@@ -12,9 +12,16 @@ import java.io.*;
  *
  */
 public class BTreeLeafPage extends BTreePage {
-	private final byte header[];
+	// page layout: parent, left and right sibling pointers, header, tuple slots
+	private static final int LEFT_SIBLING_OFFSET = INDEX_SIZE;
+	private static final int RIGHT_SIBLING_OFFSET = 2 * INDEX_SIZE;
+	private static final int HEADER_OFFSET = 3 * INDEX_SIZE;
+
+	private final int headerSize;
 	private final Tuple tuples[];
 	private final int numSlots;
+	/** Which slots are used; kept in step with the header bytes in page. */
+	private final SlotBitmap slots;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -62,46 +69,21 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		super(id, data, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.headerSize = getHeaderSize();
+		this.slots = new SlotBitmap(pageBuffer, HEADER_OFFSET, numSlots);
 
 		// Read the parent and sibling pointers
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.leftSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.rightSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		this.parent = FieldCodec.readInt(pageBuffer, 0);
+		this.leftSibling = FieldCodec.readInt(pageBuffer, LEFT_SIBLING_OFFSET);
+		this.rightSibling = FieldCodec.readInt(pageBuffer, RIGHT_SIBLING_OFFSET);
 
+		// allocate and read the actual records of this page, at the offsets
+		// of their slots
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
+		for (int i=0; i<tuples.length; i++)
+			tuples[i] = readTuple(i);
 
 		setBeforeImage();
 	}
@@ -146,137 +128,39 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
-	 * Read tuples from the source file.
+	 * Read the tuple in slot slotId from the page image, or return null if
+	 * the slot is empty.  Tuples are decoded in full, since they move
+	 * between pages as the tree splits and merges.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
+	private Tuple readTuple(int slotId) {
+		if (!isSlotUsed(slotId))
 			return null;
-		}
 
-		// read fields in the tuple
 		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
-			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
-		}
-
+		t.setRecordId(new RecordId(pid, slotId));
+		int off = slotOffset(slotId);
+		for (int j=0; j<td.numFields(); j++)
+			t.setField(j, FieldCodec.read(td.getFieldType(j), pageBuffer, off + td.getFieldOffset(j)));
 		return t;
 	}
 
 	/**
-	 * Generates a byte array representing the contents of this page.
-	 * Used to serialize this page to disk.
-	 * <p>
-	 * The invariant here is that it should be possible to pass the byte
-	 * array generated by getPageData to the BTreeLeafPage constructor and
-	 * have it produce an identical BTreeLeafPage object.
-	 *
-	 * @see #BTreeLeafPage
-	 * @return A byte array corresponding to the bytes of this page.
+	 * @return the offset of slot i in the page image
 	 */
-	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i=0; i<tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	private int slotOffset(int i) {
+		return HEADER_OFFSET + headerSize + i * td.getSize();
+	}
 
-		return baos.toByteArray();
+	/**
+	 * Store a tuple in slot i, in the tuple array and the page image
+	 */
+	private void setTuple(int i, Tuple t) {
+		tuples[i] = t;
+		beforeWrite();
+		int off = slotOffset(i);
+		for (int j=0; j<td.numFields(); j++)
+			FieldCodec.write(td.getFieldType(j), pageBuffer, off + td.getFieldOffset(j), t.getField(j));
 	}
 
 	/**
@@ -311,13 +195,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("type mismatch, in addTuple");
 
 		// find the first empty slot 
-		int emptySlot = -1;
-		for (int i=0; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = slots.nextFree(0);
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
@@ -325,13 +203,11 @@ public class BTreeLeafPage extends BTreePage {
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
 		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
+		for (int i = slots.nextUsed(0); i >= 0; i = slots.nextUsed(i + 1)) {
+			if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				lessOrEqKey = i;
+			else
+				break;	
 		}
 
 		// shift records back or forward to fill empty slot and make room for new record
@@ -355,7 +231,7 @@ public class BTreeLeafPage extends BTreePage {
 		Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.pageNumber(), goodSlot);
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
-		tuples[goodSlot] = t;
+		setTuple(goodSlot, t);
 	}
 
 	/**
@@ -368,6 +244,8 @@ public class BTreeLeafPage extends BTreePage {
 			RecordId rid = new RecordId(pid, to);
 			tuples[to] = tuples[from];
 			tuples[to].setRecordId(rid);
+			beforeWrite();
+			System.arraycopy(page, slotOffset(from), page, slotOffset(to), td.getSize());
 			markSlotUsed(from, false);
 		}
 	}
@@ -412,6 +290,8 @@ public class BTreeLeafPage extends BTreePage {
 			}
 			leftSibling = id.pageNumber();
 		}
+		beforeWrite();
+		pageBuffer.putInt(LEFT_SIBLING_OFFSET, leftSibling);
 	}
 
 	/**
@@ -432,6 +312,8 @@ public class BTreeLeafPage extends BTreePage {
 			}
 			rightSibling = id.pageNumber();
 		}
+		beforeWrite();
+		pageBuffer.putInt(RIGHT_SIBLING_OFFSET, rightSibling);
 	}
 
 	/**
@@ -445,34 +327,40 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return slots.numFree();
 	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return slots.isUsed(i);
+	}
+
+	/**
+	 * @return the first used slot at or after from, or -1 if there is none
+	 */
+	int nextUsedSlot(int from) {
+		return slots.nextUsed(from);
+	}
+
+	/**
+	 * @return the last used slot at or before from, or -1 if there is none
+	 */
+	int prevUsedSlot(int from) {
+		return slots.prevUsed(from);
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		beforeWrite();
+		slots.set(i, value);
+		page[HEADER_OFFSET + i / 8] = slots.getByte(i / 8);
+		if(!value)
+			clearBytes(slotOffset(i), td.getSize());
 	}
 
 	/**
@@ -533,15 +421,12 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (true) {
-				nextToReturn = p.getTuple(curTuple++);
-				if(nextToReturn != null)
-					return true;
-			}
-		} catch(NoSuchElementException e) {
+		int slot = p.nextUsedSlot(curTuple);
+		if (slot < 0)
 			return false;
-		}
+		curTuple = slot + 1;
+		nextToReturn = p.getTuple(slot);
+		return true;
 	}
 
 	public Tuple next() {
@@ -582,16 +467,12 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (curTuple >= 0) {
-				nextToReturn = p.getTuple(curTuple--);
-				if(nextToReturn != null)
-					return true;
-			}
+		int slot = p.prevUsedSlot(curTuple);
+		if (slot < 0)
 			return false;
-		} catch(NoSuchElementException e) {
-			return false;
-		}
+		curTuple = slot - 1;
+		nextToReturn = p.getTuple(slot);
+		return true;
 	}
 
 	public Tuple next() {
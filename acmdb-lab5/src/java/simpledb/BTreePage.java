@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -24,8 +25,17 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	/**
+	 * The bytes of this page as they are written to disk, updated in place
+	 * whenever the page changes so getPageData only has to copy them.  The
+	 * array is shared with the before image, and with whoever the page was
+	 * created from, until the page is first changed; see {@link #beforeWrite()}.
+	 */
+	protected byte[] page;
+	protected ByteBuffer pageBuffer;
+	private boolean writable = false;
 	protected byte[] oldData;
-	protected final Byte oldDataLock=new Byte((byte)0);
+	protected final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -48,13 +58,44 @@ public abstract class BTreePage implements Page {
 	 * @see BufferPool#getPageSize()
 	 * 
 	 * @param id - the id of this page
-	 * @param data - the raw data of this page
+	 * @param data - the raw data of this page, which is copied
 	 * @param key - the field which the index is keyed on
 	 */
-	public BTreePage(BTreePageId id, int key) throws IOException {
+	public BTreePage(BTreePageId id, byte[] data, int key) throws IOException {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.page = data.length == BufferPool.getPageSize() ?
+				data : Arrays.copyOf(data, BufferPool.getPageSize());
+		this.pageBuffer = ByteBuffer.wrap(page);
+	}
+
+	/**
+	 * Make the current contents of this page its before image.  The image
+	 * shares the page's bytes; the next change to the page copies them
+	 * first, so pages that are only read never pay for a copy.
+	 */
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = page;
+			writable = false;
+		}
+	}
+
+	/**
+	 * Called before each change to the page image: gives the page an array
+	 * of its own the first time, leaving the shared one unchanged.
+	 */
+	protected void beforeWrite() {
+		if (writable)
+			return;
+		synchronized(oldDataLock)
+		{
+			page = page.clone();
+			pageBuffer = ByteBuffer.wrap(page);
+			writable = true;
+		}
 	}
 
 	/**
@@ -78,6 +119,28 @@ public abstract class BTreePage implements Page {
 		return new byte[len]; //all 0
 	}
 
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * <p>
+	 * The invariant here is that it should be possible to pass the byte
+	 * array generated by getPageData to the constructor of this page's class
+	 * and have it produce an identical page.
+	 *
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		return page.clone();
+	}
+
+	/**
+	 * Fill part of the page image with zeroes
+	 */
+	protected void clearBytes(int offset, int len) {
+		beforeWrite();
+		Arrays.fill(page, offset, offset + len, (byte) 0);
+	}
+
 	/**
 	 * Get the parent id of this page
 	 * @return the parent id
@@ -110,6 +173,9 @@ public abstract class BTreePage implements Page {
 		else {
 			parent = id.pageNumber();
 		}
+		// the parent pointer comes first on both leaf and internal pages
+		beforeWrite();
+		pageBuffer.putInt(0, parent);
 	}
 
 	/**
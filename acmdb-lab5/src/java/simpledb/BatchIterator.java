@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchIterator reads its child a batch at a time through {@link
+ * DbIterator#nextBatch()} and hands out the tuples one by one, so a plan
+ * whose root is consumed tuple at a time still runs a batch at a time
+ * below it.  It is the other half of the default nextBatch(), which
+ * gathers a batch from an iterator that only returns tuples one by one.
+ */
+public class BatchIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    /** The batch of the child being handed out, and its next row. */
+    private transient TupleBatch batch;
+    private transient int row;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The child operator, read a batch at a time
+     */
+    public BatchIterator(DbIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+        super.close();
+        super.open();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next selected tuple of
+     * the child's batch, reading the next batch when it runs out.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (batch == null || row >= batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.get(row++);
+    }
+
+    /**
+     * Passes the child's batches through as they are.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        return child.nextBatch();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
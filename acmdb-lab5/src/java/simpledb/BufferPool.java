@@ -4,10 +4,18 @@ import javax.xml.crypto.Data;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -28,28 +36,892 @@ public class BufferPool {
     
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
-    constructor instead. */
+    constructor instead.  The pool holds this many pages of the default
+    size; its budget is in bytes, see {@link #ofBytes}. */
     public static final int DEFAULT_PAGES = 50;
 
-    private final int numPages;
-    private ConcurrentHashMap<PageId, Page> pageMap;
-    private final Random generator;
+    /** Replacement policy used by the no-argument constructors. */
+    public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.LRU_K;
+
+    /**
+     * Scans of tables larger than this fraction of the pool read through a
+     * ScanRing instead of competing for the whole pool.
+     */
+    public static final double DEFAULT_SCAN_RING_FRACTION = 0.75;
+
+    /** Frames in a scan ring, unless the pool is too small for that many. */
+    public static final int SCAN_RING_PAGES = 32;
+
+    /** Pages read ahead of a sequential scan, unless changed with setPrefetchDepth. */
+    public static final int DEFAULT_PREFETCH_DEPTH = 8;
+
+    /** Frames per shard the default shard count aims for. */
+    private static final int FRAMES_PER_SHARD = 64;
+
+    /**
+     * The page cleaner writes out dirty pages of a shard until at least
+     * this fraction of its frames are free or hold clean, unpinned pages.
+     */
+    private static final double CLEAN_FRACTION = 0.25;
+
+    /** Pages of one file that preloadPages reads at a time. */
+    private static final int PRELOAD_BATCH = 64;
+
+    /**
+     * One independently latched partition of the pool.  A shard owns the
+     * pages whose ids hash to it, their replacement state, and a budget of
+     * bytes; the budgets of all shards add up to the pool's capacity.
+     * Pages count against the budget by their size, so tables with pages
+     * of different sizes share the pool.
+     */
+    private static class Shard {
+        final int index;
+        final ReentrantLock latch;
+        final HashMap<PageId, Page> pageMap;
+        final ReplacementPolicy policy;
+        /** Resident pages read through a scan ring, not known to the policy. */
+        final LinkedHashSet<PageId> ringPages;
+        /** The arena frame each resident page read into one occupies. */
+        final HashMap<PageId, Integer> frames;
+        /** Pin counts of the pinned pages; pinned pages are never evicted. */
+        final HashMap<PageId, Integer> pins;
+        /**
+         * Pages with committed changes that are in the log but not yet in
+         * their files, and the log offset that must be on disk before each
+         * may be written.  These pages are not dirty, but must be written
+         * before they are evicted.
+         */
+        final HashMap<PageId, Long> unflushed;
+        /**
+         * Pages being read from their files with the latch released.  Their
+         * bytes already count in used, so their frames stay reserved.
+         */
+        final HashMap<PageId, PendingRead> reading;
+        /** Signalled whenever a read in reading ends. */
+        final Condition readDone;
+        /** The bytes of pages the shard may hold. */
+        long capacity;
+        /** The bytes of the pages the shard holds. */
+        long used;
+        /**
+         * Counts the pages taken out of the shard.  A page whose file is
+         * written while it is resident, or after it is discarded, changes
+         * it, so a page read without the latch is still current if this
+         * has not changed since.
+         */
+        long removals;
+
+        Shard(int index, long capacity, ReplacementPolicy.Kind policyKind) {
+            this.index = index;
+            this.latch = new ReentrantLock();
+            this.pageMap = new HashMap<>();
+            this.policy = policyKind.create((int) Math.min(Integer.MAX_VALUE, capacity / getPageSize()));
+            this.ringPages = new LinkedHashSet<>();
+            this.frames = new HashMap<>();
+            this.pins = new HashMap<>();
+            this.unflushed = new HashMap<>();
+            this.reading = new HashMap<>();
+            this.readDone = latch.newCondition();
+            this.capacity = capacity;
+        }
+    }
+
+    /** A page being read into a frame reserved in its shard. */
+    private static class PendingRead {
+        final int size;
+        /** The arena frame the page is read into, or -1 to read it onto the heap. */
+        int frame;
+        /**
+         * Set if the page was discarded or replaced while it was read, so
+         * what was read may be out of date and must not be made resident.
+         */
+        boolean superseded;
+
+        PendingRead(int size, int frame) {
+            this.size = size;
+            this.frame = frame;
+        }
+    }
+
+    /** The bytes of pages the pool may hold, across all shards. */
+    private final long capacityBytes;
+    private final Shard[] shards;
+    /** Off-heap frames pages are read into, or null to keep pages on the heap. */
+    private final FrameArena arena;
+    private volatile double scanRingFraction;
+
+    private volatile int prefetchDepth;
+    /**
+     * Pages some ReadAhead asked for and no scan has used yet: FALSE while
+     * the read is still pending, TRUE once the page has been loaded.
+     */
+    private final ConcurrentHashMap<PageId, Boolean> prefetchState;
+    private final AtomicLong prefetchHits;
+    private final AtomicLong prefetchMisses;
 
     private final LockManager lockManager;
 
+    /** Whether dirty pages of running transactions may be evicted. */
+    private volatile boolean steal;
+    /** Whether a transaction's pages are written to their files at commit. */
+    private volatile boolean force;
+    /** The background thread started by startPageCleaner, or null. */
+    private Thread pageCleaner;
+    /** The first IOException the cleaner or a preloader met, until rethrown. */
+    private final AtomicReference<IOException> backgroundFailure;
+
+    /**
+     * The pins each transaction holds, so that pins it never gave back can
+     * be dropped when it completes.  Each inner map is guarded by itself.
+     */
+    private final ConcurrentHashMap<TransactionId, HashMap<PageId, Integer>> pinsByTid;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy to use
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind) {
+        this(numPages, policyKind, defaultShardCount(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numShards independently latched shards.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy to use
+     * @param numShards the number of shards; at most numPages
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind, int numShards) {
+        this(numPages, policyKind, numShards, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally in
+     * off-heap memory.  An off-heap pool allocates numPages frames of
+     * direct memory up front and reads pages of files that support it into
+     * them, so the pages are kept as raw bytes rather than as objects on
+     * the Java heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyKind the replacement policy to use
+     * @param numShards the number of shards; at most numPages
+     * @param offHeap whether to keep pages in a {@link FrameArena}
+     * @see DbFile#readPage(PageId, java.nio.ByteBuffer)
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policyKind, int numShards, boolean offHeap) {
+        this((long) numPages * getPageSize(), policyKind, numShards, offHeap ? numPages : -1);
+    }
+
+    /**
+     * Creates a BufferPool that caches pages of up to capacityBytes bytes
+     * in all, whatever the sizes of the pages, optionally in off-heap
+     * memory.  An off-heap pool allocates as many frames of the default
+     * page size as fit in capacityBytes; pages of other sizes are kept on
+     * the Java heap.
+     *
+     * @param capacityBytes the bytes of pages the pool may hold
+     * @param policyKind the replacement policy to use
+     * @param numShards the number of shards; at most the number of pages
+     *   of the default size that fit in capacityBytes
+     * @param offHeap whether to keep pages in a {@link FrameArena}
+     * @see DbFile#getPageSize()
+     */
+    public static BufferPool ofBytes(long capacityBytes, ReplacementPolicy.Kind policyKind,
+            int numShards, boolean offHeap) {
+        long frames = capacityBytes / getPageSize();
+        if (offHeap && frames > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many frames for an arena: " + frames);
+        return new BufferPool(capacityBytes, policyKind, numShards, offHeap ? (int) frames : -1);
+    }
+
+    /**
+     * @param arenaFrames the number of frames of the off-heap arena, or -1
+     *   to keep pages on the heap
+     */
+    private BufferPool(long capacityBytes, ReplacementPolicy.Kind policyKind, int numShards, int arenaFrames) {
         // some code goes here
-        this.numPages = numPages;
-        this.pageMap = new ConcurrentHashMap<>();
-        this.generator = new Random();
+        long pages = capacityBytes / getPageSize();
+        if (capacityBytes < 0 || numShards < 1 || numShards > Math.max(1, pages))
+            throw new IllegalArgumentException("a BufferPool of " + capacityBytes +
+                    " bytes cannot have " + numShards + " shards");
+        this.capacityBytes = capacityBytes;
+        this.shards = new Shard[numShards];
+        // whole pages of the default size per shard, as far as they go
+        for (int i = 0; i < numShards; ++i) {
+            long share = (pages / numShards + (i < pages % numShards ? 1 : 0)) * getPageSize();
+            if (i == 0)
+                share += capacityBytes - pages * getPageSize();
+            shards[i] = new Shard(i, share, policyKind);
+        }
+        this.arena = arenaFrames >= 0 ? new FrameArena(arenaFrames, getPageSize()) : null;
+        this.scanRingFraction = DEFAULT_SCAN_RING_FRACTION;
+        this.prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+        this.prefetchState = new ConcurrentHashMap<>();
+        this.prefetchHits = new AtomicLong();
+        this.prefetchMisses = new AtomicLong();
         this.lockManager = new LockManager();
+        this.force = true;
+        this.backgroundFailure = new AtomicReference<>();
+        this.pinsByTid = new ConcurrentHashMap<>();
     }
-    
+
+    /**
+     * @return the number of shards used for a pool of numPages pages when
+     *   none is given: about one per FRAMES_PER_SHARD frames, at most one per
+     *   processor.
+     */
+    public static int defaultShardCount(int numPages) {
+        int byFrames = numPages / FRAMES_PER_SHARD;
+        return Math.max(1, Math.min(byFrames, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** @return the bytes of pages the pool may hold */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /** @return the arena pages are kept in, or null if they are kept on the heap */
+    public FrameArena getFrameArena() {
+        return arena;
+    }
+
+    /**
+     * Choose between NO STEAL, the default, and the STEAL policy.  Under
+     * STEAL, a page dirtied by a transaction that is still running is
+     * written out when the pool has no clean page to evict, after its
+     * before and after images are forced to the log, so that the change
+     * can be rolled back if the transaction aborts.  Under NO STEAL such
+     * pages stay in memory, and a transaction that dirties more pages than
+     * the pool holds fails.
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    /** @return whether dirty pages of running transactions may be evicted */
+    public boolean getSteal() {
+        return steal;
+    }
+
+    /**
+     * Choose between FORCE, the default, and NO FORCE.  Under FORCE, the
+     * pages a transaction dirtied are logged and written to their files
+     * before its commit record is logged.  Under NO FORCE, a
+     * committing transaction logs the after images of the pages it
+     * dirtied and forces the log, sharing the force with other
+     * transactions committing at the same time; the pages themselves are
+     * written later, when they are evicted, cleaned or checkpointed, and
+     * {@link LogFile#recover} redoes the changes if that never happens.
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /** @return whether a transaction's pages are written at commit */
+    public boolean getForce() {
+        return force;
+    }
+
+    /**
+     * Start a daemon thread that calls {@link #cleanPages} every
+     * intervalMillis milliseconds, so that evictions find clean pages
+     * instead of writing dirty ones while a transaction waits.  Does
+     * nothing if the cleaner is already running.  The first IOException
+     * the cleaner meets is thrown by the next flushAllPages or
+     * stopPageCleaner.
+     */
+    public synchronized void startPageCleaner(final long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("cleaner interval must be positive");
+        if (pageCleaner != null)
+            return;
+        pageCleaner = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(intervalMillis);
+                    try {
+                        cleanPages();
+                    } catch (IOException e) {
+                        backgroundFailure.compareAndSet(null, e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "simpledb-page-cleaner");
+        pageCleaner.setDaemon(true);
+        pageCleaner.start();
+    }
+
+    /**
+     * Stop the thread started by startPageCleaner and wait for it to exit.
+     *
+     * @throws IOException the first failure the cleaner met, if any
+     */
+    public void stopPageCleaner() throws InterruptedException, IOException {
+        Thread cleaner;
+        synchronized (this) {
+            cleaner = pageCleaner;
+            pageCleaner = null;
+        }
+        if (cleaner != null) {
+            cleaner.interrupt();
+            cleaner.join();
+        }
+        checkBackgroundFailure();
+    }
+
+    /**
+     * Rethrow, once, the first IOException the page cleaner or a
+     * preloader met since the last check.
+     */
+    private void checkBackgroundFailure() throws IOException {
+        IOException e = backgroundFailure.getAndSet(null);
+        if (e != null)
+            throw new IOException("background thread failed: " + e.getMessage(), e);
+    }
+
+    /**
+     * Write out dirty, unpinned pages of every shard that is short of
+     * room that is free or holds clean, unpinned pages, so that its next
+     * evictions need not write anything.  The pages stay resident and stay
+     * uncommitted: their images are logged first, as for any page written
+     * under STEAL.  Does nothing under NO STEAL.
+     *
+     * @return the number of pages written
+     */
+    public int cleanPages() throws IOException {
+        if (!steal)
+            return 0;
+        LogFile log = Database.getLogFile();
+        int written = 0;
+        for (Shard shard : shards) {
+            synchronized (log) {
+                shard.latch.lock();
+                try {
+                    long clean = shard.capacity - shard.used;
+                    ArrayList<Page> committed = new ArrayList<>();
+                    ArrayList<Page> dirty = new ArrayList<>();
+                    for (java.util.Map.Entry<PageId, Page> e : shard.pageMap.entrySet()) {
+                        if (isPinned(shard, e.getKey()))
+                            continue;
+                        if (e.getValue().isDirty() != null)
+                            dirty.add(e.getValue());
+                        else if (shard.unflushed.containsKey(e.getKey()))
+                            committed.add(e.getValue());
+                        else
+                            clean += e.getValue().size();
+                    }
+                    long wanted = (long) Math.ceil(CLEAN_FRACTION * shard.capacity) - clean;
+                    // committed pages are cheaper: nothing to log
+                    for (int i = 0; wanted > 0 && i < committed.size(); ++i, ++written) {
+                        flushPage(shard, committed.get(i).getId());
+                        wanted -= committed.get(i).size();
+                    }
+                    int victims = 0;
+                    for (; wanted > 0 && victims < dirty.size(); ++victims)
+                        wanted -= dirty.get(victims).size();
+                    if (victims == 0)
+                        continue;
+                    stealPages(log, dirty.subList(0, victims));
+                    written += victims;
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Write dirty pages of running transactions to their files, logging
+     * their images and forcing the log first.  The pages are left clean
+     * but keep their before images, so the pool can still undo them in
+     * memory.  The caller holds the log's monitor and the latch of the
+     * shard the pages belong to; the log is always entered first.
+     */
+    private void stealPages(LogFile log, List<Page> pages) throws IOException {
+        for (Page page : pages)
+            log.logWrite(page.isDirty(), page.getBeforeImage(), page);
+        log.force();
+        for (Page page : pages) {
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+            page.markDirty(false, null);
+        }
+    }
+
+    /**
+     * Set the fraction of the pool a table must exceed before scans of it
+     * use a ScanRing.
+     */
+    public void setScanRingFraction(double fraction) {
+        if (fraction < 0)
+            throw new IllegalArgumentException("scan ring fraction must not be negative");
+        this.scanRingFraction = fraction;
+    }
+
+    /**
+     * Get a ring for a sequential scan over a file of the given size, whose
+     * pages are of the default size.
+     *
+     * @param filePages the number of pages the scan will read
+     * @return a new ScanRing, or null if the file is small enough to be
+     *   scanned through the pool as usual
+     */
+    public ScanRing newScanRing(int filePages) {
+        return newScanRing(filePages, getPageSize());
+    }
+
+    /**
+     * Get a ring for a sequential scan over a file of the given size.  The
+     * ring takes up at most an eighth of the pool.
+     *
+     * @param filePages the number of pages the scan will read
+     * @param pageSize the size of those pages in bytes
+     * @return a new ScanRing, or null if the file is small enough to be
+     *   scanned through the pool as usual
+     */
+    public ScanRing newScanRing(int filePages, int pageSize) {
+        if ((double) filePages * pageSize <= scanRingFraction * capacityBytes)
+            return null;
+        return new ScanRing((int) Math.max(1, Math.min(SCAN_RING_PAGES, capacityBytes / 8 / pageSize)));
+    }
+
+    /**
+     * Set how many pages a sequential scan reads ahead; 0 turns read-ahead
+     * off.
+     */
+    public void setPrefetchDepth(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("prefetch depth must not be negative");
+        this.prefetchDepth = depth;
+    }
+
+    /** @return how many pages a sequential scan reads ahead */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /** @return how many pages scans found already loaded by read-ahead */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return how many pages read-ahead was asked for but scans still had
+     *   to read themselves, because the read had not finished yet or the
+     *   page had been evicted again before it was used
+     */
+    public long getPrefetchMisses() {
+        return prefetchMisses.get();
+    }
+
+    /**
+     * Get a read-ahead tracker for a sequential scan.
+     *
+     * @param ring the scan's ring, or null if it does not use one
+     * @return a new ReadAhead, or null if read-ahead is turned off
+     */
+    public ReadAhead newReadAhead(ScanRing ring) {
+        int depth = prefetchDepth;
+        if (ring != null)
+            depth = Math.min(depth, ring.size());
+        if (depth == 0)
+            return null;
+        return new ReadAhead(this, depth, ring != null);
+    }
+
+    /** Note that a ReadAhead is about to load pid. */
+    void prefetchIssued(PageId pid) {
+        prefetchState.putIfAbsent(pid, Boolean.FALSE);
+    }
+
+    /** Note that a ReadAhead no longer expects its scan to use pid. */
+    void prefetchCancelled(PageId pid) {
+        prefetchState.remove(pid);
+    }
+
+    /**
+     * Load a page on behalf of a ReadAhead.  No lock is taken: the page is
+     * only cached, and the scan locks it when it actually asks for it.  The
+     * page is admitted as if the scan had read it itself, but only if a
+     * frame can be had without evicting anything a ring scan should not
+     * displace.  A page read ahead of a ring scan joins the scan's ring
+     * when the scan gets to it, so its frame is recycled like the others.
+     *
+     * @param pid the page to load
+     * @param ringScan whether the page is for a scan that reads through a ring
+     * @return the page, resident already or just loaded, or null if there
+     *   was no frame for it or the scan no longer needs it
+     */
+    Page prefetchPage(PageId pid, boolean ringScan) throws DbException {
+        Shard shard = shardFor(pid);
+        PendingRead read;
+        shard.latch.lock();
+        try {
+            Page page = shard.pageMap.get(pid);
+            if (page != null) {
+                // cached without our help
+                prefetchState.remove(pid);
+                return page;
+            }
+            // the scan already went past this page, or stopped, or someone
+            // is reading it already
+            if (prefetchState.get(pid) != Boolean.FALSE || shard.reading.containsKey(pid))
+                return null;
+            int size = sizeOf(pid);
+            if (!reserveFrame(shard, size, ringScan))
+                return null;
+            read = startRead(shard, pid, size);
+        } finally {
+            shard.latch.unlock();
+        }
+        Page page = readUnlatched(shard, pid, read);
+        shard.latch.lock();
+        try {
+            if (!endRead(shard, pid, read, page))
+                return null;
+            if (ringScan)
+                shard.ringPages.add(pid);
+            else
+                shard.policy.admitPrefetched(pid);
+            prefetchState.replace(pid, Boolean.FALSE, Boolean.TRUE);
+            return page;
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /**
+     * Save the ids of the resident pages to a file, hottest first, so that
+     * a later start can bring them back with {@link #preloadPages}.  Pages
+     * read through a scan ring are left out.  Called when the log shuts
+     * down cleanly, see {@link LogFile#shutdown}.
+     *
+     * @param f the file to write; replaced if it exists
+     */
+    public void saveResidentPages(File f) throws IOException {
+        // rank is only known within a shard; shards hold random slices of
+        // the pool, so interleave them
+        ArrayList<List<PageId>> byShard = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                byShard.add(shard.policy.hottestFirst());
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+        ArrayList<PageId> order = new ArrayList<>();
+        for (int rank = 0; ; ++rank) {
+            int before = order.size();
+            for (List<PageId> pids : byShard) {
+                if (rank < pids.size())
+                    order.add(pids.get(rank));
+            }
+            if (order.size() == before)
+                break;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(order.size());
+            for (PageId pid : order) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data)
+                    out.writeInt(d);
+            }
+        }
+    }
+
+    /**
+     * Read back the pages saved by {@link #saveResidentPages}, so that the
+     * pool starts out holding what it held at the last clean shutdown.
+     * The hottest pages that fit in the room each shard has free are
+     * read, file by file in file order, with one large read per run of
+     * adjacent pages.  Pages of tables that are not in the catalog, or no
+     * longer in their files, are skipped.  Nothing is locked or evicted:
+     * pages that queries have brought in meanwhile are kept, and a page
+     * that may have changed on disk while it was being read is dropped.
+     * Call after the catalog is loaded and any recovery is done.
+     *
+     * @param f the file saveResidentPages wrote
+     * @return the number of pages loaded
+     */
+    public int preloadPages(File f) throws IOException {
+        ArrayList<PageId> saved = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i)
+                saved.add(readPageId(in));
+        } catch (EOFException e) {
+            // cut short; use what is there
+        }
+
+        long[] room = new long[shards.length];
+        for (Shard shard : shards) {
+            shard.latch.lock();
+            try {
+                room[shard.index] = shard.capacity - shard.used;
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+        HashMap<Integer, ArrayList<PageId>> byTable = new HashMap<>();
+        for (PageId pid : saved) {
+            Shard shard = shardFor(pid);
+            int size;
+            try {
+                size = Database.getCatalog().getDatabaseFile(pid.getTableId()).getPageSize();
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (room[shard.index] < size)
+                continue;
+            room[shard.index] -= size;
+            byTable.computeIfAbsent(pid.getTableId(), t -> new ArrayList<>()).add(pid);
+        }
+
+        int loaded = 0;
+        long[] removals = new long[shards.length];
+        for (java.util.Map.Entry<Integer, ArrayList<PageId>> e : byTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            ArrayList<PageId> pids = e.getValue();
+            pids.sort(Comparator.comparingInt(PageId::pageNumber));
+            for (int from = 0; from < pids.size(); from += PRELOAD_BATCH) {
+                if (Thread.currentThread().isInterrupted())
+                    return loaded;
+                for (Shard shard : shards) {
+                    shard.latch.lock();
+                    removals[shard.index] = shard.removals;
+                    shard.latch.unlock();
+                }
+                List<PageId> batch = pids.subList(from, Math.min(pids.size(), from + PRELOAD_BATCH));
+                for (Page page : file.readPages(batch)) {
+                    if (admitPreloaded(page, removals))
+                        loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Run {@link #preloadPages} in a daemon thread, so that queries can
+     * start while the pool fills.  An IOException is kept and thrown by
+     * the next flushAllPages or stopPageCleaner.
+     *
+     * @return the thread, already started; interrupt it to stop loading
+     */
+    public Thread startPreloader(final File f) {
+        Thread loader = new Thread(() -> {
+            try {
+                preloadPages(f);
+            } catch (IOException e) {
+                backgroundFailure.compareAndSet(null, e);
+            }
+        }, "simpledb-preloader");
+        loader.setDaemon(true);
+        loader.start();
+        return loader;
+    }
+
+    /** Read one page id written by saveResidentPages. */
+    private static PageId readPageId(DataInputStream in) throws IOException {
+        String className = in.readUTF();
+        Object[] args = new Object[in.readInt()];
+        for (int i = 0; i < args.length; ++i)
+            args[i] = in.readInt();
+        try {
+            for (java.lang.reflect.Constructor<?> c : Class.forName(className).getDeclaredConstructors()) {
+                if (c.getParameterCount() == args.length)
+                    return (PageId) c.newInstance(args);
+            }
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("cannot rebuild page id of " + className, e);
+        }
+        throw new IOException("cannot rebuild page id of " + className);
+    }
+
+    /**
+     * Make a page read by preloadPages resident, if its shard still has
+     * room for it, it is not resident already, and the shard has not let go
+     * of any page since the given count was taken.
+     */
+    private boolean admitPreloaded(Page page, long[] removals) {
+        PageId pid = page.getId();
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            if (shard.removals != removals[shard.index] || shard.pageMap.containsKey(pid)
+                    || shard.reading.containsKey(pid) || shard.used + page.size() > shard.capacity)
+                return false;
+            putPage(shard, pid, page);
+            shard.policy.admitPrefetched(pid);
+            return true;
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /**
+     * Start reading pid into the given shard, which the caller has latched
+     * and made room for size bytes in.  The frame is reserved and pid is
+     * marked as being read, so that others wait for this read instead of
+     * reading the page too; the caller then releases the latch, reads the
+     * page with {@link #readUnlatched} and ends the read with
+     * {@link #endRead}.
+     */
+    private PendingRead startRead(Shard shard, PageId pid, int size) {
+        PendingRead read = new PendingRead(size, arena != null ? arena.allocate() : -1);
+        shard.used += size;
+        shard.reading.put(pid, read);
+        return read;
+    }
+
+    /**
+     * Read a page started with startRead from its file, into its arena
+     * frame if it has one.  The caller does not hold the shard latch.  If
+     * the read fails, it is ended here before the exception is passed on.
+     */
+    private Page readUnlatched(Shard shard, PageId pid, PendingRead read) {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page page = null;
+        try {
+            if (read.frame >= 0)
+                page = dbFile.readPage(pid, arena.frame(read.frame));
+            if (page == null) {
+                // the file cannot read into a frame; the page goes on the heap
+                if (read.frame >= 0) {
+                    arena.release(read.frame);
+                    read.frame = -1;
+                }
+                page = dbFile.readPage(pid);
+            }
+            return page;
+        } finally {
+            if (page == null) {
+                shard.latch.lock();
+                try {
+                    endRead(shard, pid, read, null);
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * End a read started with startRead; the caller has latched the shard
+     * again.  The page read becomes the resident version of pid, unless the
+     * read failed or was superseded, in which case its frame and its bytes
+     * are given back.  Threads waiting for the read are woken either way.
+     *
+     * @param page the page read, or null if the read failed
+     * @return whether page is now resident
+     */
+    private boolean endRead(Shard shard, PageId pid, PendingRead read, Page page) {
+        shard.reading.remove(pid);
+        shard.used -= read.size;
+        shard.readDone.signalAll();
+        if (page == null || read.superseded) {
+            if (read.frame >= 0)
+                arena.release(read.frame);
+            return false;
+        }
+        if (read.frame >= 0) {
+            shard.frames.put(pid, read.frame);
+            if (shard.pins.containsKey(pid))
+                arena.pin(read.frame);
+        }
+        putPage(shard, pid, page);
+        return true;
+    }
+
+    /**
+     * Note that the version of pid being read, if any, is out of date
+     * because the page was discarded or replaced; the caller has latched
+     * the shard.
+     */
+    private static void supersedeRead(Shard shard, PageId pid) {
+        PendingRead read = shard.reading.get(pid);
+        if (read != null)
+            read.superseded = true;
+    }
+
+    /**
+     * Take a page out of the given shard, which the caller has latched,
+     * detaching it from its frame and giving the frame back to the arena.
+     *
+     * @return the page, or null if it was not resident
+     */
+    private Page removePage(Shard shard, PageId pid) {
+        shard.removals++;
+        Page page = shard.pageMap.remove(pid);
+        if (page != null) {
+            shard.used -= page.size();
+            releaseFrame(shard, pid, page);
+        }
+        return page;
+    }
+
+    /**
+     * Make page the resident version of pid in the given shard, which the
+     * caller has latched and made room in if pid is not resident yet.
+     */
+    private static void putPage(Shard shard, PageId pid, Page page) {
+        Page old = shard.pageMap.put(pid, page);
+        shard.used += page.size() - (old == null ? 0 : old.size());
+    }
+
+    /** @return the bytes a page of pid's table takes up in the pool */
+    private static int sizeOf(PageId pid) {
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).getPageSize();
+    }
+
+    /**
+     * Give back the frame of a page that is about to stop being the
+     * resident version of pid, if it has one.
+     */
+    private void releaseFrame(Shard shard, PageId pid, Page page) {
+        Integer frame = shard.frames.remove(pid);
+        if (frame != null) {
+            page.detach();
+            // a pinned page that is discarded keeps its pins, not its frame
+            if (shard.pins.containsKey(pid))
+                arena.unpin(frame);
+            arena.release(frame);
+        }
+    }
+
+    /** @return whether pid is pinned; the caller has latched shard */
+    private static boolean isPinned(Shard shard, PageId pid) {
+        return shard.pins.containsKey(pid);
+    }
+
+    private Shard shardFor(PageId pid) {
+        if (shards.length == 1)
+            return shards[0];
+        // page ids of one table hash to nearby values; spread them out
+        int h = pid.hashCode() * 0x9E3779B9;
+        return shards[((h ^ (h >>> 16)) & 0x7fffffff) % shards.length];
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -69,6 +941,10 @@ public class BufferPool {
      * Will acquire a lock and may block if that lock is held by another
      * transaction.
      * <p>
+     * The page is pinned on behalf of tid, so it stays resident until the
+     * caller is done with it and calls {@link #unpinPage}.  Pins that are
+     * not given back are dropped when the transaction completes.
+     * <p>
      * The retrieved page should be looked up in the buffer pool.  If it
      * is present, it should be returned.  If it is not present, it should
      * be added to the buffer pool and returned.  If there is insufficient
@@ -80,6 +956,24 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan that reads
+     * through the given ring.  A page that is not resident is read into one
+     * of the ring's frames and is not handed to the replacement policy, so
+     * the scan does not push other transactions' pages out of the pool.  A
+     * page read this way is promoted into the policy the next time it is
+     * retrieved without a ring.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to use the pool as usual
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
         if(perm == Permissions.READ_ONLY)
@@ -88,14 +982,243 @@ public class BufferPool {
             assert perm == Permissions.READ_WRITE;
             lockManager.acquireLock(pid, tid, LockType.EXCLUSIVE);
         }
-        if(pageMap.containsKey(pid))
-            return pageMap.get(pid);
-        if(pageMap.size() == numPages)
-            evictPage();
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page page = dbFile.readPage(pid);
-        pageMap.put(pid, page);
-        return pageMap.get(pid);
+        Shard shard = shardFor(pid);
+        if (ring != null)
+            recycleRingFrame(ring, shard);
+        int size = -1;
+        while (true) {
+            PendingRead read;
+            shard.latch.lock();
+            try {
+                Page page = shard.pageMap.get(pid);
+                if (page == null && shard.reading.containsKey(pid)) {
+                    // someone is reading it; wait for that rather than read it again
+                    shard.readDone.awaitUninterruptibly();
+                    continue;
+                }
+                Boolean prefetched = prefetchState.isEmpty() ? null : prefetchState.remove(pid);
+                if (page != null) {
+                    if (prefetched == Boolean.TRUE)
+                        prefetchHits.incrementAndGet();
+                    if (ring == null) {
+                        if (shard.ringPages.remove(pid))
+                            shard.policy.admit(pid);
+                        else
+                            shard.policy.access(pid);
+                    } else if (prefetched == Boolean.TRUE && shard.ringPages.contains(pid)) {
+                        // read ahead for this scan; it takes the frame recycled above
+                        ring.add(pid);
+                    }
+                    pin(shard, tid, pid);
+                    return page;
+                }
+                if (prefetched != null)
+                    prefetchMisses.incrementAndGet();
+                if (size < 0)
+                    size = sizeOf(pid);
+                read = reserveFrame(shard, size, false) ? startRead(shard, pid, size) : null;
+            } finally {
+                shard.latch.unlock();
+            }
+            if (read == null) {
+                borrowFrame(shard, size);
+                continue;
+            }
+            // the latch is not held while the page is read
+            Page page = readUnlatched(shard, pid, read);
+            shard.latch.lock();
+            try {
+                // if it changed meanwhile, go round and read it again
+                if (endRead(shard, pid, read, page)) {
+                    if (ring != null) {
+                        shard.ringPages.add(pid);
+                        ring.add(pid);
+                    } else {
+                        shard.policy.admit(pid);
+                    }
+                    pin(shard, tid, pid);
+                    return page;
+                }
+            } finally {
+                shard.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Pin a page on behalf of tid; the caller has latched its shard.
+     * Anonymous callers (a null tid) do not pin.
+     */
+    private void pin(Shard shard, TransactionId tid, PageId pid) {
+        if (tid == null)
+            return;
+        HashMap<PageId, Integer> held = pinsByTid.computeIfAbsent(tid, t -> new HashMap<>());
+        synchronized (held) {
+            held.merge(pid, 1, Integer::sum);
+        }
+        if (shard.pins.merge(pid, 1, Integer::sum) == 1) {
+            Integer frame = shard.frames.get(pid);
+            if (frame != null)
+                arena.pin(frame);
+        }
+    }
+
+    /**
+     * Take count pins off a page; the caller has latched its shard and
+     * already took them off the transaction's record.
+     */
+    private void unpin(Shard shard, PageId pid, int count) {
+        Integer left = shard.pins.get(pid);
+        if (left == null)
+            return;
+        if (left > count) {
+            shard.pins.put(pid, left - count);
+            return;
+        }
+        shard.pins.remove(pid);
+        Integer frame = shard.frames.get(pid);
+        if (frame != null)
+            arena.unpin(frame);
+    }
+
+    /**
+     * Give back one pin tid took on a page with getPage, once the caller no
+     * longer uses the page, so that it may be evicted.  Tuples already read
+     * from the page stay valid.  Unpinning a page tid holds no pin on, for
+     * instance because the transaction has completed, does nothing.
+     *
+     * @param tid the transaction that pinned the page
+     * @param pid the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        if (tid == null)
+            return;
+        HashMap<PageId, Integer> held = pinsByTid.get(tid);
+        if (held == null)
+            return;
+        synchronized (held) {
+            Integer count = held.get(pid);
+            if (count == null)
+                return;
+            if (count == 1)
+                held.remove(pid);
+            else
+                held.put(pid, count - 1);
+        }
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            unpin(shard, pid, 1);
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /** @return a copy of the pins tid holds now */
+    private HashMap<PageId, Integer> pinsOf(TransactionId tid) {
+        HashMap<PageId, Integer> held = pinsByTid.get(tid);
+        if (held == null)
+            return new HashMap<>();
+        synchronized (held) {
+            return new HashMap<>(held);
+        }
+    }
+
+    /**
+     * Give back the pins tid took since pinsOf returned before, so that the
+     * pages an insert or delete dirtied may be written out under STEAL
+     * once it is done with them.
+     */
+    private void unpinSince(TransactionId tid, HashMap<PageId, Integer> before) {
+        HashMap<PageId, Integer> held = pinsByTid.get(tid);
+        if (held == null)
+            return;
+        ArrayList<PageId> taken = new ArrayList<>();
+        synchronized (held) {
+            for (java.util.Map.Entry<PageId, Integer> e : held.entrySet()) {
+                for (int i = e.getValue() - before.getOrDefault(e.getKey(), 0); i > 0; --i)
+                    taken.add(e.getKey());
+            }
+        }
+        for (PageId pid : taken)
+            unpinPage(tid, pid);
+    }
+
+    /** Give back every pin tid still holds. */
+    private void unpinAll(TransactionId tid) {
+        HashMap<PageId, Integer> held = pinsByTid.remove(tid);
+        if (held == null)
+            return;
+        synchronized (held) {
+            for (java.util.Map.Entry<PageId, Integer> e : held.entrySet()) {
+                Shard shard = shardFor(e.getKey());
+                shard.latch.lock();
+                try {
+                    unpin(shard, e.getKey(), e.getValue());
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+        }
+    }
+
+    /** @return whether some transaction has pid pinned */
+    public boolean isPinned(PageId pid) {
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            return shard.pins.containsKey(pid);
+        } finally {
+            shard.latch.unlock();
+        }
+    }
+
+    /**
+     * Free the frame the ring is about to reuse, if its page is still a clean
+     * ring page.  When that frame belongs to a different shard than target,
+     * its bytes move to target's budget, so the ring keeps reusing the same
+     * amount of memory.
+     */
+    private void recycleRingFrame(ScanRing ring, Shard target) {
+        PageId old = ring.victim();
+        if (old == null)
+            return;
+        Shard shard = shardFor(old);
+        lockPair(shard, target);
+        try {
+            if (!shard.ringPages.contains(old) || shard.pageMap.get(old).isDirty() != null
+                    || shard.unflushed.containsKey(old) || isPinned(shard, old))
+                return;
+            shard.ringPages.remove(old);
+            long size = removePage(shard, old).size();
+            shard.capacity -= size;
+            target.capacity += size;
+        } finally {
+            unlockPair(shard, target);
+        }
+    }
+
+    /**
+     * Latch two shards, always in the same order, so that moving budget
+     * between them cannot deadlock.  No other code path waits for a latch
+     * while holding one.
+     */
+    private static void lockPair(Shard a, Shard b) {
+        if (a == b) {
+            a.latch.lock();
+        } else if (a.index < b.index) {
+            a.latch.lock();
+            b.latch.lock();
+        } else {
+            b.latch.lock();
+            a.latch.lock();
+        }
+    }
+
+    private static void unlockPair(Shard a, Shard b) {
+        a.latch.unlock();
+        if (a != b)
+            b.latch.unlock();
     }
 
     /**
@@ -142,23 +1265,94 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        unpinAll(tid);
         Set<PageId> holds = lockManager.getHoldsLock(tid);
         if(holds == null) return;
-        if(commit)
+        LogFile log = Database.getLogFile();
+        if(commit && force) {
             flushPages(tid);
-        else{
+            // its pages are in the log; so must its outcome be
+            if (log.isActive(tid))
+                log.logCommit(tid);
+        } else if (commit) {
+            logCommit(tid, holds, log);
+        } else{
+            // the log rolls back on disk the pages it wrote early; the pages
+            // still in the pool get their before-images back in place
+            if (log.isActive(tid))
+                log.logAbort(tid);
             for(PageId pid : holds){
-                Page page = pageMap.get(pid);
-                if(page != null){
-                    Page p = page.getBeforeImage();
-                    assert p != null;
-                    pageMap.put(pid, p);
+                Shard shard = shardFor(pid);
+                shard.latch.lock();
+                try {
+                    Page page = shard.pageMap.get(pid);
+                    if(page != null){
+                        Page p = page.getBeforeImage();
+                        assert p != null;
+                        // the image is on the heap; it stays there until evicted
+                        releaseFrame(shard, pid, page);
+                        putPage(shard, pid, p);
+                    }
+                } finally {
+                    shard.latch.unlock();
                 }
             }
         }
         lockManager.releaseAllLock(tid);
     }
 
+    /**
+     * Commit tid under NO FORCE: log the after images of the pages it
+     * dirtied and a commit record, and wait for the log to be forced.  The
+     * pages stay resident, unflushed, until something writes them out.
+     */
+    private void logCommit(TransactionId tid, Set<PageId> holds, LogFile log)
+        throws IOException {
+        long end;
+        // log before latch, as everywhere else.  Holding the log also keeps
+        // the pages from being stolen while they are still dirty.
+        synchronized (log) {
+            ArrayList<PageId> logged = new ArrayList<>();
+            for (PageId pid : holds) {
+                Shard shard = shardFor(pid);
+                shard.latch.lock();
+                try {
+                    Page page = shard.pageMap.get(pid);
+                    if (page == null)
+                        continue;
+                    if (page.isDirty() != null) {
+                        assert page.isDirty() == tid;
+                        log.logRedo(tid, page);
+                        logged.add(pid);
+                    } else {
+                        page.setBeforeImage();
+                    }
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+            // nothing to make durable for a transaction that wrote nothing
+            if (!log.isActive(tid))
+                return;
+            end = log.appendCommit(tid);
+            // the after images are only redone, never undone, so the pages
+            // must wait for the commit record, not just their own
+            for (PageId pid : logged) {
+                Shard shard = shardFor(pid);
+                shard.latch.lock();
+                try {
+                    Page page = shard.pageMap.get(pid);
+                    page.markDirty(false, null);
+                    page.setBeforeImage();
+                    shard.unflushed.put(pid, end);
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+        }
+        log.forceTo(end);
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other 
@@ -179,14 +1373,12 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> dirtyPageAr = f.insertTuple(tid, t);
-        for (Page dirtyPage : dirtyPageAr){
-            dirtyPage.markDirty(true, tid);
-            PageId pid = dirtyPage.getId();
-            if(!pageMap.containsKey(pid) && pageMap.size() == numPages){
-                evictPage();
-            }
-            pageMap.put(pid, dirtyPage);
+        HashMap<PageId, Integer> pinned = pinsOf(tid);
+        try {
+            ArrayList<Page> dirtyPageAr = f.insertTuple(tid, t);
+            cacheDirtyPages(tid, dirtyPageAr);
+        } finally {
+            unpinSince(tid, pinned);
         }
     }
 
@@ -210,27 +1402,105 @@ public class BufferPool {
         assert t.getRecordId() != null;
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> dirtyPageAr = f.deleteTuple(tid, t);
+        HashMap<PageId, Integer> pinned = pinsOf(tid);
+        try {
+            ArrayList<Page> dirtyPageAr = f.deleteTuple(tid, t);
+            cacheDirtyPages(tid, dirtyPageAr);
+        } finally {
+            unpinSince(tid, pinned);
+        }
+    }
+
+    /**
+     * Mark the pages dirtied by an insert or delete and make them the cached
+     * versions of those pages, evicting to make room for any that are not
+     * resident yet.
+     */
+    private void cacheDirtyPages(TransactionId tid, ArrayList<Page> dirtyPageAr)
+        throws DbException {
         for (Page dirtyPage : dirtyPageAr){
-            dirtyPage.markDirty(true, tid);
             PageId pid = dirtyPage.getId();
-            if(!pageMap.containsKey(pid) && pageMap.size() == numPages){
-                evictPage();
+            Shard shard = shardFor(pid);
+            while (true) {
+                shard.latch.lock();
+                try {
+                    // under the latch, so a page being stolen is not marked
+                    // clean after this
+                    dirtyPage.markDirty(true, tid);
+                    supersedeRead(shard, pid);
+                    Page resident = shard.pageMap.get(pid);
+                    if(resident != null){
+                        if (resident != dirtyPage)
+                            releaseFrame(shard, pid, resident);
+                        putPage(shard, pid, dirtyPage);
+                        break;
+                    }
+                    if(reserveFrame(shard, dirtyPage.size(), false)){
+                        putPage(shard, pid, dirtyPage);
+                        shard.policy.admit(pid);
+                        break;
+                    }
+                } finally {
+                    shard.latch.unlock();
+                }
+                borrowFrame(shard, dirtyPage.size());
             }
-            pageMap.put(pid, dirtyPage);
         }
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk.  Pages of running transactions are
+     * logged first, as under STEAL.  The pages of each file are written in
+     * one batch, see {@link DbFile#writePages}, and forced.  Then throws
+     * the first IOException the page cleaner or a preloader met, if any.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : pageMap.keySet())
-            flushPage(pid);
+        LogFile log = Database.getLogFile();
+        synchronized (log) {
+            // in index order, as lockPair does
+            for (Shard shard : shards)
+                shard.latch.lock();
+            try {
+                ArrayList<Page> dirty = new ArrayList<>();
+                ArrayList<Page> written = new ArrayList<>();
+                for (Shard shard : shards) {
+                    for (Page page : shard.pageMap.values()) {
+                        if (page.isDirty() != null)
+                            dirty.add(page);
+                        else if (shard.unflushed.containsKey(page.getId()))
+                            written.add(page);
+                    }
+                }
+                for (Page page : dirty)
+                    log.logWrite(page.isDirty(), page.getBeforeImage(), page);
+                if (!dirty.isEmpty() || !written.isEmpty())
+                    log.force();
+                written.addAll(dirty);
+                writeBatches(written);
+                for (Page page : dirty)
+                    page.markDirty(false, null);
+                for (Shard shard : shards)
+                    shard.unflushed.clear();
+            } finally {
+                for (Shard shard : shards)
+                    shard.latch.unlock();
+            }
+        }
+        // the pages are written all the same
+        checkBackgroundFailure();
+    }
+
+    /** Write pages to their files, one batch per file. */
+    private static void writeBatches(List<Page> pages) throws IOException {
+        HashMap<Integer, ArrayList<Page>> byTable = new HashMap<>();
+        for (Page page : pages)
+            byTable.computeIfAbsent(page.getId().getTableId(), t -> new ArrayList<>()).add(page);
+        for (java.util.Map.Entry<Integer, ArrayList<Page>> e : byTable.entrySet())
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -241,22 +1511,36 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageMap.remove(pid);
+        Shard shard = shardFor(pid);
+        shard.latch.lock();
+        try {
+            shard.unflushed.remove(pid);
+            supersedeRead(shard, pid);
+            if(removePage(shard, pid) != null && !shard.ringPages.remove(pid))
+                shard.policy.remove(pid);
+        } finally {
+            shard.latch.unlock();
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk; the caller must hold the shard latch.
+     * @param shard the shard pid belongs to
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(Shard shard, PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        if(!pageMap.containsKey(pid)) return;
-        Page page = pageMap.get(pid);
-        if(page.isDirty() != null){
+        Page page = shard.pageMap.get(pid);
+        if(page == null) return;
+        Long lsn = shard.unflushed.remove(pid);
+        if(page.isDirty() != null || lsn != null){
+            // write-ahead: the log records of a committed page go first
+            if (lsn != null)
+                Database.getLogFile().forceTo(lsn);
             int tableId = pid.getTableId();
             DbFile f = Database.getCatalog().getDatabaseFile(tableId);
             f.writePage(page);
@@ -264,45 +1548,225 @@ public class BufferPool {
         }
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /** Write all pages of the specified transaction to disk, logging
+        their images and forcing the log first.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
         Set<PageId> holds = lockManager.getHoldsLock(tid);
         if(holds == null) return;
-        for(PageId pid : holds){
-            Page page = pageMap.get(pid);
-            if(page != null && page.isDirty() != null){
-                assert page.isDirty() == tid;
-                flushPage(pid);
-                page.setBeforeImage();
+        LogFile log = Database.getLogFile();
+        // holding the log keeps the pages from being stolen while they are
+        // written; being dirty, they cannot be evicted either
+        synchronized (log) {
+            ArrayList<Page> dirty = new ArrayList<>();
+            for(PageId pid : holds){
+                Shard shard = shardFor(pid);
+                shard.latch.lock();
+                try {
+                    Page page = shard.pageMap.get(pid);
+                    if (page != null && page.isDirty() != null) {
+                        assert page.isDirty() == tid;
+                        dirty.add(page);
+                    }
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+            // write-ahead, as for a stolen page: recovery must redo these
+            // images, not older ones logged if a page was stolen before, and
+            // the force also covers earlier committed changes on the pages
+            for (Page page : dirty)
+                log.logWrite(tid, page.getBeforeImage(), page);
+            if (!dirty.isEmpty())
+                log.force();
+            writeBatches(dirty);
+            for(PageId pid : holds){
+                Shard shard = shardFor(pid);
+                shard.latch.lock();
+                try {
+                    Page page = shard.pageMap.get(pid);
+                    if(page != null){
+                        if (page.isDirty() != null) {
+                            page.markDirty(false, null);
+                            shard.unflushed.remove(pid);
+                        }
+                        // pages written early are clean but still have the old image
+                        page.setBeforeImage();
+                    }
+                } finally {
+                    shard.latch.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure shard has room for a page of the given size, evicting its
+     * pages while it would go over its budget.  The caller must hold the
+     * shard latch.
+     *
+     * @param ringOnly only evict pages left behind by scan rings
+     * @return false if the shard is full and none of its pages can be evicted
+     */
+    private boolean reserveFrame(Shard shard, int bytes, boolean ringOnly) throws DbException {
+        while (shard.used + bytes > shard.capacity) {
+            if (!evictPage(shard, ringOnly))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move enough budget from some other shard to shard for a page of the
+     * given size, for when none of shard's own pages can be evicted.  This
+     * keeps the budget exact for the pool as a whole, so it never holds
+     * more than its capacity.  The caller must not hold any shard latch.
+     */
+    private void borrowFrame(Shard shard, int bytes) throws DbException {
+        for (Shard other : shards) {
+            if (other == shard)
+                continue;
+            lockPair(shard, other);
+            try {
+                long needed = shard.used + bytes - shard.capacity;
+                if (needed <= 0)
+                    return;
+                if (other.capacity >= needed && reserveFrame(other, (int) needed, false)) {
+                    other.capacity -= needed;
+                    shard.capacity += needed;
+                    return;
+                }
+            } finally {
+                unlockPair(shard, other);
+            }
+        }
+        if (!steal)
+            throw new DbException("No clean unpinned page throw by BufferPool evictPage");
+        stealFrame(shard, bytes);
+    }
+
+    /**
+     * Make room for a page of the given size in shard by writing out dirty
+     * pages, from shard itself if it has ones that are not pinned, or else
+     * from another shard whose budget then moves to shard.  The caller must
+     * not hold any shard latch.
+     *
+     * @throws DbException if every page in the pool is pinned
+     */
+    private void stealFrame(Shard shard, int bytes) throws DbException {
+        LogFile log = Database.getLogFile();
+        synchronized (log) {
+            for (int i = 0; i < shards.length; ++i) {
+                Shard other = shards[(shard.index + i) % shards.length];
+                lockPair(shard, other);
+                try {
+                    // someone may have made room meanwhile
+                    long needed = shard.used + bytes - shard.capacity;
+                    if (needed <= 0)
+                        return;
+                    if (other == shard) {
+                        while (shard.used + bytes > shard.capacity && stealPage(log, shard))
+                            ;
+                        if (shard.used + bytes <= shard.capacity)
+                            return;
+                        continue;
+                    }
+                    if (other.capacity < needed)
+                        continue;
+                    while (other.used + needed > other.capacity && stealPage(log, other))
+                        ;
+                    if (other.used + needed <= other.capacity) {
+                        other.capacity -= needed;
+                        shard.capacity += needed;
+                        return;
+                    }
+                } finally {
+                    unlockPair(shard, other);
+                }
             }
         }
+        throw new DbException("No unpinned page throw by BufferPool evictPage");
+    }
+
+    /**
+     * Evict a page from the given shard, writing it out under STEAL if it is
+     * dirty.  The caller holds the log's monitor and the shard latch.
+     *
+     * @return false if every page of the shard is pinned
+     */
+    private boolean stealPage(LogFile log, Shard shard) throws DbException {
+        if (evictPage(shard))
+            return true;
+        PageId victim = shard.policy.evict(pid -> !isPinned(shard, pid));
+        if (victim == null)
+            return false;
+        Page page = shard.pageMap.get(victim);
+        try {
+            if (page.isDirty() != null)
+                stealPages(log, java.util.Collections.singletonList(page));
+        } catch (IOException e) {
+            throw new DbException("IOException throw by BufferPool evictPage()");
+        }
+        removePage(shard, victim);
+        return true;
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from the given shard, which the caller has latched.
+     * Pages left behind by scan rings go first, then the replacement
+     * policy picks a victim.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * @return false if the shard holds no page that may be evicted
+     */
+    private boolean evictPage(Shard shard) throws DbException {
+        return evictPage(shard, false);
+    }
+
+    /**
+     * Pick a clean page left behind by a scan ring as the victim.
+     *
+     * @param usedOnly skip pages read ahead that their scan has not used yet
+     * @return the victim, no longer among the shard's ring pages, or null
+     */
+    private PageId evictRingPage(Shard shard, boolean usedOnly) {
+        for (Iterator<PageId> it = shard.ringPages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (shard.pageMap.get(pid).isDirty() != null || isPinned(shard, pid))
+                continue;
+            if (usedOnly && prefetchState.get(pid) == Boolean.TRUE)
+                continue;
+            it.remove();
+            return pid;
+        }
+        return null;
+    }
+
+    /**
+     * Discards a page from the given shard, which the caller has latched.
+     *
+     * @param ringOnly only consider pages left behind by scan rings
+     * @return false if the shard holds no page that may be evicted
      */
-    private synchronized  void evictPage() throws DbException {
+    private boolean evictPage(Shard shard, boolean ringOnly) throws DbException {
         // some code goes here
         // not necessary for lab1
-        ArrayList<PageId> KeyAr = new ArrayList<>(pageMap.keySet());
-        int size = KeyAr.size();
-        int first = generator.nextInt(size);
-        for(int i=0; i<size; ++i) {
-            int index = (first + i) % size;
-            PageId pid = KeyAr.get(index);
-            if(pageMap.get(pid).isDirty() != null) continue;
-            try{
-                flushPage(pid);
-            }catch (IOException e){
-                throw new DbException("IOException throw by BufferPool evictPage()");
-            }
-            pageMap.remove(pid);
-            return;
+        PageId victim = evictRingPage(shard, true);
+        if (victim == null)
+            victim = evictRingPage(shard, false);
+        if (victim == null && !ringOnly)
+            victim = shard.policy.evict(pid ->
+                    shard.pageMap.get(pid).isDirty() == null && !isPinned(shard, pid));
+        if(victim == null)
+            return false;
+        try{
+            flushPage(shard, victim);
+        }catch (IOException e){
+            throw new DbException("IOException throw by BufferPool evictPage()");
         }
-        throw new DbException("No clean page throw by BufferPool evictPage");
+        removePage(shard, victim);
+        return true;
     }
 }
@@ -44,7 +44,8 @@ public class Catalog {
 
     /**
      * Add a new table to the catalog.
-     * This table's contents are stored in the specified DbFile.
+     * This table's contents are stored in the specified DbFile, which also
+     * declares the size of the table's pages, see {@link DbFile#getPageSize()}.
      * @param file the contents of the table to add;  file.getId() is the identfier of
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
@@ -140,6 +141,11 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line declares a table as <code>name (field type [pk], ...)</code>,
+     * optionally followed by <code>pagesize N</code> to give the table pages
+     * of N bytes instead of {@link BufferPool#getPageSize()}, and by
+     * <code>layout pax</code> to store it in a {@link PaxFile} rather than
+     * a HeapFile.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -164,6 +170,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -177,17 +185,32 @@ public class Catalog {
                         }
                     }
                 }
+                int pageSize = BufferPool.getPageSize();
+                boolean pax = false;
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                for (int i = 0; i < options.length && !options[i].isEmpty(); i += 2) {
+                    String option = options[i].toLowerCase();
+                    if (option.equals("pagesize")) {
+                        pageSize = Integer.parseInt(options[i + 1]);
+                    } else if (option.equals("layout") && options[i + 1].equalsIgnoreCase("pax")) {
+                        pax = true;
+                    } else if (!option.equals("layout") || !options[i + 1].equalsIgnoreCase("heap")) {
+                        System.out.println("Unknown table option " + options[i]);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dat = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = pax ? new PaxFile(dat, t, pageSize) : new HeapFile(dat, t, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
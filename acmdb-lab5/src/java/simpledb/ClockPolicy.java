@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Second-chance CLOCK replacement.  Tracked pages form a circular list with
+ * a hand; a reference sets the page's bit, and the hand clears bits as it
+ * sweeps, evicting the first evictable page whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private static class Node {
+        final PageId pid;
+        boolean referenced;
+        Node prev, next;
+
+        Node(PageId pid) {
+            this.pid = pid;
+            this.referenced = true;
+        }
+    }
+
+    private final HashMap<PageId, Node> nodes;
+    private Node hand;
+
+    public ClockPolicy() {
+        this.nodes = new HashMap<>();
+        this.hand = null;
+    }
+
+    public void admit(PageId pid) {
+        if (nodes.containsKey(pid)) {
+            access(pid);
+            return;
+        }
+        insert(new Node(pid));
+    }
+
+    public void admitPrefetched(PageId pid) {
+        if (nodes.containsKey(pid))
+            return;
+        Node node = new Node(pid);
+        node.referenced = false;
+        insert(node);
+    }
+
+    private void insert(Node node) {
+        nodes.put(node.pid, node);
+        if (hand == null) {
+            node.prev = node;
+            node.next = node;
+            hand = node;
+        } else {
+            // insert just behind the hand so a new page is the last one the
+            // hand reaches
+            node.prev = hand.prev;
+            node.next = hand;
+            hand.prev.next = node;
+            hand.prev = node;
+        }
+    }
+
+    public void access(PageId pid) {
+        Node node = nodes.get(pid);
+        if (node != null)
+            node.referenced = true;
+    }
+
+    public void remove(PageId pid) {
+        Node node = nodes.remove(pid);
+        if (node != null)
+            unlink(node);
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        // two full sweeps clear every reference bit, so a third could not
+        // find anything new
+        int steps = 2 * nodes.size();
+        for (int i = 0; i < steps; ++i) {
+            Node node = hand;
+            hand = hand.next;
+            if (node.referenced) {
+                node.referenced = false;
+            } else if (evictable.test(node.pid)) {
+                nodes.remove(node.pid);
+                unlink(node);
+                return node.pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public List<PageId> hottestFirst() {
+        // referenced pages survive the next sweep; within each group, the
+        // page just behind the hand is the last one the hand reaches
+        ArrayList<PageId> referenced = new ArrayList<>();
+        ArrayList<PageId> unreferenced = new ArrayList<>();
+        if (hand != null) {
+            Node node = hand;
+            do {
+                node = node.prev;
+                (node.referenced ? referenced : unreferenced).add(node.pid);
+            } while (node != hand);
+        }
+        referenced.addAll(unreferenced);
+        return referenced;
+    }
+
+    private void unlink(Node node) {
+        if (node.next == node) {
+            hand = null;
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        if (hand == node)
+            hand = node.next;
+    }
+}
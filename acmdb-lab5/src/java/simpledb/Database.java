@@ -55,11 +55,19 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the given,
+     * differently configured one and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -19,6 +19,44 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into a frame of the buffer pool's
+     * off-heap arena, and return a page that keeps its bytes in the frame.
+     * The page must stop using the frame when its {@link Page#detach()} is
+     * called.  Files whose pages cannot live in a frame return null, and the
+     * buffer pool falls back on {@link #readPage(PageId)}.
+     *
+     * @param id the page to read
+     * @param frame the frame; position 0, capacity the size of a frame
+     * @return the page, or null if it was not read into the frame
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default Page readPage(PageId id, java.nio.ByteBuffer frame) {
+        return null;
+    }
+
+    /**
+     * Read several pages from disk.  Implementations should read the pages
+     * in file order, reading pages that are adjacent in the file with a
+     * single large read.  This default reads them one at a time.
+     *
+     * @param ids the pages to read, in any order
+     * @return the pages that were read; pages that are not in the file (any
+     *   more) are left out
+     * @throws IOException if a read fails
+     */
+    default List<Page> readPages(List<PageId> ids) throws IOException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (PageId id : ids) {
+            try {
+                pages.add(readPage(id));
+            } catch (IllegalArgumentException e) {
+                // past the end of the file
+            }
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +66,20 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages to disk and force them to the storage device.
+     * Implementations should write the pages in file order, coalescing
+     * pages that are adjacent in the file into single writes, and force
+     * the file once.  This default writes them one at a time.
+     *
+     * @param pages the pages to write, in any order
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -59,6 +111,16 @@ public interface DbFile {
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Returns the size in bytes of the pages of this file.  Tables may use
+     * pages of different sizes; the buffer pool budgets the bytes of the
+     * pages it holds, not their number.  This default is the size shared
+     * by files that have no size of their own, {@link BufferPool#getPageSize()}.
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
      * iterator must use {@link BufferPool#getPage}, rather than
@@ -68,6 +130,20 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile, of
+     * which the caller only uses the given fields.  Files that store their
+     * tuples by column may decode only those fields and leave the others
+     * of the returned tuples unset.  This default returns every field.
+     *
+     * @param columns the indexes of the fields the caller uses, in any order
+     * @return an iterator over all the tuples stored in this DbFile.
+     * @see #iterator(TransactionId)
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
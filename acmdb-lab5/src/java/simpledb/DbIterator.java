@@ -34,6 +34,27 @@ public interface DbIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next tuples from the operator as a batch, so a caller that
+   * handles many tuples at once pays for one call rather than one per
+   * tuple.  Operators that can work a batch at a time override this; the
+   * default gathers up to {@link TupleBatch#DEFAULT_CAPACITY} tuples from
+   * next().  A caller should take the tuples of an iterator either all
+   * through next() or all through nextBatch() between opening or rewinding
+   * it and closing it.
+   *
+   * @return a batch of at least one tuple, or null if there are no more
+   *   tuples.  The batch may be reused by the next call, though the tuples
+   *   in it may be kept.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+      TupleBatch batch = new TupleBatch(getTupleDesc());
+      while (!batch.isFull() && hasNext())
+          batch.add(next());
+      return batch.isEmpty() ? null : batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
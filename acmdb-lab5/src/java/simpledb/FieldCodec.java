@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FieldCodec reads and writes fields in their on-disk format directly
+ * against a ByteBuffer, at an absolute offset, without streams.
+ * <p>
+ * INT_TYPE fields are a big-endian int.  STRING_TYPE fields are an int
+ * length followed by STRING_LEN bytes, padded with zeroes; VARCHAR_TYPE
+ * fields are a short length followed by only the bytes of the string.
+ * Strings are stored one byte per character, so a stored string is the
+ * ISO-8859-1 encoding of its value.  That makes comparing the raw bytes as
+ * unsigned values order strings as {@link String#compareTo} orders their
+ * values, and lets {@link #hash} give {@link Field#hashCode()} of a field
+ * without decoding it.
+ *
+ * @see Type
+ */
+public final class FieldCodec {
+
+    private FieldCodec() {
+    }
+
+    /** @return the int stored at offset */
+    public static int readInt(ByteBuffer buf, int offset) {
+        return buf.getInt(offset);
+    }
+
+    /** Store v at offset. */
+    public static void writeInt(ByteBuffer buf, int offset, int v) {
+        buf.putInt(offset, v);
+    }
+
+    /** @return the number of bytes of the string of the given type at offset */
+    public static int stringLength(Type type, ByteBuffer buf, int offset) {
+        int len = type == Type.VARCHAR_TYPE ? buf.getShort(offset) : buf.getInt(offset);
+        if (len < 0 || len > Type.STRING_LEN)
+            throw new IllegalArgumentException("bad string length " + len + " at " + offset);
+        return len;
+    }
+
+    /** @return the offset of the first byte of the string stored at offset */
+    private static int stringStart(Type type, int offset) {
+        return offset + (type == Type.VARCHAR_TYPE ? 2 : 4);
+    }
+
+    /** @return the string of the given type stored at offset */
+    public static String readString(Type type, ByteBuffer buf, int offset) {
+        int len = stringLength(type, buf, offset);
+        int start = stringStart(type, offset);
+        if (buf.hasArray())
+            return new String(buf.array(), buf.arrayOffset() + start, len,
+                    StandardCharsets.ISO_8859_1);
+        byte[] bs = new byte[len];
+        for (int i = 0; i < len; i++)
+            bs[i] = buf.get(start + i);
+        return new String(bs, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Store s as a string of the given type at offset, cut to STRING_LEN
+     * characters.  STRING_TYPE fields are padded with zeroes.
+     */
+    public static void writeString(Type type, ByteBuffer buf, int offset, String s) {
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        if (type == Type.VARCHAR_TYPE)
+            buf.putShort(offset, (short) len);
+        else
+            buf.putInt(offset, len);
+        int start = stringStart(type, offset);
+        int end = type == Type.VARCHAR_TYPE ? len : Type.STRING_LEN;
+        for (int i = 0; i < end; i++)
+            buf.put(start + i, i < len ? (byte) s.charAt(i) : 0);
+    }
+
+    /**
+     * @return the bytes s is stored as, or null if s has a character that
+     *   does not fit in a byte and so cannot be compared as bytes
+     */
+    public static byte[] stringBytes(String s) {
+        byte[] bs = new byte[s.length()];
+        for (int i = 0; i < bs.length; i++) {
+            char c = s.charAt(i);
+            if (c > 0xFF)
+                return null;
+            bs[i] = (byte) c;
+        }
+        return bs;
+    }
+
+    /**
+     * Compare the string of the given type stored at offset with key, the
+     * bytes of another string, without decoding it.
+     *
+     * @return a negative number, zero or a positive number as the stored
+     *   string is less than, equal to or greater than key
+     * @see #stringBytes(String)
+     */
+    public static int compareString(Type type, ByteBuffer buf, int offset, byte[] key) {
+        int len = stringLength(type, buf, offset);
+        int start = stringStart(type, offset);
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buf.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (c != 0)
+                return c;
+        }
+        return len - key.length;
+    }
+
+    /**
+     * @return true if key occurs in the string of the given type stored at
+     *   offset, as {@link StringField#compare} with LIKE tests
+     */
+    public static boolean containsString(Type type, ByteBuffer buf, int offset, byte[] key) {
+        int len = stringLength(type, buf, offset);
+        int start = stringStart(type, offset);
+        outer:
+        for (int i = 0; i + key.length <= len; i++) {
+            for (int k = 0; k < key.length; k++)
+                if (buf.get(start + i + k) != key[k])
+                    continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    /** @return the field of the given type stored at offset */
+    public static Field read(Type type, ByteBuffer buf, int offset) {
+        if (type == Type.INT_TYPE)
+            return new IntField(readInt(buf, offset));
+        return new StringField(readString(type, buf, offset), Type.STRING_LEN);
+    }
+
+    /** Store f as a field of the given type at offset. */
+    public static void write(Type type, ByteBuffer buf, int offset, Field f) {
+        if (type == Type.INT_TYPE)
+            writeInt(buf, offset, ((IntField) f).getValue());
+        else
+            writeString(type, buf, offset, ((StringField) f).getValue());
+    }
+
+    /**
+     * Compare the string of the given type stored at offset with key, the
+     * bytes of a string operand, as {@link StringField#compare} compares
+     * their values.
+     *
+     * @see #stringBytes(String)
+     */
+    public static boolean compareString(Type type, ByteBuffer buf, int offset,
+            Predicate.Op op, byte[] key) {
+        if (op == Predicate.Op.LIKE)
+            return containsString(type, buf, offset, key);
+        return op.compare(compareString(type, buf, offset, key), 0);
+    }
+
+    /**
+     * Compare the field of the given type stored at offset with operand, as
+     * {@link Field#compare} compares the decoded field.
+     */
+    public static boolean compare(Type type, ByteBuffer buf, int offset, Predicate.Op op,
+            Field operand) {
+        if (type == Type.INT_TYPE)
+            return op.compare(readInt(buf, offset), ((IntField) operand).getValue());
+        byte[] key = stringBytes(((StringField) operand).getValue());
+        if (key == null)
+            return read(type, buf, offset).compare(op, operand);
+        return compareString(type, buf, offset, op, key);
+    }
+
+    /**
+     * @return the hash code of the field of the given type stored at
+     *   offset, which is {@link Field#hashCode()} of the decoded field
+     */
+    public static int hash(Type type, ByteBuffer buf, int offset) {
+        if (type == Type.INT_TYPE)
+            return readInt(buf, offset);
+        int len = stringLength(type, buf, offset);
+        int start = stringStart(type, offset);
+        int h = 0;
+        for (int i = 0; i < len; i++)
+            h = 31 * h + (buf.get(start + i) & 0xFF);
+        return h;
+    }
+}
@@ -0,0 +1,456 @@
+package simpledb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FileHandle gives the DbFile implementations long-lived access to their
+ * backing file.  Reads and writes are positional, on a FileChannel that
+ * stays open between calls.
+ * <p>
+ * There is one FileHandle per file, shared by every DbFile opened on it.  At
+ * most MAX_OPEN_CHANNELS channels are open at a time; the least recently
+ * used one is closed when another has to be opened, and reopened the next
+ * time its file is accessed.  A channel closed because a thread using it
+ * was interrupted is reopened the same way.
+ * <p>
+ * The file can also be read through read-only memory mappings, see
+ * {@link #map(long, int)}.  The mappings are shared with the OS page cache,
+ * so writes made through the channel show up in them straight away.
+ * <p>
+ * {@link #length()} reads the length of the file from disk, so writes made
+ * other than through the handle, such as by a HeapFileEncoder, are seen.
+ * When the length has changed behind the handle, the handle checks the
+ * file: a file that got shorter has its mappings dropped, a deleted file
+ * is forgotten, so that the map of handles does not keep it, and a file
+ * replaced by another has its channel reopened.  A file replaced by one of
+ * the same length is not noticed, and must be reopened with
+ * {@link #reopen(File)}.
+ */
+public class FileHandle {
+
+    /** The number of channels kept open at once. */
+    public static final int MAX_OPEN_CHANNELS = 256;
+
+    /**
+     * Files are mapped in segments of this many bytes, so that a growing
+     * file only has to remap its last segment.  A power of two, so pages of
+     * any power-of-two size never straddle two segments.
+     */
+    static final long MAP_SEGMENT_SIZE = 1L << 24;
+
+    private static final ConcurrentHashMap<File, FileHandle> handles = new ConcurrentHashMap<>();
+    /** Handles with an open channel; also the latch for opening and closing them. */
+    private static final HashSet<FileHandle> openHandles = new HashSet<>();
+
+    private final File file;
+    /** The length of the file as of the last write or check. */
+    private final AtomicLong length;
+    private volatile FileChannel channel;
+    /** The identity of the file the channel was opened on, or null if unknown. */
+    private volatile Object fileKey;
+    private volatile long lastUse;
+    /** Mapped segments, replaced as a whole when one is (re)mapped. */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    /**
+     * Held while the channel's position is set and used; positional reads
+     * and writes do not touch it.
+     */
+    private final Object positionLock = new Object();
+
+    private FileHandle(File file) {
+        this.file = file;
+        this.length = new AtomicLong(file.length());
+    }
+
+    /**
+     * Get the handle for a file, creating it if needed.  An existing handle
+     * is returned as it is, so opening a file does not disturb the DbFiles
+     * already using it, unless its file was deleted since; then a new
+     * handle is made.
+     *
+     * @param f the file
+     * @return the handle shared by all users of f
+     */
+    public static FileHandle open(File f) {
+        File key = f.getAbsoluteFile();
+        FileHandle handle = handles.get(key);
+        if (handle != null)
+            handle.checkFile();
+        return handles.computeIfAbsent(key, FileHandle::new);
+    }
+
+    /**
+     * Get the handle for a file that was written, replaced or deleted other
+     * than through its handle, such as a file a HeapFileEncoder just wrote.
+     * The handle's length is re-read from disk, its mappings are dropped and
+     * its channel is reopened on next use.  Reads and writes in progress on
+     * the handle may fail, so only reopen a file nothing is using.
+     *
+     * @param f the file
+     * @return the handle shared by all users of f
+     */
+    public static FileHandle reopen(File f) {
+        File key = f.getAbsoluteFile();
+        FileHandle handle = handles.get(key);
+        if (handle == null)
+            return open(key);
+        synchronized (handle) {
+            handle.length.set(key.length());
+            handle.segments = new MappedByteBuffer[0];
+        }
+        // the file may have been deleted or replaced since the channel was opened
+        synchronized (openHandles) {
+            openHandles.remove(handle);
+            handle.closeChannel();
+        }
+        return handle;
+    }
+
+    /** @return the file this handle reads and writes */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the length of the file in bytes, as it is on disk now
+     */
+    public long length() {
+        long now = file.length();
+        if (now != length.get())
+            changed(now);
+        return now;
+    }
+
+    /**
+     * The file's length changed other than through this handle: drop the
+     * mappings if it got shorter, and check whether the file is still the
+     * one the handle was opened on.
+     */
+    private void changed(long now) {
+        synchronized (this) {
+            if (now < length.getAndSet(now))
+                segments = new MappedByteBuffer[0];
+        }
+        checkFile();
+    }
+
+    /**
+     * Forget this handle if its file was deleted, or drop its mappings and
+     * reopen its channel if the file was replaced by another.
+     */
+    private void checkFile() {
+        if (!file.exists()) {
+            handles.remove(file, this);
+            synchronized (openHandles) {
+                openHandles.remove(this);
+                closeChannel();
+            }
+        } else if (fileKey != null && !fileKey.equals(currentFileKey())) {
+            synchronized (this) {
+                segments = new MappedByteBuffer[0];
+            }
+            synchronized (openHandles) {
+                openHandles.remove(this);
+                closeChannel();
+            }
+        }
+    }
+
+    /** @return the identity of the file now at this handle's path, or null */
+    private Object currentFileKey() {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fill buf from the file, starting at the given offset.
+     *
+     * @return the number of bytes read, which is less than buf.remaining()
+     *   only if the end of the file was reached
+     */
+    public int read(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining()) {
+                    int n = ch.read(buf, position + buf.position() - start);
+                    if (n < 0)
+                        break;
+                }
+                return buf.position() - start;
+            } catch (ClosedChannelException e) {
+                // closed under us to make room for another file; reopen
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Write all of buf to the file, starting at the given offset, growing
+     * the file if the write goes past its end.
+     */
+    public void write(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining())
+                    ch.write(buf, position + buf.position() - start);
+                break;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+        long end = position + buf.position() - start;
+        long cur;
+        while ((cur = length.get()) < end && !length.compareAndSet(cur, end))
+            ;
+    }
+
+    /**
+     * Write several blocks, each at its own offset, and force them to the
+     * storage device.  The blocks are written in file order, and blocks that
+     * follow each other in the file go out in a single gathering write.
+     *
+     * @param offsets the offset of each block, in any order; no two blocks
+     *   may overlap
+     * @param blocks the bytes to write at each offset, all of whose
+     *   remaining bytes are written
+     */
+    public void writeBatch(long[] offsets, ByteBuffer[] blocks) throws IOException {
+        if (forEachRun(offsets, blocks, this::writeRun))
+            force();
+    }
+
+    /**
+     * Fill several blocks, each from its own offset.  The blocks are read in
+     * file order, and blocks that follow each other in the file are filled
+     * by a single scattering read, so a run of pages costs one large read.
+     *
+     * @param offsets the offset of each block, in any order; no two blocks
+     *   may overlap
+     * @param blocks the buffers to fill, all of whose remaining bytes are read
+     * @throws EOFException if the file ends before every block is full
+     */
+    public void readBatch(long[] offsets, ByteBuffer[] blocks) throws IOException {
+        forEachRun(offsets, blocks, this::readRun);
+    }
+
+    /** Reads or writes the given adjacent blocks of total bytes starting at position. */
+    private interface RunIo {
+        void apply(ByteBuffer[] run, long position, long total) throws IOException;
+    }
+
+    /**
+     * Split blocks into runs that are adjacent in the file and hand them to
+     * io in file order.
+     *
+     * @return false if there were no blocks
+     */
+    private static boolean forEachRun(long[] offsets, ByteBuffer[] blocks, RunIo io) throws IOException {
+        if (offsets.length != blocks.length)
+            throw new IllegalArgumentException(offsets.length + " offsets for " +
+                    blocks.length + " blocks");
+        if (blocks.length == 0)
+            return false;
+        Integer[] order = new Integer[blocks.length];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+
+        int start = 0;
+        while (start < order.length) {
+            long position = offsets[order[start]];
+            long end = position + blocks[order[start]].remaining();
+            int stop = start + 1;
+            while (stop < order.length && offsets[order[stop]] == end)
+                end += blocks[order[stop++]].remaining();
+            ByteBuffer[] run = new ByteBuffer[stop - start];
+            for (int i = start; i < stop; ++i)
+                run[i - start] = blocks[order[i]];
+            io.apply(run, position, end - position);
+            start = stop;
+        }
+        return true;
+    }
+
+    private void writeRun(ByteBuffer[] run, long position, long total) throws IOException {
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                FileChannel ch = channel();
+                synchronized (positionLock) {
+                    // after a retry, carry on where the buffers say we stopped
+                    long left = 0;
+                    for (ByteBuffer b : run)
+                        left += b.remaining();
+                    ch.position(position + total - left);
+                    while (left > 0)
+                        left -= ch.write(run);
+                }
+                break;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+        long end = position + total;
+        long cur;
+        while ((cur = length.get()) < end && !length.compareAndSet(cur, end))
+            ;
+    }
+
+    private void readRun(ByteBuffer[] run, long position, long total) throws IOException {
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                FileChannel ch = channel();
+                synchronized (positionLock) {
+                    long left = 0;
+                    for (ByteBuffer b : run)
+                        left += b.remaining();
+                    ch.position(position + total - left);
+                    while (left > 0) {
+                        long n = ch.read(run);
+                        if (n < 0)
+                            throw new EOFException("read past end of " + file);
+                        left -= n;
+                    }
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+    }
+
+    /** Convenience form of {@link #read(ByteBuffer, long)} for a byte array. */
+    public int read(byte[] data, long position) throws IOException {
+        return read(ByteBuffer.wrap(data), position);
+    }
+
+    /** Convenience form of {@link #write(ByteBuffer, long)} for a byte array. */
+    public void write(byte[] data, long position) throws IOException {
+        write(ByteBuffer.wrap(data), position);
+    }
+
+    /**
+     * Get a read-only view of part of the file through a memory mapping,
+     * mapping or remapping the segment that holds it if needed.  The view
+     * always reflects the current contents of the file, including writes
+     * made through this handle after it was returned.
+     *
+     * @param position the offset of the region in the file
+     * @param size the length of the region
+     * @return a buffer whose position is 0 and whose limit is size, or null if
+     *   the region runs past the end of the file or straddles two segments;
+     *   callers should fall back on {@link #read(ByteBuffer, long)}
+     */
+    public ByteBuffer map(long position, int size) throws IOException {
+        long end = position + size;
+        int seg = (int) (position / MAP_SEGMENT_SIZE);
+        // past the length last seen, look again in case the file grew
+        if ((end > length.get() && end > length()) || (end - 1) / MAP_SEGMENT_SIZE != seg)
+            return null;
+        long base = seg * MAP_SEGMENT_SIZE;
+        MappedByteBuffer[] segs = segments;
+        MappedByteBuffer m = seg < segs.length ? segs[seg] : null;
+        if (m == null || m.capacity() < end - base)
+            m = mapSegment(seg, end - base);
+        ByteBuffer view = m.duplicate();
+        view.position((int) (position - base));
+        view.limit((int) (end - base));
+        return view.slice();
+    }
+
+    /** Map the given segment over at least its first needed bytes. */
+    private synchronized MappedByteBuffer mapSegment(int seg, long needed) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        MappedByteBuffer m = seg < segs.length ? segs[seg] : null;
+        if (m != null && m.capacity() >= needed)
+            return m;
+        long base = seg * MAP_SEGMENT_SIZE;
+        // map as much of the segment as the file covers, never beyond its end:
+        // mapping past the end would grow the file
+        long size = Math.min(MAP_SEGMENT_SIZE, length.get() - base);
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                m = channel().map(FileChannel.MapMode.READ_ONLY, base, size);
+                break;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+        segs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+        segs[seg] = m;
+        segments = segs;
+        return m;
+    }
+
+    /** Force all writes made so far to the storage device. */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /** @return the open channel, opening it (and perhaps closing another) if needed */
+    FileChannel channel() throws IOException {
+        lastUse = System.nanoTime();
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (openHandles) {
+            ch = channel;
+            if (ch != null && ch.isOpen())
+                return ch;
+            // closed by an interrupt, or to make room for another file
+            openHandles.remove(this);
+            if (openHandles.size() >= MAX_OPEN_CHANNELS) {
+                FileHandle eldest = null;
+                for (FileHandle h : openHandles) {
+                    if (eldest == null || h.lastUse < eldest.lastUse)
+                        eldest = h;
+                }
+                openHandles.remove(eldest);
+                eldest.closeChannel();
+            }
+            ch = new RandomAccessFile(file, "rw").getChannel();
+            channel = ch;
+            fileKey = currentFileKey();
+            openHandles.add(this);
+            // forgotten when its file was deleted; opening the channel made it again
+            handles.putIfAbsent(file, this);
+            return ch;
+        }
+    }
+
+    private void closeChannel() {
+        FileChannel ch = channel;
+        channel = null;
+        if (ch == null)
+            return;
+        try {
+            ch.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
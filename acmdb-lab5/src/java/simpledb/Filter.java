@@ -77,6 +77,23 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Narrows the selection of each batch of the child to the tuples that
+     * pass the predicate, skipping batches left empty.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(!isOpen())
+            throw new IllegalStateException("Operator not yet open");
+        TupleBatch batch;
+        while((batch = child.nextBatch()) != null){
+            batch.filter(p);
+            if(!batch.isEmpty())
+                return batch;
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * FrameArena is the off-heap memory of a BufferPool: a fixed number of
+ * page-sized frames carved out of direct ByteBuffers that are allocated once,
+ * when the pool is created.  Pages read into a frame keep their bytes there
+ * rather than in objects on the Java heap, so the size of the pool does not
+ * add to the work of the garbage collector.
+ * <p>
+ * Frames are handed out by {@link #allocate()} and given back with
+ * {@link #release(int)}.  Each frame also has a pin count; a pinned frame
+ * is in use by someone other than the pool and must not be given back.
+ * <p>
+ * Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to
+ * the maximum heap size; large arenas need it raised.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** Bytes per direct buffer; a single ByteBuffer cannot exceed 2 GB. */
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final AtomicIntegerArray pins;
+    /** Stack of the frames not in use, free[0..numFree). */
+    private final int[] free;
+    private final boolean[] inUse;
+    private int numFree;
+
+    /**
+     * Allocate an arena.
+     *
+     * @param numFrames the number of frames
+     * @param frameSize the size of each frame in bytes
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        if (numFrames < 0 || frameSize <= 0)
+            throw new IllegalArgumentException("cannot allocate " + numFrames +
+                    " frames of " + frameSize + " bytes");
+        this.frameSize = frameSize;
+        this.framesPerChunk = Math.max(1, CHUNK_BYTES / frameSize);
+        this.chunks = new ByteBuffer[(numFrames + framesPerChunk - 1) / framesPerChunk];
+        for (int i = 0; i < chunks.length; ++i) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.pins = new AtomicIntegerArray(numFrames);
+        this.free = new int[numFrames];
+        this.inUse = new boolean[numFrames];
+        // hand out low frames first
+        for (int i = 0; i < numFrames; ++i)
+            free[i] = numFrames - 1 - i;
+        this.numFree = numFrames;
+    }
+
+    /** @return the number of frames in the arena */
+    public int numFrames() {
+        return free.length;
+    }
+
+    /** @return the size of each frame in bytes */
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames not currently in use */
+    public synchronized int numFree() {
+        return numFree;
+    }
+
+    /**
+     * Take a frame that is not in use.
+     *
+     * @return the number of the frame, or -1 if every frame is in use
+     */
+    public synchronized int allocate() {
+        if (numFree == 0)
+            return -1;
+        int frame = free[--numFree];
+        inUse[frame] = true;
+        return frame;
+    }
+
+    /**
+     * Give back a frame taken with allocate, so it can hold another page.
+     * Whatever used the frame must have stopped doing so, and it must not
+     * be pinned.
+     */
+    public synchronized void release(int frame) {
+        if (!inUse[frame])
+            throw new IllegalArgumentException("frame " + frame + " is not in use");
+        assert pins.get(frame) == 0 : "releasing pinned frame " + frame;
+        inUse[frame] = false;
+        free[numFree++] = frame;
+    }
+
+    /**
+     * Get the memory of a frame.
+     *
+     * @return a new buffer over the frame, with position 0 and limit and
+     *   capacity equal to the frame size
+     */
+    public ByteBuffer frame(int frame) {
+        if (frame < 0 || frame >= free.length)
+            throw new IllegalArgumentException("no frame " + frame);
+        ByteBuffer chunk = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * frameSize;
+        chunk.position(offset);
+        chunk.limit(offset + frameSize);
+        return chunk.slice();
+    }
+
+    /** Add one to the pin count of a frame. */
+    public void pin(int frame) {
+        pins.incrementAndGet(frame);
+    }
+
+    /** Take one off the pin count of a frame. */
+    public void unpin(int frame) {
+        if (pins.decrementAndGet(frame) < 0) {
+            pins.incrementAndGet(frame);
+            throw new IllegalArgumentException("frame " + frame + " is not pinned");
+        }
+    }
+
+    /** @return whether the frame has a pin count above zero */
+    public boolean isPinned(int frame) {
+        return pins.get(frame) > 0;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records, one bit per page, which pages of a HeapFile have an
+ * empty slot, so inserts can go straight to such a page instead of
+ * scanning the file from the start.
+ * <p>
+ * The map is kept in a side file next to the heap file, named after it with
+ * a ".fsm" suffix.  It starts with the number of pages it covers, followed
+ * by the bitmap, bit i of byte i/8 standing for page i.  The bit for a page
+ * is written out whenever the page itself is written, so the map on disk
+ * describes the pages on disk.  A map that is missing, covers a different
+ * number of pages, or is older than the heap file is rebuilt from the heap
+ * file's page headers when it is opened.
+ * <p>
+ * The map is only a hint.  Pages with uncommitted changes may have more or
+ * less space than their bit says, so callers must check the page itself.
+ */
+public class FreeSpaceMap {
+
+    /** The suffix appended to a heap file's name to name its map. */
+    public static final String SUFFIX = ".fsm";
+
+    private static final int HEADER_SIZE = 4;
+
+    private final FileHandle handle;
+    private final BitSet free = new BitSet();
+    /** The number of pages the map on disk covers. */
+    private int numPages;
+
+    private FreeSpaceMap(FileHandle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Open the map of a heap file, rebuilding it if it is missing or stale.
+     *
+     * @param hf the heap file
+     * @return the map of hf
+     */
+    public static FreeSpaceMap open(HeapFile hf) throws IOException {
+        File dataFile = hf.getFile();
+        File mapFile = new File(dataFile.getPath() + SUFFIX);
+        boolean exists = mapFile.exists();
+        FreeSpaceMap map = new FreeSpaceMap(FileHandle.open(mapFile));
+        if (!exists || mapFile.lastModified() < dataFile.lastModified()
+                || !map.load(hf.numPages()))
+            map.rebuild(hf);
+        return map;
+    }
+
+    /** @return false if the map on disk does not cover exactly numPages pages */
+    private boolean load(int numPages) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (handle.read(header, 0) < HEADER_SIZE || header.getInt(0) != numPages)
+            return false;
+        byte[] bits = new byte[(numPages + 7) / 8];
+        if (handle.read(bits, HEADER_SIZE) < bits.length)
+            return false;
+        free.or(BitSet.valueOf(bits));
+        this.numPages = numPages;
+        return true;
+    }
+
+    /** Recompute the map from the slot headers of the heap file's pages. */
+    private void rebuild(HeapFile hf) throws IOException {
+        int pageSize = hf.getPageSize();
+        int pages = hf.numPages();
+        free.clear();
+        if (!hf.getTupleDesc().isFixedSize()) {
+            // whether a slotted page has room depends on the tuple, so any
+            // page may do until an insert finds otherwise
+            free.set(0, pages);
+        } else {
+            int slots = pageSize * 8 / (hf.getTupleDesc().getSize() * 8 + 1);
+            byte[] header = new byte[(slots + 7) / 8];
+            FileHandle data = hf.getHandle();
+            for (int i = 0; i < pages; ++i) {
+                if (data.read(header, (long) i * pageSize) < header.length)
+                    break;
+                if (new SlotBitmap(ByteBuffer.wrap(header), 0, slots).numFree() > 0)
+                    free.set(i);
+            }
+        }
+        numPages = pages;
+        byte[] bits = new byte[HEADER_SIZE + (pages + 7) / 8];
+        ByteBuffer.wrap(bits).putInt(pages);
+        byte[] bitmap = free.toByteArray();
+        System.arraycopy(bitmap, 0, bits, HEADER_SIZE, bitmap.length);
+        handle.write(bits, 0);
+    }
+
+    /**
+     * @return the first page at or after from that may have an empty slot,
+     *   or -1 if there is none
+     */
+    public synchronized int nextFree(int from) {
+        return free.nextSetBit(from);
+    }
+
+    /**
+     * Record whether a page in memory has an empty slot.  Only changes the
+     * map in memory; see {@link #pageWritten}.
+     */
+    public synchronized void setFree(int pageNo, boolean hasSpace) {
+        free.set(pageNo, hasSpace);
+    }
+
+    /**
+     * Record whether a page that was just written to the heap file has an
+     * empty slot, and write its bit to the map on disk.
+     */
+    public synchronized void pageWritten(int pageNo, boolean hasSpace) throws IOException {
+        free.set(pageNo, hasSpace);
+        int b = pageNo / 8;
+        byte bits = 0;
+        for (int i = 0; i < 8; ++i) {
+            if (free.get(b * 8 + i))
+                bits |= 1 << i;
+        }
+        handle.write(new byte[] {bits}, HEADER_SIZE + b);
+        if (pageNo >= numPages) {
+            numPages = pageNo + 1;
+            handle.write(ByteBuffer.allocate(HEADER_SIZE).putInt(0, numPages), 0);
+        }
+    }
+}
@@ -12,7 +12,17 @@ public class HashEquiJoin extends Operator {
     private DbIterator child1, child2;
     private TupleDesc tupleDesc;
     private Tuple tuple;
+    /**
+     * Whether tuple has been read from child2 since open() or rewind(), by
+     * fetchNext() through next() or by nextBatch() through nextBatch().
+     */
+    private transient boolean primed;
     private final HashMap<Field, ArrayList<Tuple>> fieldMap = new HashMap<>();
+    /** For nextBatch(): the batch of child2 being probed, and the next row of it. */
+    private transient TupleBatch probe;
+    private transient int probeRow;
+    /** The batch nextBatch() fills, reused from call to call. */
+    private transient TupleBatch batch;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -76,11 +86,10 @@ public class HashEquiJoin extends Operator {
         child1.open();
         child2.open();
         buildMap();
-        if(child2.hasNext())
-            tuple = child2.next();
-        else
-            tuple = null;
+        tuple = null;
+        primed = false;
         listIt = null;
+        probe = null;
         super.open();
     }
 
@@ -91,6 +100,7 @@ public class HashEquiJoin extends Operator {
         tuple = null;
         fieldMap.clear();
         listIt = null;
+        probe = null;
         super.close();
     }
 
@@ -99,11 +109,10 @@ public class HashEquiJoin extends Operator {
         child1.rewind();
         child2.rewind();
         buildMap();
-        if(child2.hasNext())
-            tuple = child2.next();
-        else
-            tuple = null;
+        tuple = null;
+        primed = false;
         listIt = null;
+        probe = null;
         super.close();
         super.open();
     }
@@ -124,12 +133,19 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * The tuple returned is a view of the two it joins, which copies none of
+     * their fields; see {@link Tuple#Tuple(TupleDesc, Tuple, Tuple)}.
      * 
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if(!primed){
+            if(child2.hasNext())
+                tuple = child2.next();
+            primed = true;
+        }
         while(!fieldMap.isEmpty()){
             while(tuple != null){
                 if(listIt == null){
@@ -147,14 +163,7 @@ public class HashEquiJoin extends Operator {
                 }
                 if(listIt.hasNext()){
                     Tuple tmpTuple = listIt.next();
-                    int num1 = child1.getTupleDesc().numFields();
-                    int num2 = child2.getTupleDesc().numFields();
-                    Tuple nwTuple = new Tuple(tupleDesc);
-                    for(int i = 0; i < num1; ++i)
-                        nwTuple.setField(i, tmpTuple.getField(i));
-                    for(int i = 0; i < num2; ++i)
-                        nwTuple.setField(i+num1, tuple.getField(i));
-                    return nwTuple;
+                    return new Tuple(tupleDesc, tmpTuple, tuple);
                 }
                 else{
                     if(child2.hasNext())
@@ -175,6 +184,62 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * @return the next tuple of child2 to probe the map with, taken from its
+     *   batches, or null if there are no more
+     */
+    private Tuple nextProbe() throws TransactionAbortedException, DbException {
+        while(probe == null || probeRow >= probe.size()){
+            probe = child2.nextBatch();
+            probeRow = 0;
+            if(probe == null)
+                return null;
+        }
+        return probe.get(probeRow++);
+    }
+
+    /**
+     * Probes the map with batches of child2, and fills a batch with the
+     * tuples that match, the same tuples in the same order as fetchNext()
+     * returns.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(!isOpen())
+            throw new IllegalStateException("Operator not yet open");
+        if(!primed){
+            tuple = nextProbe();
+            primed = true;
+        }
+        if(batch == null)
+            batch = new TupleBatch(tupleDesc);
+        batch.clear();
+        while(!fieldMap.isEmpty()){
+            while(tuple != null){
+                if(listIt == null){
+                    ArrayList<Tuple> matches = fieldMap.get(tuple.getField(p.getField2()));
+                    if(matches == null){
+                        tuple = nextProbe();
+                        continue;
+                    }
+                    listIt = matches.iterator();
+                }
+                while(listIt.hasNext()){
+                    if(batch.isFull())
+                        return batch;
+                    batch.add(new Tuple(tupleDesc, listIt.next(), tuple));
+                }
+                listIt = null;
+                tuple = nextProbe();
+            }
+            child2.rewind();
+            buildMap();
+            probe = null;
+            tuple = nextProbe();
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
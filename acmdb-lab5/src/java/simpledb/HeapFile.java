@@ -2,6 +2,7 @@ package simpledb;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -18,6 +19,10 @@ public class HeapFile implements DbFile {
 
     private final File f;
     private final TupleDesc td;
+    private final FileHandle handle;
+    private final boolean memoryMapped;
+    private final int pageSize;
+    private volatile FreeSpaceMap freeSpace;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -26,9 +31,65 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping of the file. Mapped files
+     * build each HeapPage straight from the mapped bytes instead of reading
+     * them into a fresh array first; a page copies them only when its
+     * tuples are first read, so that tuples do not change when the file is
+     * written. Writes still go through the file channel and show up in the
+     * mapping, which is extended as the file grows.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether to read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, BufferPool.getPageSize(), memoryMapped);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * pageSize bytes rather than the default {@link BufferPool#getPageSize()}.
+     * Large pages suit wide tables that are mostly scanned, small ones
+     * tables that are read and updated a row at a time.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param pageSize
+     *            the size of each page in bytes; at least one tuple must fit
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        this(f, td, pageSize, false);
+    }
+
+    /**
+     * Constructs a heap file with pages of the given size, optionally
+     * reading them through a memory mapping of the file.
+     *
+     * @see #HeapFile(File, TupleDesc, boolean)
+     * @see #HeapFile(File, TupleDesc, int)
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, boolean memoryMapped) {
         // some code goes here
+        if (td.isFixedSize() ? pageSize * 8 / (td.getSize() * 8 + 1) < 1
+                : pageSize - HeapPage.SLOTTED_HEADER - HeapPage.ENTRY_SIZE < td.getSize())
+            throw new IllegalArgumentException("pages of " + pageSize +
+                    " bytes cannot hold a tuple of " + td.getSize() + " bytes");
+        if (!td.isFixedSize() && pageSize > HeapPage.MAX_SLOTTED_PAGE_SIZE)
+            throw new IllegalArgumentException("slotted pages are at most " +
+                    HeapPage.MAX_SLOTTED_PAGE_SIZE + " bytes");
         this.f = f;
         this.td = td;
+        this.pageSize = pageSize;
+        this.handle = FileHandle.open(f);
+        this.memoryMapped = memoryMapped;
     }
 
     /**
@@ -41,6 +102,18 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /** @return the handle this file reads and writes its pages through */
+    FileHandle getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return true if pages of this file are read through a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -56,6 +129,11 @@ public class HeapFile implements DbFile {
         return f.getAbsoluteFile().hashCode();
     }
 
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -71,28 +149,122 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         try{
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
-            int offset = pid.pageNumber() * BufferPool.getPageSize();
-            raf.seek(offset);
-            byte[] data = new byte[BufferPool.getPageSize()];
-            int size = raf.read(data);
-            assert size == BufferPool.getPageSize();
-            raf.close();
-            return new HeapPage((HeapPageId)pid, data);
+            long offset = (long) pid.pageNumber() * pageSize;
+            HeapPage page = null;
+            if (memoryMapped) {
+                ByteBuffer mapped = handle.map(offset, pageSize);
+                if (mapped != null)
+                    page = new HeapPage((HeapPageId)pid, mapped);
+            }
+            if (page == null) {
+                byte[] data = new byte[pageSize];
+                if (handle.read(data, offset) < data.length)
+                    throw new IllegalArgumentException("Read past end of table");
+                page = new HeapPage((HeapPageId)pid, data);
+            }
+            noteFreeSpace(page);
+            return page;
+        }catch (Exception e) {
+            throw new IllegalArgumentException("IllegalArgumentException throw by HeapFile readPage()");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid, ByteBuffer frame) {
+        if (frame.capacity() < pageSize)
+            return null;
+        try{
+            ByteBuffer buf = frame.duplicate();
+            buf.clear();
+            buf.limit(pageSize);
+            if (handle.read(buf, (long) pid.pageNumber() * pageSize) < pageSize)
+                throw new IllegalArgumentException("Read past end of table");
+            buf.flip();
+            HeapPage page = new HeapPage((HeapPageId)pid, buf, true);
+            noteFreeSpace(page);
+            return page;
         }catch (Exception e) {
             throw new IllegalArgumentException("IllegalArgumentException throw by HeapFile readPage()");
         }
     }
 
+    /**
+     * Read the pages in file order, with one scattering read per run of
+     * adjacent pages.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> ids) throws IOException {
+        int numPages = numPages();
+        ArrayList<PageId> present = new ArrayList<>();
+        for (PageId pid : ids) {
+            if (pid.pageNumber() < numPages)
+                present.add(pid);
+        }
+        long[] offsets = new long[present.size()];
+        ByteBuffer[] blocks = new ByteBuffer[present.size()];
+        for (int i = 0; i < blocks.length; ++i) {
+            offsets[i] = (long) present.get(i).pageNumber() * pageSize;
+            blocks[i] = ByteBuffer.wrap(new byte[pageSize]);
+        }
+        handle.readBatch(offsets, blocks);
+        ArrayList<Page> pages = new ArrayList<>();
+        for (int i = 0; i < blocks.length; ++i) {
+            HeapPage page = new HeapPage((HeapPageId) present.get(i), blocks[i].array());
+            noteFreeSpace(page);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /** Pick up space left behind by aborted inserts on a page just read. */
+    private void noteFreeSpace(HeapPage page) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null && page.getNumEmptySlots() > 0)
+            fsm.setFree(page.getId().pageNumber(), true);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         byte[] data = page.getPageData();
-        RandomAccessFile randomAccessFile = new RandomAccessFile(f, "rw");
-        randomAccessFile.seek(page.getId().pageNumber() * BufferPool.getPageSize());
-        randomAccessFile.write(data);
-        randomAccessFile.close();
+        handle.write(data, (long) page.getId().pageNumber() * pageSize);
+        freeSpaceMap().pageWritten(page.getId().pageNumber(),
+                ((HeapPage) page).getNumEmptySlots() > 0);
+    }
+
+    /**
+     * Write the pages in file order, with one gathering write per run of
+     * adjacent pages, and force the file once.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        long[] offsets = new long[pages.size()];
+        ByteBuffer[] blocks = new ByteBuffer[pages.size()];
+        for (int i = 0; i < blocks.length; ++i) {
+            Page page = pages.get(i);
+            offsets[i] = (long) page.getId().pageNumber() * pageSize;
+            blocks[i] = ByteBuffer.wrap(page.getPageData());
+        }
+        handle.writeBatch(offsets, blocks);
+        for (Page page : pages)
+            freeSpaceMap().pageWritten(page.getId().pageNumber(),
+                    ((HeapPage) page).getNumEmptySlots() > 0);
+    }
+
+    /**
+     * @return the free-space map of this file, opening it on first use
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpace;
+                if (fsm == null)
+                    freeSpace = fsm = FreeSpaceMap.open(this);
+            }
+        }
+        return fsm;
     }
 
     /**
@@ -100,32 +272,44 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) f.length() / BufferPool.getPageSize();
+        return (int) (handle.length() / pageSize);
     }
 
     // see DbFile.java for javadocs
-    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
         ArrayList<Page> dirtyPageAr = new ArrayList<>();
-        int numPages = numPages();
-        for(int i=0; i<numPages; ++i){
-            HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            if(page.getNumEmptySlots() > 0){
-                page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        int pageNo = fsm.nextFree(0);
+        while (true) {
+            HeapPageId pid;
+            if (pageNo >= 0 && pageNo < numPages()) {
+                pid = new HeapPageId(getId(), pageNo);
+            } else {
+                // no page known to have space; add one to the end of the file
+                synchronized (this) {
+                    pid = new HeapPageId(getId(), numPages());
+                    writePage(new HeapPage(pid, HeapPage.createEmptyPageData(pageSize)));
+                }
+            }
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
                 page.insertTuple(t);
+                fsm.setFree(pid.pageNumber(), page.getNumEmptySlots() > 0);
+                // stays pinned until the BufferPool has cached it dirty
                 dirtyPageAr.add(page);
                 return dirtyPageAr;
             }
+            // the map was out of date, or another transaction filled the page
+            fsm.setFree(pid.pageNumber(), false);
+            pool.unpinPage(tid, pid);
+            if (!held)
+                pool.releasePage(tid, pid);
+            pageNo = fsm.nextFree(pid.pageNumber() + 1);
         }
-        HeapPageId pid = new HeapPageId(getId(), numPages);
-        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
-        writePage(page);
-        page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        page.insertTuple(t);
-        dirtyPageAr.add(page);
-        return dirtyPageAr;
         // not necessary for lab1
     }
 
@@ -137,6 +321,9 @@ public class HeapFile implements DbFile {
         ArrayList<Page> dirtyPageAr = new ArrayList<>();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.setFree(rid.getPageId().pageNumber(), true);
         dirtyPageAr.add(page);
         return dirtyPageAr;
         // not necessary for lab1
@@ -144,59 +331,87 @@ public class HeapFile implements DbFile {
 
     private class HeapFileIterator implements DbFileIterator{
         private TransactionId tid;
+        private final int firstPage;
+        /** The page after the last to read, or -1 to read to the end of the file. */
+        private final int endPage;
         private int offset;
         private Iterator<Tuple> tupleIt;
         private HeapPage curPage;
+        private ScanRing ring;
+        private ReadAhead readAhead;
 
         private HeapPage getHeapPage(int offset) throws TransactionAbortedException, DbException {
-            return (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), offset), Permissions.READ_ONLY);
+            HeapPageId pid = new HeapPageId(getId(), offset);
+            HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, ring);
+            if (readAhead != null)
+                readAhead.pageRead(pid, end());
+            return page;
         }
 
         public HeapFileIterator(TransactionId tid) {
+            this(tid, 0, -1);
+        }
+
+        HeapFileIterator(TransactionId tid, int firstPage, int endPage) {
             this.tid = tid;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+        }
+
+        /** @return the page after the last this iterator reads */
+        private int end() {
+            return endPage < 0 ? numPages() : Math.min(endPage, numPages());
+        }
+
+        /**
+         * Move on to the given page, unpinning the one the iterator was on
+         * first so its frame can be reused; the tuples already returned from
+         * it stay valid.
+         */
+        private void moveTo(int pageNo) throws TransactionAbortedException, DbException {
+            unpinCurrent();
+            HeapPage page = getHeapPage(pageNo);
+            offset = pageNo;
+            curPage = page;
+            tupleIt = page.iterator();
+        }
+
+        private void unpinCurrent() {
+            if (curPage != null)
+                Database.getBufferPool().unpinPage(tid, curPage.getId());
+            curPage = null;
+            tupleIt = null;
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException{
             if(curPage == null || tupleIt == null)
                 return false;
-            if(tupleIt.hasNext())
-                return true;
-            int tmp = offset + 1;
-            while (tmp < numPages())
-            {
-                HeapPage nextPage = getHeapPage(tmp);
-                Iterator<Tuple> nextIt = nextPage.iterator();
-                if (nextIt.hasNext())
-                    return true;
-                tmp++;
+            while (!tupleIt.hasNext()) {
+                if (offset + 1 >= end()) {
+                    // done; the last page need not stay pinned
+                    unpinCurrent();
+                    return false;
+                }
+                moveTo(offset + 1);
             }
-            return false;
+            return true;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException{
-            if(curPage == null || tupleIt == null)
+            if(!hasNext())
                 throw new NoSuchElementException("NoSuchElementException throw by HeapFileIterator");
-            if(tupleIt.hasNext())
-                return tupleIt.next();
-            offset++;
-            while (offset < numPages())
-            {
-                curPage = getHeapPage(offset);
-                tupleIt = curPage.iterator();
-                if (tupleIt.hasNext())
-                    return tupleIt.next();
-                offset++;
-            }
-            throw new NoSuchElementException("NoSuchElementException throw by HeapFileIterator");
+            return tupleIt.next();
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException{
-            offset = 0;
-            curPage = getHeapPage(offset);
-            tupleIt = curPage.iterator();
+            close();
+            ring = Database.getBufferPool().newScanRing(numPages(), pageSize);
+            readAhead = Database.getBufferPool().newReadAhead(ring);
+            if (endPage < 0 || firstPage < end())
+                moveTo(firstPage);
         }
 
         @Override
@@ -206,9 +421,12 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close(){
+            unpinCurrent();
             offset = 0;
-            curPage = null;
-            tupleIt = null;
+            ring = null;
+            if (readAhead != null)
+                readAhead.close();
+            readAhead = null;
         }
     }
 
@@ -218,5 +436,19 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid);
     }
 
+    /**
+     * Returns an iterator over the tuples on pages fromPage up to but not
+     * including toPage, in the order they are stored; pages past the end of
+     * the file are skipped.  Scans over disjoint ranges may run at once
+     * under the same transaction.
+     *
+     * @see ParallelSeqScan
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        if (fromPage < 0 || toPage < fromPage)
+            throw new IllegalArgumentException("bad page range " + fromPage + ".." + toPage);
+        return new HeapFileIterator(tid, fromPage, toPage);
+    }
+
 }
 
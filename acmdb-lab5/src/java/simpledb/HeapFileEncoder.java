@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,7 +79,8 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile.  Tuples with fields of variable length are written to
+    * slotted pages.
     *
     * @see HeapPage
     * @see HeapFile
@@ -90,6 +94,10 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      if (!new TupleDesc(typeAr).isFixedSize()) {
+          convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -102,7 +110,6 @@ public class HeapFileEncoder {
     int nheaderbytes = (nrecords / 8);
     if (nheaderbytes * 8 < nrecords)
         nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
@@ -115,10 +122,9 @@ public class HeapFileEncoder {
     int npages = 0;
     int fieldNo = 0;
 
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+    // the page being filled, and where its next field goes
+    ByteBuffer page = ByteBuffer.wrap(new byte[npagebytes]);
+    int pagepos = nheaderbytes;
 
     boolean done = false;
     boolean first = true;
@@ -140,23 +146,15 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    FieldCodec.writeInt(page, pagepos, Integer.parseInt(s.trim()));
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
+                FieldCodec.writeString(Type.STRING_TYPE, page, pagepos, s.trim());
             }
+            pagepos += typeAr[fieldNo].getLen();
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -183,38 +181,15 @@ public class HeapFileEncoder {
         if (recordcount >= nrecords
             || done && recordcount > 0
             || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
+            for (int i=0; i<recordcount; i++)
+                page.put(i / 8, (byte) (page.get(i / 8) | (1 << (i % 8))));
             
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
+            // the rest of the page is still zeroes
+            os.write(page.array());
             
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
+            // reset the page for the next one
+            Arrays.fill(page.array(), (byte) 0);
+            pagepos = nheaderbytes;
             
             recordcount = 0;
             npages++;
@@ -223,4 +198,124 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert the input text file into slotted pages, packing as many tuples
+   * onto each page as fit.
+   *
+   * @see HeapPage#HeapPage(HeapPageId, byte[])
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+      ByteBuffer page = ByteBuffer.wrap(new byte[npagebytes]);
+      ByteBuffer record = ByteBuffer.allocate(new TupleDesc(typeAr).getSize());
+      int count = 0;
+      int start = npagebytes;
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.isEmpty())
+              continue;
+          String[] values = separator.split(line, -1);
+          if (values.length != numFields)
+              throw new IOException("BAD LINE : " + line);
+          int len = 0;
+          for (int i = 0; i < numFields; i++) {
+              String s = values[i].trim();
+              Field f;
+              try {
+                  f = typeAr[i] == Type.INT_TYPE ? new IntField(Integer.parseInt(s))
+                          : new StringField(s, Type.STRING_LEN);
+              } catch (NumberFormatException e) {
+                  throw new IOException("BAD LINE : " + line);
+              }
+              typeAr[i].serialize(f, record, len);
+              len += typeAr[i].getLen(f);
+          }
+
+          // start a new page when the record and its directory entry do not fit
+          if (start - len < HeapPage.SLOTTED_HEADER + (count + 1) * HeapPage.ENTRY_SIZE) {
+              writeSlottedPage(os, page, count, start);
+              count = 0;
+              start = npagebytes;
+              npages++;
+          }
+          start -= len;
+          System.arraycopy(record.array(), 0, page.array(), start, len);
+          page.putShort(HeapPage.SLOTTED_HEADER + count * HeapPage.ENTRY_SIZE, (short) start);
+          page.putShort(HeapPage.SLOTTED_HEADER + count * HeapPage.ENTRY_SIZE + 2, (short) len);
+          count++;
+      }
+      // as above, an empty file still gets one empty page
+      if (count > 0 || npages == 0)
+          writeSlottedPage(os, page, count, start);
+      br.close();
+      os.close();
+  }
+
+  /**
+   * Convert the specified tuple list (with only integer fields) into the
+   * pages of a {@link PaxFile}.
+   *
+   * @see #convertPax(File, File, int, int, Type[], char)
+   * @throws IOException if the temporary/output file can't be opened
+   */
+  public static void convertPax(ArrayList<ArrayList<Integer>> tuples, File outFile,
+                 int npagebytes, int numFields) throws IOException {
+      File rows = File.createTempFile("tempTable", ".dat");
+      rows.deleteOnExit();
+      convert(tuples, rows, npagebytes, numFields);
+      rowsToPax(rows, outFile, npagebytes, Utility.getTypes(numFields));
+  }
+
+  /**
+   * Convert the input text file into the pages of a {@link PaxFile}.  The
+   * tuples are packed onto pages as for a HeapFile, and each page is then
+   * laid out by column.  All the types must be of fixed length.
+   *
+   * @see PaxPage#PaxPage(HeapPageId, byte[])
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      if (!new TupleDesc(typeAr).isFixedSize())
+          throw new IllegalArgumentException("PAX pages need fields of fixed length");
+      File rows = File.createTempFile("tempTable", ".dat");
+      rows.deleteOnExit();
+      convert(inFile, rows, npagebytes, numFields, typeAr, fieldSeparator);
+      rowsToPax(rows, outFile, npagebytes, typeAr);
+  }
+
+  /** Lay each page of a file of HeapPages out by column. */
+  private static void rowsToPax(File rows, File outFile, int npagebytes, Type[] typeAr)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rows)));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      for (long n = rows.length() / npagebytes; n > 0; --n) {
+          is.readFully(page);
+          os.write(PaxPage.fromRows(page, td));
+      }
+      is.close();
+      os.close();
+      rows.delete();
+  }
+
+  private static void writeSlottedPage(OutputStream os, ByteBuffer page, int count, int start)
+      throws IOException {
+      page.putInt(0, count);
+      page.putInt(4, start == page.capacity() ? 0 : start);
+      os.write(page.array());
+      Arrays.fill(page.array(), (byte) 0);
+  }
 }
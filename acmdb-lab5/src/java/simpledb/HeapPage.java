@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -13,14 +14,53 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /** Slotted pages start with the number of directory entries and the
+        offset the records start at, 0 standing for the end of the page. */
+    static final int SLOTTED_HEADER = 8;
+    /** Each directory entry is the offset and length of a record, as
+        unsigned shorts; an offset of 0 marks an empty slot. */
+    static final int ENTRY_SIZE = 4;
+    /** The largest page a slotted layout can address. */
+    static final int MAX_SLOTTED_PAGE_SIZE = 65536;
+
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    final int headerSize;
+    /** Tuples decoded so far; null for pages read into a frame. */
     final Tuple tuples[];
     final int numSlots;
+    /** Which slots are used; kept in step with the header bytes in data. */
+    private final SlotBitmap slots;
+    /** True if the page is slotted, because the table has fields of
+        variable length. */
+    final boolean slotted;
+    /** Slotted pages: the bytes taken by the records in used slots. */
+    private int recordBytes;
+    /** The page size of the table, see {@link DbFile#getPageSize()}. */
+    final int pageSize;
+    /**
+     * The bytes of the page, which slots are decoded from on demand.  Until
+     * the page is first modified these are the bytes it was created from,
+     * which may be shared; see {@link #makeWritable()}.
+     */
+    ByteBuffer data;
+    /**
+     * The BufferPool frame data lives in, or null if the page is not in a
+     * frame or has been detached from it.
+     */
+    private ByteBuffer frame;
+    /** True once data is a private array that is updated in place. */
+    private boolean writable = false;
+    /** The size of tuples; for slotted pages, the most a tuple can take. */
+    final int tupleSize;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    /**
+     * The bytes of the before image.  This is the buffer data pointed to when
+     * the before image was set, which the page stops writing to from then
+     * on, so the image costs nothing until the page is changed.
+     */
+    ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
 
     volatile boolean dirty = false;
     volatile TransactionId dirtyTid = null;
@@ -30,39 +70,80 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of its file, {@link DbFile#getPageSize()}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p>
+     * Tables with fields of variable length ({@link TupleDesc#isFixedSize()}
+     * is false) use a slotted format instead.  The page starts with the
+     * number of entries in its slot directory and the offset at which its
+     * records start, followed by the directory.  Each entry holds the offset
+     * and length of a record, or zeroes for an empty slot.  Records are
+     * packed at the end of the page, growing towards the directory, and
+     * hold their fields one after another, each taking only as many bytes
+     * as its value needs.  Deleting a record leaves a hole that is closed
+     * up when an insert needs the room.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see DbFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this(id, ByteBuffer.wrap(data));
+    }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+    /**
+     * Create a HeapPage from the bytes of a page held in a buffer, such as a
+     * memory-mapped region of a HeapFile, without copying them out first.
+     * The page starts at the buffer's position.
+     * <p>
+     * Nothing is decoded up front.  The page keeps the buffer and decodes
+     * a tuple when it is first returned, and each field of it when that
+     * field is first used, so the bytes must not be changed by others while
+     * the page is in use.  The page itself never writes to the buffer: it
+     * copies the bytes into an array of its own when it is first modified.
+     * A buffer that has no array, such as a mapping of the file, is copied
+     * before the first tuple is returned instead, since it changes whenever
+     * the page is written back, and tuples must not change with it.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, false);
+    }
 
-        setBeforeImage();
+    /**
+     * Create a HeapPage from bytes that were read into a frame of the
+     * BufferPool's off-heap arena.  The page owns the frame until it is
+     * detached: changes are made in the frame itself, and tuples are decoded
+     * into new objects each time they are returned rather than kept, so
+     * nothing outside the page refers to the frame.
+     *
+     * @param inFrame whether data is such a frame
+     * @see #detach()
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, boolean inFrame) throws IOException {
+        this.pid = id;
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.pageSize = file.getPageSize();
+        this.slotted = !td.isFixedSize();
+        this.tupleSize = td.getSize();
+        this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+        this.data = data.slice();
+        if (this.data.remaining() < (slotted ? pageSize : headerSize + numSlots * tupleSize))
+            throw new IOException("short page data for " + id);
+        this.slots = slotted ? readDirectory() : new SlotBitmap(this.data, 0, numSlots);
+
+        tuples = inFrame ? null : new Tuple[numSlots];
+        frame = inFrame ? this.data : null;
+        oldData = this.data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -70,7 +151,9 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        if (slotted)
+            return (pageSize - SLOTTED_HEADER) / (ENTRY_SIZE + td.getMinSize());
+        return pageSize * 8 / (tupleSize * 8 + 1);
 
     }
 
@@ -81,19 +164,138 @@ public class HeapPage implements Page {
     private int getHeaderSize() {        
         
         // some code goes here
+        if (slotted)
+            return SLOTTED_HEADER;
         return numSlots / 8 + ((numSlots % 8 == 0) ? 0 : 1);
                  
     }
+
+    /**
+     * Slotted pages: find which slots of the directory are used, and how
+     * many bytes their records take.
+     */
+    private SlotBitmap readDirectory() throws IOException {
+        int count = entryCount();
+        if (count < 0 || count > numSlots)
+            throw new IOException("bad slot directory on " + pid);
+        SlotBitmap bits = new SlotBitmap(numSlots);
+        for (int i = 0; i < count; ++i) {
+            if (entryOffset(i) != 0) {
+                bits.set(i, true);
+                recordBytes += entryLength(i);
+            }
+        }
+        return bits;
+    }
+
+    /** Slotted pages: the number of entries in the slot directory. */
+    private int entryCount() {
+        return data.getInt(0);
+    }
+
+    /** Slotted pages: the offset of the first record. */
+    private int recordStart() {
+        int start = data.getInt(4);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int entryOffset(int i) {
+        return data.getShort(SLOTTED_HEADER + i * ENTRY_SIZE) & 0xFFFF;
+    }
+
+    private int entryLength(int i) {
+        return data.getShort(SLOTTED_HEADER + i * ENTRY_SIZE + 2) & 0xFFFF;
+    }
+
+    private void setEntry(int i, int offset, int length) {
+        data.putShort(SLOTTED_HEADER + i * ENTRY_SIZE, (short) offset);
+        data.putShort(SLOTTED_HEADER + i * ENTRY_SIZE + 2, (short) length);
+    }
+
+    /**
+     * Slotted pages: the bytes not taken by the directory or by records,
+     * including the holes left by deleted records.
+     */
+    private int freeBytes() {
+        return pageSize - SLOTTED_HEADER - entryCount() * ENTRY_SIZE - recordBytes;
+    }
+
+    /**
+     * Slotted pages: the bytes an insert into slot i of a record of len
+     * bytes needs, counting a new directory entry if slot i is past the
+     * directory's end.
+     */
+    private int bytesNeeded(int i, int len) {
+        return len + (i < entryCount() ? 0 : (i + 1 - entryCount()) * ENTRY_SIZE);
+    }
+
+    /**
+     * Slotted pages: give slot i a record of len bytes at the start of the
+     * records, closing up holes first if there is not room enough there.
+     * The caller has checked that the page has room.
+     */
+    private void placeRecord(int i, int len) {
+        int count = Math.max(entryCount(), i + 1);
+        if (recordStart() - len < SLOTTED_HEADER + count * ENTRY_SIZE)
+            compact();
+        int start = recordStart() - len;
+        data.putInt(0, count);
+        data.putInt(4, start);
+        setEntry(i, start, len);
+        recordBytes += len;
+    }
+
+    /**
+     * Slotted pages: move the records against the end of the page, in the
+     * order they are already in, so the free space is all in one piece.
+     */
+    private void compact() {
+        // tuples reading the records must not see them move
+        if (tuples != null)
+            for (Tuple t : tuples)
+                if (t != null)
+                    t.materialize();
+        int count = entryCount();
+        long[] order = new long[slots.numUsed()];
+        int n = 0;
+        for (int i = slots.nextUsed(0); i >= 0; i = slots.nextUsed(i + 1))
+            order[n++] = ((long) entryOffset(i) << 32) | i;
+        Arrays.sort(order);
+        int end = pageSize;
+        byte[] record = new byte[tupleSize];
+        for (int k = n - 1; k >= 0; --k) {
+            int i = (int) order[k];
+            int off = entryOffset(i);
+            int len = entryLength(i);
+            end -= len;
+            if (off != end) {
+                ByteBuffer src = data.duplicate();
+                src.position(off);
+                src.get(record, 0, len);
+                ByteBuffer dst = data.duplicate();
+                dst.position(end);
+                dst.put(record, 0, len);
+                setEntry(i, end, len);
+            }
+        }
+        for (int b = SLOTTED_HEADER + count * ENTRY_SIZE; b < end; ++b)
+            data.put(b, (byte) 0);
+        data.putInt(4, end);
+    }
     
     /** Return a view of this page before it was modified
         -- used by recovery */
-    public HeapPage getBeforeImage(){
+    public synchronized HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
             }
+            // the frame is given to another page once this one is evicted
+            if (oldDataRef == frame)
+                oldDataRef = ByteBuffer.wrap(getPageData());
+            // shares the bytes; the new page copies them if it is changed
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -103,10 +305,16 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents of this page its before image.  The image
+     * shares the page's bytes; the next change to the page copies them
+     * first, so pages that are only read never pay for a copy.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
+        writable = false;
         }
     }
 
@@ -120,37 +328,51 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, or null if the slot is empty.  A tuple
+     *   read from disk is created on first use, with its fields still to be
+     *   decoded.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    synchronized Tuple getTuple(int i) {
+        if (!slotUsed(i))
             return null;
+        if (frame == null && !data.hasArray())
+            unmap();
+        if (tuples == null) {
+            Tuple t = new Tuple(td, data, slotOffset(i));
+            t.materialize();
+            t.setRecordId(new RecordId(pid, i));
+            return t;
         }
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(i));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Copy bytes that are a mapping of the file into an array of this
+     * page's own.  The mapping shows whatever is written to the file next,
+     * by this page or a later copy of it, so tuples handed out must never
+     * read it.  The header was already read; only tuples need the copy.
+     */
+    private void unmap() {
+        ByteBuffer copy = ByteBuffer.wrap(getPageData());
+        synchronized(oldDataLock)
+        {
+        if (oldData == data)
+            oldData = copy;
+        data = copy;
         }
+    }
 
-        return t;
+    /** @return the offset of slot i from the start of the page */
+    private int slotOffset(int i) {
+        if (slotted)
+            return entryOffset(i);
+        return headerSize + i * tupleSize;
     }
 
     /**
@@ -164,65 +386,60 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
+    public synchronized byte[] getPageData() {
+        // the bytes are kept up to date as the page changes
+        byte[] out = new byte[pageSize];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(out, 0, Math.min(out.length, src.remaining()));
+        return out;
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+    /**
+     * Make data a private array of this page, so it can be changed in
+     * place.  Tuples already decoded from the old bytes, and the before
+     * image, keep reading those.  A page in a frame already owns its bytes
+     * and keeps changing them there.
+     */
+    private void makeWritable() {
+        if (writable)
+            return;
+        synchronized(oldDataLock)
+        {
+        if (frame != null) {
+            if (oldData == data)
+                oldData = ByteBuffer.wrap(getPageData());
+        } else {
+            // bytes that are not on the heap are a mapping of the file, which
+            // changes when this page is written; the before image needs a copy
+            if (oldData == data && !data.hasArray())
+                oldData = ByteBuffer.wrap(getPageData());
+            data = ByteBuffer.wrap(getPageData());
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        writable = true;
         }
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    // see Page.java for javadocs
+    public int size() {
+        return pageSize;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Copy the page out of its BufferPool frame onto the heap, so the frame
+     * can be reused.  Tuples are still not kept by the page afterwards.
+     */
+    public synchronized void detach() {
+        if (frame == null)
+            return;
+        ByteBuffer copy = ByteBuffer.wrap(getPageData());
+        synchronized(oldDataLock)
+        {
+        if (oldData == frame)
+            oldData = copy;
+        data = copy;
+        frame = null;
+        }
     }
 
     /**
@@ -235,8 +452,17 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generate the bytes of an empty HeapPage of a table whose pages are
+     * pageSize bytes.
+     *
+     * @see DbFile#getPageSize()
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -246,7 +472,7 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         RecordId rid = t.getRecordId();
@@ -254,10 +480,43 @@ public class HeapPage implements Page {
             throw new DbException("Null rid throw by HeapPage deleteTuple()");
         if(rid.getPageId().pageNumber() != pid.pageNumber() || rid.getPageId().getTableId() != pid.getTableId())
             throw new DbException("Invalid tuple throw by HeapPage deleteTuple()");
-        if(!isSlotUsed(rid.tupleno()))
+        if(!slotUsed(rid.tupleno()))
             throw new DbException("empty tuple throw by HeapPage deleteTuple()");
+        makeWritable();
+        int slot = rid.tupleno();
+        int off = slotOffset(slot);
+        int len = slotted ? entryLength(slot) : tupleSize;
+        // tuples still reading the slot must not see it cleared
+        if (tuples != null && tuples[slot] != null && tuples[slot].isBackedBy(data, off))
+            tuples[slot].materialize();
+        if (t.isBackedBy(data, off))
+            t.materialize();
         t.setRecordId(null);
-        markSlotUsed(rid.tupleno(), false);
+        if (tuples != null)
+            tuples[slot] = null;
+        markSlotUsed(slot, false);
+        for (int b = off; b < off + len; ++b)
+            data.put(b, (byte) 0);
+        if (slotted)
+            freeRecord(slot, off, len);
+    }
+
+    /**
+     * Slotted pages: empty the directory entry of a deleted record, dropping
+     * empty entries from the end of the directory.  A record at the start
+     * of the records gives its bytes back at once; others leave a hole.
+     */
+    private void freeRecord(int slot, int off, int len) {
+        setEntry(slot, 0, 0);
+        recordBytes -= len;
+        int count = entryCount();
+        while (count > 0 && entryOffset(count - 1) == 0)
+            --count;
+        data.putInt(0, count);
+        if (count == 0)
+            data.putInt(4, 0);
+        else if (off == recordStart())
+            data.putInt(4, off + len);
     }
 
     /**
@@ -267,23 +526,35 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         if(!t.getTupleDesc().equals(td))
             throw new DbException("tuplesesc mismatch throw by HeapPage insertTuple()");
-        int loc = -1;
-        for(int i = 0; i < numSlots; ++i){
-            if(!isSlotUsed(i)){
-                loc = i;
-                break;
-            }
-        }
+        int loc = slots.nextFree(0);
         if(loc == -1)
             throw new DbException("No empty slots throw by HeapPage insertTuple()");
+        // the tuple may be backed by the bytes of another page
+        t.materialize();
+        if (slotted) {
+            int len = td.getSize(t);
+            if (bytesNeeded(loc, len) > freeBytes())
+                throw new DbException("No room for tuple throw by HeapPage insertTuple()");
+            makeWritable();
+            placeRecord(loc, len);
+        } else {
+            makeWritable();
+        }
+        int off = slotOffset(loc);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            type.serialize(t.getField(j), data, off);
+            off += type.getLen(t.getField(j));
+        }
         RecordId rid = new RecordId(pid, loc);
         t.setRecordId(rid);
-        tuples[loc] = t;
+        if (tuples != null)
+            tuples[loc] = t;
         markSlotUsed(loc, true);
     }
 
@@ -313,21 +584,49 @@ public class HeapPage implements Page {
     /**
      * Returns the number of empty slots on this page.
      */
-    public int getNumEmptySlots() {
+    public synchronized int getNumEmptySlots() {
         // some code goes here
-        int num = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                num++;
-        return num;
+        if (!slotted)
+            return slots.numFree();
+        // as many more of the smallest tuples as fit, in empty entries first
+        int minSize = td.getMinSize();
+        int free = freeBytes();
+        int reused = Math.min(entryCount() - slots.numUsed(), free / minSize);
+        free -= reused * minSize;
+        return reused + Math.min(numSlots - entryCount(), free / (minSize + ENTRY_SIZE));
+    }
+
+    /**
+     * @return true if t would fit on this page.  On slotted pages this
+     *   depends on the length of t's values, not just on a slot being empty.
+     */
+    public synchronized boolean hasRoomFor(Tuple t) {
+        int loc = slots.nextFree(0);
+        if (loc == -1)
+            return false;
+        return !slotted || bytesNeeded(loc, td.getSize(t)) <= freeBytes();
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
-    public boolean isSlotUsed(int i) {
+    public synchronized boolean isSlotUsed(int i) {
         // some code goes here
-        return (header[i / 8] & (1 << (i % 8))) != 0;
+        return slotUsed(i);
+    }
+
+    /** isSlotUsed for callers that already hold the page's monitor. */
+    private boolean slotUsed(int i) {
+        return slots.isUsed(i);
+    }
+
+    /**
+     * @return the tuple in the first used slot at or after from, or null if
+     *   there is none
+     */
+    synchronized Tuple nextTuple(int from) {
+        int i = slots.nextUsed(from);
+        return i < 0 ? null : getTuple(i);
     }
 
     /**
@@ -336,32 +635,31 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        int bits = i % 8;
-        int bytes = (i - bits) / 8;
-        if(value)
-            header[bytes] |= 1 << bits;
-        else
-            header[bytes] &= 0xff ^ (1 << bits);
+        makeWritable();
+        slots.set(i, value);
+        // slotted pages keep the directory up to date themselves
+        if (!slotted)
+            data.put(i / 8, slots.getByte(i / 8));
     }
 
     public class TupleIterator implements Iterator<Tuple>{
         private int current = 0;
+        private Tuple next = null;
 
         @Override
         public boolean hasNext() {
-            while (current < numSlots) {
-                if (isSlotUsed(current))
-                    return true;
-                ++current;
+            if (next == null && current < numSlots) {
+                next = nextTuple(current);
+                current = next == null ? numSlots : next.getRecordId().tupleno() + 1;
             }
-            return false;
+            return next != null;
         }
 
         @Override
         public Tuple next() {
             if (hasNext()) {
-                Tuple tuple = tuples[current];
-                ++current;
+                Tuple tuple = next;
+                next = null;
                 return tuple;
             }
             throw new NoSuchElementException();
@@ -29,6 +29,8 @@ public class IntegerAggregator implements Aggregator {
     private final TupleDesc tupleDesc;
     private final Op what;
     private final HashMap<Field, Pair> fieldMap;
+    /** The key of the single group when there is no grouping. */
+    private static final Field NO_GROUP_KEY = new IntField(0);
     /**
      * Aggregate constructor
      * 
@@ -65,14 +67,14 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field field = tup.getField(afield), key;
-        int value = ((IntField)field).getValue();
+        Field key;
+        int value = tup.getInt(afield);
         if(gbfield != NO_GROUPING)
             key = tup.getField(gbfield);
         else
-            key = new IntField(0);
-        if(fieldMap.containsKey(key)){
-            Pair pair = fieldMap.get(key);
+            key = NO_GROUP_KEY;
+        Pair pair = fieldMap.get(key);
+        if(pair != null){
             if(what == Op.MIN){
                 if(value < pair.first) pair.first = value;
             }
@@ -90,7 +92,6 @@ public class IntegerAggregator implements Aggregator {
             }
         }
         else{
-            Pair pair;
             if(what == Op.MIN || what == Op.MAX || what == Op.SUM){
                 pair = new Pair(value, 0);
             }
@@ -129,9 +130,9 @@ public class IntegerAggregator implements Aggregator {
         else{
             Tuple tmpTuple = new Tuple(tupleDesc);
             if(what == Op.AVG)
-                tmpTuple.setField(0, new IntField(fieldMap.get(new IntField(0)).first / fieldMap.get(new IntField(0)).second));
+                tmpTuple.setField(0, new IntField(fieldMap.get(NO_GROUP_KEY).first / fieldMap.get(NO_GROUP_KEY).second));
             else
-                tmpTuple.setField(0, new IntField(fieldMap.get(new IntField(0)).first));
+                tmpTuple.setField(0, new IntField(fieldMap.get(NO_GROUP_KEY).first));
             tpList.add(tmpTuple);
         }
         return new TupleIterator(tupleDesc, tpList);
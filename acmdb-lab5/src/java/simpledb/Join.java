@@ -113,6 +113,8 @@ public class Join extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * The tuple returned is a view of the two it joins, which copies none of
+     * their fields; see {@link Tuple#Tuple(TupleDesc, Tuple, Tuple)}.
      * 
      * @return The next matching tuple.
      * @see JoinPredicate#filter
@@ -124,14 +126,7 @@ public class Join extends Operator {
             while(child2.hasNext()){
                 tmpTuple = child2.next();
                 if(p.filter(tuple, tmpTuple)){
-                    int num1 = child1.getTupleDesc().numFields();
-                    int num2 = child2.getTupleDesc().numFields();
-                    Tuple nwTuple = new Tuple(tupleDesc);
-                    for(int i = 0; i < num1; ++i)
-                        nwTuple.setField(i, tuple.getField(i));
-                    for(int i = 0; i < num2; ++i)
-                        nwTuple.setField(i+num1, tmpTuple.getField(i));
-                    return nwTuple;
+                    return new Tuple(tupleDesc, tuple, tmpTuple);
                 }
             }
             if(child1.hasNext()){
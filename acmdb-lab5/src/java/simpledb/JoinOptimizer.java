@@ -235,6 +235,9 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        // a query over one table has nothing to order
+        if (joins.isEmpty())
+            return joins;
         PlanCache planCache = new PlanCache();
         for(int i=1; i<=joins.size(); ++i){
             Set<Set<LogicalJoinNode>> subSets = enumerateSubsets(joins, i);
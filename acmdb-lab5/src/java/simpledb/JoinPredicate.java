@@ -38,12 +38,15 @@ public class JoinPredicate implements Serializable {
 
     /**
      * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * made through Field's compare method; int fields are compared by
+     * value, without creating Fields for them.
      * 
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)
+            return op.compare(t1.getInt(field1), t2.getInt(field2));
         return t1.getField(getField1()).compare(getOperator(), t2.getField(getField2()));
     }
     
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil et al.).  The victim is the page whose K-th most
+ * recent reference is oldest; pages referenced fewer than K times have an
+ * infinite backward K-distance and are evicted first, oldest first.
+ * <p>
+ * Rather than keeping a heap ordered by K-distance, pages are kept in two
+ * lists: a FIFO history of pages seen fewer than K times and an LRU list of
+ * pages seen at least K times.  This makes every operation O(1) and gives
+ * the property that matters here: a page touched once by a sequential scan
+ * stays in the history list and is replaced before any page that is
+ * actually being reused.  Within the hot list the order is by last rather
+ * than K-th reference, which for K = 2 is the usual 2Q-style approximation.
+ * <p>
+ * References that arrive within a short correlated reference period of the
+ * previous one (e.g. an iterator asking for the same page in hasNext() and
+ * then in next()) are counted as a single reference.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    /** References to the same page this many ticks apart or closer are correlated. */
+    private static final int CORRELATED_REFERENCE_PERIOD = 2;
+
+    private static class Entry {
+        int refs;
+        long lastRef;
+    }
+
+    private final int k;
+    private final LinkedHashMap<PageId, Entry> history;
+    private final LinkedHashMap<PageId, Entry> hot;
+    private long clock;
+
+    /**
+     * @param k the number of references that makes a page hot
+     * @param capacity the number of frames the policy is expected to track
+     */
+    public LRUKPolicy(int k, int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs k >= 1");
+        this.k = k;
+        int initial = Math.max(16, capacity);
+        this.history = new LinkedHashMap<>(initial, 0.75f, false);
+        this.hot = new LinkedHashMap<>(initial, 0.75f, true);
+        this.clock = 0;
+    }
+
+    public void admit(PageId pid) {
+        if (history.containsKey(pid) || hot.containsKey(pid)) {
+            access(pid);
+            return;
+        }
+        Entry e = new Entry();
+        e.refs = 1;
+        e.lastRef = ++clock;
+        if (e.refs >= k)
+            hot.put(pid, e);
+        else
+            history.put(pid, e);
+    }
+
+    public void admitPrefetched(PageId pid) {
+        if (history.containsKey(pid) || hot.containsKey(pid))
+            return;
+        Entry e = new Entry();
+        e.refs = 0;
+        e.lastRef = Long.MIN_VALUE / 2;
+        history.put(pid, e);
+    }
+
+    public void access(PageId pid) {
+        long now = ++clock;
+        Entry e = hot.get(pid);
+        if (e != null) {
+            // get() already moved it to the most recently used end
+            e.lastRef = now;
+            return;
+        }
+        e = history.get(pid);
+        if (e == null)
+            return;
+        if (now - e.lastRef > CORRELATED_REFERENCE_PERIOD)
+            e.refs++;
+        e.lastRef = now;
+        if (e.refs >= k) {
+            history.remove(pid);
+            hot.put(pid, e);
+        }
+    }
+
+    public void remove(PageId pid) {
+        if (history.remove(pid) == null)
+            hot.remove(pid);
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        PageId victim = evictFrom(history, evictable);
+        if (victim == null)
+            victim = evictFrom(hot, evictable);
+        return victim;
+    }
+
+    public int size() {
+        return history.size() + hot.size();
+    }
+
+    public List<PageId> hottestFirst() {
+        // both lists are kept in eviction order
+        ArrayList<PageId> order = new ArrayList<>(history.keySet());
+        order.addAll(hot.keySet());
+        Collections.reverse(order);
+        return order;
+    }
+
+    private static PageId evictFrom(LinkedHashMap<PageId, Entry> list, Predicate<PageId> evictable) {
+        Iterator<Map.Entry<PageId, Entry>> it = list.entrySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next().getKey();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
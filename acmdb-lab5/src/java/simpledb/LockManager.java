@@ -6,7 +6,11 @@ import java.util.concurrent.ConcurrentHashMap;
 public class LockManager {
     private Map<PageId, Lock> lockMap;
     private Map<TransactionId, Set<PageId>> holdsMap;
-    private Map<TransactionId, Set<TransactionId>> waitsMap;
+    /**
+     * The transactions each transaction waits for, by the page it waits to
+     * lock; the threads of one transaction may wait for several pages.
+     */
+    private Map<TransactionId, Map<PageId, Set<TransactionId>>> waitsMap;
 
     public LockManager(){
         lockMap = new ConcurrentHashMap<>();
@@ -15,15 +19,18 @@ public class LockManager {
     }
 
     private synchronized void updateWaits(PageId pid, TransactionId tid){
-        Set<TransactionId> waits = new HashSet<>();
-        if(!waitsMap.containsKey(tid))
+        Map<PageId, Set<TransactionId>> waits = waitsMap.get(tid);
+        if(waits == null){
+            waits = new HashMap<>();
             waitsMap.put(tid, waits);
-        else
-            waits = waitsMap.get(tid);
-        waits.clear();
-        if(pid != null){
-            waits.addAll(lockMap.get(pid).getHoldsTids());
         }
+        waits.put(pid, new HashSet<>(lockMap.get(pid).getHoldsTids()));
+    }
+
+    private synchronized void clearWaits(PageId pid, TransactionId tid){
+        Map<PageId, Set<TransactionId>> waits = waitsMap.get(tid);
+        if(waits != null)
+            waits.remove(pid);
     }
 
     public synchronized boolean isDeadLock(TransactionId tid){
@@ -32,30 +39,28 @@ public class LockManager {
 
     private boolean isDeadLock(TransactionId nw, TransactionId dest, Set<TransactionId> isVisited){
         isVisited.add(nw);
-        Set<TransactionId> waits = waitsMap.get(nw);
+        Map<PageId, Set<TransactionId>> waits = waitsMap.get(nw);
         if(waits == null) return false;
-        for(TransactionId nxt : waits){
-            if(nxt == dest)
-                return true;
-            if(isVisited.contains(nxt))
-                continue;
-            if(isDeadLock(nxt, dest, isVisited))
-                return true;
+        for(Set<TransactionId> holders : waits.values()){
+            for(TransactionId nxt : holders){
+                if(nxt == dest)
+                    return true;
+                if(isVisited.contains(nxt))
+                    continue;
+                if(isDeadLock(nxt, dest, isVisited))
+                    return true;
+            }
         }
         return false;
     }
 
     public void acquireLock(PageId pid, TransactionId tid, LockType type) throws TransactionAbortedException {
-        Lock lock = new Lock(pid);
-        if(!lockMap.containsKey(pid))
-            lockMap.put(pid, lock);
-        else
-            lock = lockMap.get(pid);
+        Lock lock = lockMap.computeIfAbsent(pid, Lock::new);
         synchronized (lock){
             while(!lock.acquireLock(tid, type)){
                 updateWaits(pid, tid);
                 if(isDeadLock(tid)){
-                    updateWaits(null, tid);
+                    clearWaits(pid, tid);
                     throw new TransactionAbortedException();
                 }
                 try{
@@ -65,13 +70,9 @@ public class LockManager {
                 }
             }
         }
-        updateWaits(null, tid);
-        Set<PageId> holds = new HashSet<>();
-        if(!holdsMap.containsKey(tid))
-            holdsMap.put(tid, holds);
-        else
-            holds = holdsMap.get(tid);
-        holds.add(pid);
+        clearWaits(pid, tid);
+        // the threads of a parallel scan lock pages for one transaction at once
+        holdsMap.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pid);
     }
 
     public void releaseLock(PageId pid, TransactionId tid){
@@ -94,10 +95,6 @@ public class LockManager {
     }
 
     public boolean holdsLock(PageId pid, TransactionId tid){
-        if(lockMap.containsKey(pid))
-            return lockMap.get(pid).holdsLock(tid);
-        Lock lock = new Lock(pid);
-        lockMap.put(pid, lock);
-        return lock.holdsLock(tid);
+        return lockMap.computeIfAbsent(pid, Lock::new).holdsLock(tid);
     }
 }
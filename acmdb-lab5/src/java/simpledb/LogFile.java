@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and REDO
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +61,10 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>REDO records consist of an after image alone.  They are written at
+commit, for pages whose changes are not yet in their files; as those pages
+are written only once the commit record is on disk, they are never undone.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -74,7 +78,7 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private volatile RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,17 +86,27 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int REDO_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    volatile long currentOffset = -1;//protected by this
+
+    /** Held while forcing the log; see {@link #forceTo}. */
+    private final Object forceLock = new Object();
+    /** The log is on disk up to here. */
+    private long forcedOffset = 0; //protected by forceLock
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** Records are put together here and appended with a single write. */
+    private final ByteArrayOutputStream recordBuf = new ByteArrayOutputStream(); //protected by this
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuf); //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -158,10 +172,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid.getId());
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,21 +180,33 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  Transactions committing at the same
+        time share a force; see {@link #forceTo}.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
+        forceTo(appendCommit(tid));
+    }
+
+    /** Append a commit record for the specified tid without forcing it.
+
+        @param tid The committing transaction.
+        @return the offset just past the record
+    */
+    synchronized long appendCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        appendRecord(COMMIT_RECORD, tid.getId());
         tidToFirstLogRecord.remove(tid.getId());
+        return currentOffset;
+    }
+
+    /** @return the offset just past the last record appended */
+    synchronized long endOffset() {
+        return currentOffset;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -199,6 +222,10 @@ public class LogFile {
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        // pages written before commit by the BufferPool may belong to
+        // transactions that never logged a BEGIN; rollback starts here
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         /* update record conists of
 
            record type
@@ -207,18 +234,53 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        recordOut.writeInt(UPDATE_RECORD);
+        recordOut.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(recordOut,before);
+        writePageData(recordOut,after);
+        recordOut.writeLong(currentOffset);
+        flushRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Write a REDO record for the specified tid and page, for a page
+        that will not be written to its file before tid's commit record is
+        on disk.
+        @param tid The committing transaction
+        @param after The page as tid leaves it
+    */
+    public synchronized void logRedo(TransactionId tid, Page after)
+        throws IOException {
+        preAppend();
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+        recordOut.writeInt(REDO_RECORD);
+        recordOut.writeLong(tid.getId());
+        writePageData(recordOut, after);
+        recordOut.writeLong(currentOffset);
+        flushRecord();
+    }
+
+    /** Append a record with no data besides its type and tid; the
+        caller holds this. */
+    private void appendRecord(int type, long tid) throws IOException {
+        recordOut.writeInt(type);
+        recordOut.writeLong(tid);
+        recordOut.writeLong(currentOffset);
+        flushRecord();
+    }
+
+    /** Write out the record put together in recordBuf; RandomAccessFile
+        would make a system call for every int and long of it. */
+    private void flushRecord() throws IOException {
+        raf.write(recordBuf.toByteArray());
+        recordBuf.reset();
+        currentOffset = raf.getFilePointer();
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -265,17 +327,32 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
+            raf.readFully(pageData); //read before image
+
+            // pages are built from (id, data), or (id, data, key field) for
+            // B+ tree pages
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length >= 2 && params.length <= 3 && params[1] == byte[].class
+                        && (params.length == 2 || params[2] == int.class)) {
+                    pageConst = c;
+                    break;
+                }
+            }
+            if (pageConst == null)
+                throw new IOException("no constructor to read a " + pageClassName + " with");
+            Object[] pageArgs = new Object[pageConst.getParameterTypes().length];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
+            if (pageArgs.length == 3)
+                pageArgs[2] = ((BTreeFile) Database.getCatalog()
+                        .getDatabaseFile(pid.getTableId())).keyField();
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -307,11 +384,8 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(BEGIN_RECORD, tid.getId());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -324,10 +398,11 @@ public class LogFile {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
                 long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
                 force();
+                // may log pages of running transactions, making them active
                 Database.getBufferPool().flushAllPages();
+                Set<Long> keys = tidToFirstLogRecord.keySet();
+                Iterator<Long> els = keys.iterator();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -399,6 +474,7 @@ public class LogFile {
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
@@ -416,6 +492,9 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case REDO_RECORD:
+                    writePageData(logNew, readPageData(raf));
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -426,10 +505,12 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
                 }
+                // a transaction's first record is usually, but not always,
+                // its BEGIN
+                Long first = tidToFirstLogRecord.get(record_tid);
+                if (first != null && first == oldStart)
+                    tidToFirstLogRecord.put(record_tid, newStart);
 
                 //all xactions finish with a pointer
                 logNew.writeLong(newStart);
@@ -450,6 +531,9 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        synchronized (forceLock) {
+            forcedOffset = 0;
+        }
         //print();
     }
 
@@ -466,18 +550,63 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+
+                // the first before image of each page tid wrote is the
+                // page as it was before tid
+                LinkedHashMap<PageId, Page> before = new LinkedHashMap<PageId, Page>();
+                raf.seek(first);
+                try {
+                    while (raf.getFilePointer() < currentOffset) {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        if (type == UPDATE_RECORD && record_tid == tid.getId()) {
+                            Page b = readPageData(raf);
+                            readPageData(raf);
+                            if (!before.containsKey(b.getId()))
+                                before.put(b.getId(), b);
+                        } else {
+                            skipRecord(type);
+                        }
+                        raf.readLong();
+                    }
+                } finally {
+                    raf.seek(currentOffset);
+                }
+
+                for (Page b : before.values()) {
+                    Database.getCatalog().getDatabaseFile(b.getId().getTableId()).writePage(b);
+                    Database.getBufferPool().discardPage(b.getId());
+                }
             }
         }
     }
 
+    /**
+     * @return whether tid has records in the log and has not yet committed
+     *   or aborted there
+     */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** The file the buffer pool's resident pages are saved to at
+        shutdown, next to the log; see {@link BufferPool#preloadPages}.
+    */
+    public File residentPagesFile() {
+        return new File(logFile.getPath() + ".pages");
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
-        extensive recovery.)
+        extensive recovery, and without a cold buffer pool.)
     */
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            Database.getBufferPool().saveResidentPages(residentPagesFile());
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -494,17 +623,149 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    preAppend();
+                    return;
+                }
+
+                // the outcome of each transaction in the log
+                HashSet<Long> committed = new HashSet<Long>();
+                HashSet<Long> finished = new HashSet<Long>();
+                LinkedHashSet<Long> seen = new LinkedHashSet<Long>();
+                raf.seek(LONG_SIZE);
+                long end = LONG_SIZE;
+                try {
+                    while (true) {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        skipRecord(type);
+                        raf.readLong();
+                        end = raf.getFilePointer();
+                        if (type == COMMIT_RECORD)
+                            committed.add(record_tid);
+                        if (type == COMMIT_RECORD || type == ABORT_RECORD)
+                            finished.add(record_tid);
+                        else if (type != CHECKPOINT_RECORD)
+                            seen.add(record_tid);
+                    }
+                } catch (EOFException e) {
+                    // a record cut short by the crash ends the log
+                }
+
+                // repeat history: redo committed updates and undo aborted
+                // ones in log order, then undo the transactions that never
+                // finished
+                HashSet<PageId> touched = new HashSet<PageId>();
+                HashMap<Long, LinkedHashMap<PageId, Page>> undo =
+                        new HashMap<Long, LinkedHashMap<PageId, Page>>();
+                raf.seek(LONG_SIZE);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page before = readPageData(raf);
+                        Page after = readPageData(raf);
+                        touched.add(after.getId());
+                        if (committed.contains(record_tid)) {
+                            writePage(after);
+                        } else {
+                            LinkedHashMap<PageId, Page> images = undo.get(record_tid);
+                            if (images == null) {
+                                images = new LinkedHashMap<PageId, Page>();
+                                undo.put(record_tid, images);
+                            }
+                            if (!images.containsKey(before.getId()))
+                                images.put(before.getId(), before);
+                        }
+                    } else if (type == REDO_RECORD) {
+                        Page after = readPageData(raf);
+                        touched.add(after.getId());
+                        if (committed.contains(record_tid))
+                            writePage(after);
+                    } else if (type == ABORT_RECORD) {
+                        LinkedHashMap<PageId, Page> images = undo.remove(record_tid);
+                        if (images != null) {
+                            for (Page before : images.values())
+                                writePage(before);
+                        }
+                    } else {
+                        skipRecord(type);
+                    }
+                    raf.readLong();
+                }
+
+                raf.seek(end);
+                raf.setLength(end);
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+                for (Long loser : seen) {
+                    if (finished.contains(loser))
+                        continue;
+                    LinkedHashMap<PageId, Page> images = undo.remove(loser);
+                    if (images != null) {
+                        for (Page before : images.values())
+                            writePage(before);
+                    }
+                    appendRecord(ABORT_RECORD, loser);
+                }
+                force();
+
+                for (PageId pid : touched)
+                    Database.getBufferPool().discardPage(pid);
             }
          }
     }
 
+    /** Skip the data of a record whose type and tid were just read, up
+        to the offset that ends it. */
+    private void skipRecord(int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            readPageData(raf);
+            readPageData(raf);
+            break;
+        case REDO_RECORD:
+            readPageData(raf);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+            break;
+        }
+    }
+
+    private static void writePage(Page p) throws IOException {
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        forceTo(currentOffset);
+    }
+
+    /** Make sure the log is on disk at least up to the given offset.
+        <p>
+        This is how commits are grouped: a thread that finds another one
+        forcing the log waits for it, and usually finds its own records
+        forced along with that thread's, since the force covers everything
+        appended before it began.  At most one force is waited for beyond
+        the one in progress, however many transactions commit at once.
+        Callers need not hold this LogFile's monitor.
+
+        @param offset an offset returned by endOffset or appendCommit
+    */
+    void forceTo(long offset) throws IOException {
+        synchronized (forceLock) {
+            if (forcedOffset >= offset)
+                return;
+            long end = currentOffset;
+            raf.getChannel().force(true);
+            forcedOffset = end;
+        }
     }
 
 }
@@ -3,6 +3,7 @@ import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.TreeSet;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -258,6 +259,54 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Find the fields of a scanned table that the plan uses: those in the
+     * select list, filters, joins, aggregate, GROUP BY and ORDER BY.
+     * Tables stored by column only decode these.
+     *
+     * @return the indexes of the fields used, or null if the plan uses
+     *   all of them
+     */
+    private int[] neededColumns(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        TreeSet<Integer> used = new TreeSet<Integer>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            addColumn(used, table.alias, td, si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            addColumn(used, table.alias, td, lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            addColumn(used, table.alias, td, lj.f1QuantifiedName);
+            addColumn(used, table.alias, td, lj.f2QuantifiedName);
+        }
+        addColumn(used, table.alias, td, aggField);
+        addColumn(used, table.alias, td, groupByField);
+        addColumn(used, table.alias, td, oByField);
+        if (used.size() == td.numFields())
+            return null;
+        int[] columns = new int[used.size()];
+        int n = 0;
+        for (int i : used)
+            columns[n++] = i;
+        return columns;
+    }
+
+    /** Add the field fname refers to to used, if it is a field of alias. */
+    private static void addColumn(TreeSet<Integer> used, String alias, TupleDesc td, String fname) {
+        if (fname == null)
+            return;
+        int dot = fname.lastIndexOf('.');
+        if (dot < 0 || !fname.substring(0, dot).equals(alias))
+            return;
+        try {
+            used.add(td.fieldNameToIndex(fname.substring(dot + 1)));
+        } catch (NoSuchElementException e) {
+            // reported when the plan is built
+        }
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -298,6 +347,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            ss.setNeededColumns(neededColumns(table));
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
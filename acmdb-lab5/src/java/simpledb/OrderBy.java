@@ -15,6 +15,8 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    /** The batch nextBatch() fills, reused from call to call. */
+    private transient TupleBatch batch;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -57,8 +59,13 @@ public class OrderBy extends Operator {
             TransactionAbortedException {
         child.open();
         // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                childTups.add(batch.get(i));
+        }
+        // everything is in memory now; let the child give back its pages
+        child.close();
         Collections.sort(childTups, new TupleComparator(orderByField, asc));
         it = childTups.iterator();
         super.open();
@@ -88,6 +95,21 @@ public class OrderBy extends Operator {
             return null;
     }
 
+    /**
+     * Fills a batch with the next tuples in the ordering.
+     */
+    @Override
+    public TupleBatch nextBatch() {
+        if (it == null || !it.hasNext())
+            return null;
+        if (batch == null)
+            batch = new TupleBatch(td);
+        batch.clear();
+        while (!batch.isFull() && it.hasNext())
+            batch.add(it.next());
+        return batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -110,6 +132,10 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int c = Integer.compare(o1.getInt(field), o2.getInt(field));
+            return asc ? c : -c;
+        }
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
         if (t1.compare(Predicate.Op.EQUALS, t2))
@@ -56,4 +56,23 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Stop using the buffer pool frame this page was read into, if any, by
+     * moving its bytes onto the heap.  The BufferPool calls this before it
+     * gives the frame to another page; the page stays fully usable.
+     *
+     * @see DbFile#readPage(PageId, java.nio.ByteBuffer)
+     */
+    default void detach() {
+    }
+
+    /**
+     * @return the number of bytes the page takes up in the buffer pool,
+     *   which is the page size of its file
+     * @see DbFile#getPageSize()
+     */
+    default int size() {
+        return BufferPool.getPageSize();
+    }
 }
@@ -0,0 +1,294 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan reads a table with several threads at once.  The pages
+ * of a HeapFile are cut into morsels, runs of MORSEL_PAGES pages, and each
+ * worker takes the next morsel not yet taken until none are left, so
+ * workers that are slowed down take fewer.  Workers fill batches of tuples
+ * and hand them to the thread consuming the scan through a bounded queue;
+ * the scan returns them through {@link #nextBatch()}, or one by one
+ * through next().
+ * <p>
+ * Every worker reads its pages through the BufferPool under the scan's
+ * transaction, so the pages are locked and released just as a SeqScan
+ * would lock them.  Tuples come out in no particular order.  Tables not
+ * stored in a HeapFile are read by a single worker.
+ *
+ * @see HeapFile#iterator(TransactionId, int, int)
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of pages in a morsel. */
+    public static final int MORSEL_PAGES = 32;
+
+    /** The number of batches workers may fill ahead of the consumer. */
+    private static final int QUEUE_BATCHES = 16;
+
+    /** Marks the end of a worker's tuples in the queue. */
+    private static final TupleBatch END = new TupleBatch(new TupleDesc(new Type[] {}), 1);
+
+    /** Threads of all parallel scans; idle threads die after a minute. */
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "parallel-scan");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int numWorkers;
+
+    /** State of the scan while it is open, or null. */
+    private transient BlockingQueue<TupleBatch> queue;
+    private transient AtomicInteger nextPage;
+    private transient AtomicReference<Throwable> failure;
+    private transient CountDownLatch finished;
+    private transient volatile boolean stopped;
+    private transient int running;
+    /** The batch next() is handing out, and its next row. */
+    private transient TupleBatch batch;
+    private transient int row;
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction, with a worker for each processor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, which prefixes its field names as
+     *            in {@link SeqScan}.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param workers
+     *            the number of threads that read the table at once.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("a scan needs a worker");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.numWorkers = workers;
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid));
+    }
+
+    /**
+     * @return the name of the table this scan reads
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this scan reads
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the number of threads that read the table at once
+     */
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed by the
+     * alias of the table, as SeqScan does.
+     */
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(tableid, tableAlias);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        close();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = getTupleDesc();
+        int workers = file instanceof HeapFile ? numWorkers : 1;
+        queue = new ArrayBlockingQueue<>(QUEUE_BATCHES + workers);
+        nextPage = new AtomicInteger();
+        failure = new AtomicReference<>();
+        finished = new CountDownLatch(workers);
+        stopped = false;
+        running = workers;
+        batch = null;
+        // the pages there are now; pages added while the scan runs are not read
+        int numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 1;
+        for (int i = 0; i < workers; ++i)
+            WORKERS.execute(() -> scanMorsels(file, td, numPages));
+    }
+
+    /**
+     * The body of each worker: scan morsels until none are left, handing
+     * out full batches as they fill, then mark the end of its tuples.
+     */
+    private void scanMorsels(DbFile file, TupleDesc td, int numPages) {
+        // close(), and so the next open(), waits for every worker to finish
+        try {
+            TupleBatch out = new TupleBatch(td);
+            int first;
+            while (!stopped && (first = nextPage.getAndAdd(MORSEL_PAGES)) < numPages) {
+                DbFileIterator it = file instanceof HeapFile
+                        ? ((HeapFile) file).iterator(tid, first, first + MORSEL_PAGES)
+                        : file.iterator(tid);
+                it.open();
+                try {
+                    while (it.hasNext()) {
+                        out.add(it.next());
+                        if (out.isFull()) {
+                            if (!deliver(out))
+                                return;
+                            out = new TupleBatch(td);
+                        }
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+            if (!out.isEmpty())
+                deliver(out);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            try {
+                deliver(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Put a batch on the queue, waiting for room unless the scan is closed.
+     *
+     * @return false if the scan was closed before there was room
+     */
+    private boolean deliver(TupleBatch b) throws InterruptedException {
+        while (!stopped) {
+            if (queue.offer(b, 10, TimeUnit.MILLISECONDS))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next batch a worker filled.  Rethrows the first exception
+     * a worker met, such as a TransactionAbortedException from waiting for
+     * a lock.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (queue == null)
+            throw new IllegalStateException("scan not open");
+        while (running > 0) {
+            TupleBatch b;
+            try {
+                b = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for a parallel scan");
+            }
+            checkFailure();
+            if (b == END)
+                --running;
+            else
+                return b;
+        }
+        return null;
+    }
+
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        Throwable e = failure.get();
+        if (e == null)
+            return;
+        stopped = true;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        DbException dbe = new DbException("parallel scan failed: " + e);
+        dbe.initCause(e);
+        throw dbe;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (queue == null)
+            throw new IllegalStateException("scan not open");
+        while (batch == null || row >= batch.size()) {
+            batch = nextBatch();
+            row = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.get(row++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (queue == null)
+            throw new IllegalStateException("scan not open");
+        open();
+    }
+
+    /**
+     * Stop the workers and wait for them to give back the pages they have
+     * pinned.  The locks they took are held by the transaction as usual.
+     */
+    public void close() {
+        if (queue == null)
+            return;
+        stopped = true;
+        queue.clear();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        queue = null;
+        batch = null;
+    }
+}
@@ -365,7 +365,8 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) != Type.STRING_TYPE
+                            && td.getFieldType(i) != Type.VARCHAR_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
@@ -599,6 +600,7 @@ public class Parser {
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -607,6 +609,9 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        File hotPages = Database.getLogFile().residentPagesFile();
+        if (hotPages.exists())
+            Database.getBufferPool().startPreloader(hotPages);
         TableStats.computeStatistics();
 
         String queryFile = null;
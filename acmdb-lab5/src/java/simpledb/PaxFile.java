@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores a table on {@link PaxPage}s, which group
+ * the fields of the tuples on each page by column.  It suits wide tables
+ * that are mostly scanned for a few of their columns: {@link
+ * #iterator(TransactionId, int[])} decodes only the columns it is given.
+ * Pages are addressed by {@link HeapPageId}s, as in a HeapFile.
+ *
+ * @see PaxPage
+ * @see HeapFile
+ */
+public class PaxFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final FileHandle handle;
+    private final int pageSize;
+
+    /**
+     * Constructs a PAX file backed by the specified file, with pages of the
+     * default size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            table.
+     * @throws IllegalArgumentException if td has fields of variable length
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, whose pages are
+     * pageSize bytes.
+     *
+     * @param pageSize
+     *            the size of each page in bytes; at least one tuple must fit
+     * @throws IllegalArgumentException if td has fields of variable length,
+     *            or a tuple does not fit on a page
+     */
+    public PaxFile(File f, TupleDesc td, int pageSize) {
+        if (!td.isFixedSize())
+            throw new IllegalArgumentException("PAX pages need fields of fixed length");
+        if (pageSize * 8 / (td.getSize() * 8 + 1) < 1)
+            throw new IllegalArgumentException("pages of " + pageSize +
+                    " bytes cannot hold a tuple of " + td.getSize() + " bytes");
+        this.f = f;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.handle = FileHandle.open(f);
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash code of the
+     * absolute name of its file.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] data = new byte[pageSize];
+            if (handle.read(data, (long) pid.pageNumber() * pageSize) < data.length)
+                throw new IllegalArgumentException("Read past end of table");
+            return new PaxPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + pid, e);
+        }
+    }
+
+    /**
+     * Read the pages in file order, with one scattering read per run of
+     * adjacent pages.
+     */
+    @Override
+    public List<Page> readPages(List<PageId> ids) throws IOException {
+        int numPages = numPages();
+        ArrayList<PageId> present = new ArrayList<>();
+        for (PageId pid : ids) {
+            if (pid.pageNumber() < numPages)
+                present.add(pid);
+        }
+        long[] offsets = new long[present.size()];
+        ByteBuffer[] blocks = new ByteBuffer[present.size()];
+        for (int i = 0; i < blocks.length; ++i) {
+            offsets[i] = (long) present.get(i).pageNumber() * pageSize;
+            blocks[i] = ByteBuffer.wrap(new byte[pageSize]);
+        }
+        handle.readBatch(offsets, blocks);
+        ArrayList<Page> pages = new ArrayList<>();
+        for (int i = 0; i < blocks.length; ++i)
+            pages.add(new PaxPage((HeapPageId) present.get(i), blocks[i].array()));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        handle.write(page.getPageData(), (long) page.getId().pageNumber() * pageSize);
+    }
+
+    /**
+     * Write the pages in file order, with one gathering write per run of
+     * adjacent pages, and force the file once.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        long[] offsets = new long[pages.size()];
+        ByteBuffer[] blocks = new ByteBuffer[pages.size()];
+        for (int i = 0; i < blocks.length; ++i) {
+            Page page = pages.get(i);
+            offsets[i] = (long) page.getId().pageNumber() * pageSize;
+            blocks[i] = ByteBuffer.wrap(page.getPageData());
+        }
+        handle.writeBatch(offsets, blocks);
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (handle.length() / pageSize);
+    }
+
+    /**
+     * Insert the tuple into the first page with an empty slot, adding a page
+     * to the end of the file if there is none.  Tables stored this way are
+     * mostly loaded once, so unlike HeapFile this keeps no free-space map.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        ArrayList<Page> dirtyPageAr = new ArrayList<>();
+        for (int pageNo = 0; ; ++pageNo) {
+            HeapPageId pid;
+            if (pageNo < numPages()) {
+                pid = new HeapPageId(getId(), pageNo);
+            } else {
+                synchronized (this) {
+                    pid = new HeapPageId(getId(), numPages());
+                    writePage(new PaxPage(pid, PaxPage.createEmptyPageData(pageSize)));
+                }
+            }
+            boolean held = pool.holdsLock(tid, pid);
+            PaxPage page = (PaxPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                // stays pinned until the BufferPool has cached it dirty
+                dirtyPageAr.add(page);
+                return dirtyPageAr;
+            }
+            pool.unpinPage(tid, pid);
+            if (!held)
+                pool.releasePage(tid, pid);
+            pageNo = pid.pageNumber();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in a table");
+        ArrayList<Page> dirtyPageAr = new ArrayList<>();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        dirtyPageAr.add(page);
+        return dirtyPageAr;
+    }
+
+    private class PaxFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private int offset;
+        private Iterator<Tuple> tupleIt;
+        private PaxPage curPage;
+        private ScanRing ring;
+        private ReadAhead readAhead;
+
+        PaxFileIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+        }
+
+        /**
+         * Move on to the given page, unpinning the one the iterator was on
+         * first; the tuples already returned from it are copies.
+         */
+        private void moveTo(int pageNo) throws TransactionAbortedException, DbException {
+            unpinCurrent();
+            HeapPageId pid = new HeapPageId(getId(), pageNo);
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid,
+                    Permissions.READ_ONLY, ring);
+            if (readAhead != null)
+                readAhead.pageRead(pid, numPages());
+            offset = pageNo;
+            curPage = page;
+            tupleIt = page.iterator(columns);
+        }
+
+        private void unpinCurrent() {
+            if (curPage != null)
+                Database.getBufferPool().unpinPage(tid, curPage.getId());
+            curPage = null;
+            tupleIt = null;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            ring = Database.getBufferPool().newScanRing(numPages(), pageSize);
+            readAhead = Database.getBufferPool().newReadAhead(ring);
+            moveTo(0);
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (curPage == null || tupleIt == null)
+                return false;
+            while (!tupleIt.hasNext()) {
+                if (offset + 1 >= numPages()) {
+                    unpinCurrent();
+                    return false;
+                }
+                moveTo(offset + 1);
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("NoSuchElementException throw by PaxFileIterator");
+            return tupleIt.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        @Override
+        public void close() {
+            unpinCurrent();
+            offset = 0;
+            ring = null;
+            if (readAhead != null)
+                readAhead.close();
+            readAhead = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PaxFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that decodes only the
+     * given columns, leaving the minipages of the others untouched.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new PaxFileIterator(tid, columns);
+    }
+}
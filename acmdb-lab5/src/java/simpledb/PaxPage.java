@@ -0,0 +1,356 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxPage stores one page of a {@link PaxFile}.  It holds the same tuples a
+ * {@link HeapPage} of the same size would, but groups their fields by
+ * column: each column has a minipage of its own holding that field of every
+ * slot, one after another.  A scan that needs a few columns of a wide table
+ * decodes only their minipages.
+ *
+ * @see PaxFile
+ * @see BufferPool
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+    final int numSlots;
+    final int headerSize;
+    /** Which slots are used; kept in step with the header bytes in data. */
+    private final SlotBitmap slots;
+    /** The offset of the minipage of each column. */
+    private final int[] columnStart;
+    /** The length of each field. */
+    private final int[] fieldLen;
+    /** The tuples of the used slots, holding the fields decoded so far. */
+    private final Tuple[] tuples;
+    /** Which columns have been decoded into every tuple in tuples. */
+    private final boolean[] decoded;
+
+    /**
+     * The bytes of the page.  Until the page is first modified these are
+     * shared with the before image; see {@link #makeWritable()}.
+     */
+    private byte[] data;
+    private ByteBuffer buf;
+    private boolean writable = false;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    volatile boolean dirty = false;
+    volatile TransactionId dirtyTid = null;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * <p>
+     * A page has as many slots as a HeapPage of its table would,
+     * <p>
+     *          floor((page size*8) / (tuple size * 8 + 1))
+     * <p>
+     * and starts with the same header, one bit per slot.  The header is
+     * followed by a minipage for each column in turn, holding the field of
+     * that column of every slot: field j of slot s is at
+     * <p>
+     *          header size + slots * (offset of field j) + s * (size of field j)
+     * <p>
+     * Only tables whose fields are all of fixed length can be stored this
+     * way.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     * @see DbFile#getPageSize()
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.pageSize = file.getPageSize();
+        this.numSlots = pageSize * 8 / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        if (data.length < pageSize)
+            throw new IOException("short page data for " + id);
+        this.columnStart = new int[td.numFields()];
+        this.fieldLen = new int[td.numFields()];
+        for (int j = 0; j < columnStart.length; ++j) {
+            columnStart[j] = headerSize + numSlots * td.getFieldOffset(j);
+            fieldLen[j] = td.getFieldType(j).getLen();
+        }
+        this.tuples = new Tuple[numSlots];
+        this.decoded = new boolean[td.numFields()];
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.slots = new SlotBitmap(buf, 0, numSlots);
+        this.oldData = data;
+    }
+
+    /**
+     * Lay the tuples of a HeapPage out by column, giving the bytes of a
+     * PaxPage that holds the same tuples in the same slots.
+     *
+     * @param rows the bytes of a HeapPage of a table with fields of fixed length
+     * @param td the schema of the table
+     */
+    static byte[] fromRows(byte[] rows, TupleDesc td) {
+        int tupleSize = td.getSize();
+        int numSlots = rows.length * 8 / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] out = new byte[rows.length];
+        System.arraycopy(rows, 0, out, 0, headerSize);
+        for (int j = 0; j < td.numFields(); ++j) {
+            int off = td.getFieldOffset(j);
+            int len = td.getFieldType(j).getLen();
+            int dst = headerSize + numSlots * off;
+            for (int s = 0; s < numSlots; ++s, dst += len)
+                System.arraycopy(rows, headerSize + s * tupleSize + off, out, dst, len);
+        }
+        return out;
+    }
+
+    /**
+     * Generate the bytes of an empty PaxPage of a table whose pages are
+     * pageSize bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            // shares the bytes; the new page copies them if it is changed
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Make the current contents of this page its before image.  As with
+     * HeapPage, the image shares the page's bytes until the next change.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+            writable = false;
+        }
+    }
+
+    /** Copy data before its first change since the before image was set. */
+    private void makeWritable() {
+        if (writable)
+            return;
+        synchronized (oldDataLock) {
+            data = data.clone();
+            buf = ByteBuffer.wrap(data);
+            writable = true;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     *
+     * @see #PaxPage
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    // see Page.java for javadocs
+    public int size() {
+        return pageSize;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtyTid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtyTid : null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        return slots.numFree();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return slots.isUsed(i);
+    }
+
+    /**
+     * Adds the specified tuple to the page, writing each of its fields to
+     * the minipage of its column.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc mismatch throw by PaxPage insertTuple()");
+        int loc = slots.nextFree(0);
+        if (loc == -1)
+            throw new DbException("No empty slots throw by PaxPage insertTuple()");
+        makeWritable();
+        for (int j = 0; j < columnStart.length; ++j)
+            td.getFieldType(j).serialize(t.getField(j), buf, columnStart[j] + loc * fieldLen[j]);
+        markSlotUsed(loc, true);
+        t.setRecordId(new RecordId(pid, loc));
+        tuples[loc] = t;
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("Null rid throw by PaxPage deleteTuple()");
+        if (!pid.equals(rid.getPageId()))
+            throw new DbException("Invalid tuple throw by PaxPage deleteTuple()");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !slots.isUsed(slot))
+            throw new DbException("empty tuple throw by PaxPage deleteTuple()");
+        makeWritable();
+        for (int j = 0; j < columnStart.length; ++j) {
+            int off = columnStart[j] + slot * fieldLen[j];
+            for (int b = off; b < off + fieldLen[j]; ++b)
+                data[b] = 0;
+        }
+        markSlotUsed(slot, false);
+        t.setRecordId(null);
+        tuples[slot] = null;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        slots.set(i, value);
+        data[i / 8] = slots.getByte(i / 8);
+    }
+
+    /**
+     * Make sure each used slot has a tuple, and decode the given columns
+     * into them, a whole minipage at a time.
+     */
+    private void decode(int[] columns) {
+        for (int i = slots.nextUsed(0); i >= 0; i = slots.nextUsed(i + 1)) {
+            if (tuples[i] == null) {
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                // a new tuple has no fields yet
+                Arrays.fill(decoded, false);
+            }
+        }
+        try {
+            for (int j : columns) {
+                if (decoded[j])
+                    continue;
+                Type type = td.getFieldType(j);
+                for (int i = slots.nextUsed(0); i >= 0; i = slots.nextUsed(i + 1))
+                    if (tuples[i].getField(j) == null)
+                        tuples[i].setField(j, type.parse(buf, columnStart[j] + i * fieldLen[j]));
+                decoded[j] = true;
+            }
+        } catch (java.text.ParseException e) {
+            throw new IllegalStateException("parsing error!", e);
+        }
+    }
+
+    /**
+     * @return the tuple in the first used slot at or after from, with the
+     *   given columns decoded, or null if there is none
+     */
+    private synchronized Tuple nextTuple(int from, int[] columns) {
+        int i = slots.nextUsed(from);
+        if (i < 0)
+            return null;
+        boolean ready = tuples[i] != null;
+        for (int j : columns)
+            ready &= decoded[j];
+        if (!ready)
+            decode(columns);
+        return tuples[i];
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, with every field
+     *   decoded
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * The tuples are kept by the page, so a column is decoded once however
+     * many scans read it, and fields other scans have decoded are already
+     * set.
+     *
+     * @param columns the fields to decode, or null for all of them
+     * @return an iterator over all tuples on this page, with the given
+     *   fields decoded; others may be left unset
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        if (columns == null) {
+            columns = new int[td.numFields()];
+            for (int j = 0; j < columns.length; ++j)
+                columns[j] = j;
+        }
+        final int[] cols = columns;
+        return new Iterator<Tuple>() {
+            private int current = 0;
+            private Tuple next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && current < numSlots) {
+                    next = nextTuple(current, cols);
+                    current = next == null ? numSlots : next.getRecordId().tupleno() + 1;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple tuple = next;
+                next = null;
+                return tuple;
+            }
+        };
+    }
+}
@@ -12,6 +12,11 @@ public class Predicate implements Serializable {
     private final int field;
     private final Op op;
     private Field operand;
+    /** True if operand is an IntField, whose value is intValue. */
+    private final boolean intOperand;
+    private final int intValue;
+    /** The bytes of a string operand, or null; see FieldCodec.stringBytes. */
+    private final byte[] stringKey;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -46,6 +51,31 @@ public class Predicate implements Serializable {
             throw new IllegalStateException("impossible to reach here");
         }
 
+        /**
+         * Apply this operation to two ints, as {@link IntField#compare}
+         * does to their fields; LIKE on ints is equality.
+         *
+         * @return the result of a op b
+         */
+        public boolean compare(int a, int b) {
+            switch (this) {
+            case EQUALS:
+            case LIKE:
+                return a == b;
+            case NOT_EQUALS:
+                return a != b;
+            case GREATER_THAN:
+                return a > b;
+            case GREATER_THAN_OR_EQ:
+                return a >= b;
+            case LESS_THAN:
+                return a < b;
+            case LESS_THAN_OR_EQ:
+                return a <= b;
+            }
+            return false;
+        }
+
     }
     
     /**
@@ -63,6 +93,10 @@ public class Predicate implements Serializable {
         this.field = field;
         this.op = op;
         this.operand = operand;
+        this.intOperand = operand instanceof IntField;
+        this.intValue = intOperand ? ((IntField) operand).getValue() : 0;
+        this.stringKey = operand instanceof StringField
+                ? FieldCodec.stringBytes(((StringField) operand).getValue()) : null;
     }
 
     /**
@@ -96,7 +130,9 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method; int operands are compared with the int value of the field,
+     * and string operands with the stored bytes of the field, without
+     * creating a Field for it.
      * 
      * @param t
      *            The tuple to compare against
@@ -104,6 +140,10 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (intOperand)
+            return op.compare(t.getInt(field), intValue);
+        if (stringKey != null)
+            return t.compareString(field, op, (StringField) operand, stringKey);
         return t.getField(getField()).compare(getOp(), getOperand());
     }
 
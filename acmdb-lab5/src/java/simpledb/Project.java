@@ -11,6 +11,10 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    /** outFieldIds, for the views nextBatch() makes. */
+    private int[] fieldIds;
+    /** The batch nextBatch() fills, reused from call to call. */
+    private transient TupleBatch batch;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -39,6 +43,9 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        fieldIds = new int[fieldList.size()];
+        for (int i = 0; i < fieldIds.length; i++)
+            fieldIds[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
@@ -80,6 +87,30 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Projects each selected tuple of a batch of the child into a batch of
+     * its own.  The tuples are views of the child's, so no field is copied
+     * or decoded until it is asked for.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!isOpen())
+            throw new IllegalStateException("Operator not yet open");
+        TupleBatch in = child.nextBatch();
+        if (in == null)
+            return null;
+        if (batch == null)
+            batch = new TupleBatch(td);
+        batch.clear();
+        for (int i = 0; i < in.size(); i++) {
+            Tuple t = in.get(i);
+            Tuple newTuple = new Tuple(td, t, fieldIds);
+            newTuple.setRecordId(t.getRecordId());
+            batch.add(newTuple);
+        }
+        return batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
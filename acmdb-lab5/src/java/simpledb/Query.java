@@ -17,6 +17,8 @@ public class Query implements Serializable {
     private static final long serialVersionUID = 1L;
 
     transient private DbIterator op;
+    /** Reads op a batch at a time while the query runs. */
+    transient private DbIterator results;
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
@@ -52,7 +54,8 @@ public class Query implements Serializable {
 
     public void start() throws IOException, DbException,
             TransactionAbortedException {
-        op.open();
+        results = new BatchIterator(op);
+        results.open();
 
         started = true;
     }
@@ -63,7 +66,7 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return (results != null ? results : op).hasNext();
     }
 
     /**
@@ -83,12 +86,16 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return results.next();
     }
 
     /** Close the iterator */
     public void close() throws IOException {
-        op.close();
+        if (results != null)
+            results.close();
+        else
+            op.close();
+        results = null;
         started = false;
     }
 
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead follows the pages one scan reads and, once the scan is plainly
+ * sequential, has background threads load the next pages into the
+ * BufferPool before the scan gets to them.  Heap file scans are sequential
+ * in page number; B+ tree scans follow the right sibling pointers of their
+ * leaves, so those pages are discovered one by one as they are loaded.
+ * <p>
+ * Pages are read in batches, each batch by a single background task, and a
+ * new batch is issued once the scan has used up half of the pages read
+ * ahead.  Read-ahead is only a hint: failures are ignored and the scan
+ * reads the page itself if it is not there in time.
+ * <p>
+ * A ReadAhead is obtained from {@link BufferPool#newReadAhead(ScanRing)} and
+ * belongs to one iterator.
+ */
+public class ReadAhead {
+
+    private static final ExecutorService IO_THREADS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final BufferPool pool;
+    private final int depth;
+    private final boolean ringScan;
+
+    /** Pages read ahead that the scan has not used yet, in scan order. */
+    private final LinkedHashSet<PageId> issued;
+    private int lastPgNo;
+    private int issuedUpTo;
+    /** Next leaf to read ahead along a sibling chain, once it is known. */
+    private BTreePageId nextLeaf;
+    private boolean chainRunning;
+    private boolean chainEnded;
+    private boolean closed;
+
+    ReadAhead(BufferPool pool, int depth, boolean ringScan) {
+        this.pool = pool;
+        this.depth = depth;
+        this.ringScan = ringScan;
+        this.issued = new LinkedHashSet<>();
+        this.lastPgNo = -1;
+        this.issuedUpTo = -1;
+    }
+
+    /**
+     * Called by a heap file scan each time it has fetched a page.
+     *
+     * @param pid the page the scan fetched
+     * @param numPages the number of pages in the file
+     */
+    public synchronized void pageRead(HeapPageId pid, int numPages) {
+        int pgNo = pid.pageNumber();
+        if (pgNo == lastPgNo)
+            return;
+        issued.remove(pid);
+        boolean sequential = pgNo == lastPgNo + 1;
+        lastPgNo = pgNo;
+        if (!sequential) {
+            cancel();
+            issuedUpTo = pgNo;
+            return;
+        }
+        if (issuedUpTo - pgNo > depth / 2)
+            return;
+        int last = Math.min(numPages - 1, pgNo + depth);
+        final ArrayList<PageId> batch = new ArrayList<>();
+        for (int i = Math.max(issuedUpTo, pgNo) + 1; i <= last; ++i) {
+            HeapPageId next = new HeapPageId(pid.getTableId(), i);
+            issued.add(next);
+            pool.prefetchIssued(next);
+            batch.add(next);
+        }
+        issuedUpTo = Math.max(issuedUpTo, last);
+        if (batch.isEmpty())
+            return;
+        IO_THREADS.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (PageId next : batch) {
+                        if (isClosed())
+                            break;
+                        pool.prefetchPage(next, ringScan);
+                    }
+                } catch (Exception e) {
+                    // only a hint; the scan reads the page itself
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by a B+ tree scan each time it has moved on to a leaf.
+     *
+     * @param leaf the leaf the scan is reading
+     */
+    public synchronized void leafRead(BTreeLeafPage leaf) {
+        issued.remove(leaf.getId());
+        if (chainRunning || chainEnded || issued.size() > depth / 2)
+            return;
+        final BTreePageId start = nextLeaf != null && !issued.isEmpty() ? nextLeaf : leaf.getRightSiblingId();
+        if (start == null)
+            return;
+        chainRunning = true;
+        IO_THREADS.execute(new Runnable() {
+            public void run() {
+                BTreePageId next = start;
+                try {
+                    for (int i = 0; i < depth && next != null && chainStep(next); ++i) {
+                        Page page = pool.prefetchPage(next, ringScan);
+                        if (page == null)
+                            break;
+                        next = ((BTreeLeafPage) page).getRightSiblingId();
+                    }
+                } catch (Exception e) {
+                    // only a hint; the scan reads the page itself
+                } finally {
+                    chainDone(next);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop reading ahead; pages not read yet will not be, and pages read
+     * ahead but not used are no longer expected.
+     */
+    public synchronized void close() {
+        closed = true;
+        cancel();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private synchronized boolean chainStep(BTreePageId pid) {
+        if (closed)
+            return false;
+        issued.add(pid);
+        pool.prefetchIssued(pid);
+        return true;
+    }
+
+    private synchronized void chainDone(BTreePageId next) {
+        chainRunning = false;
+        nextLeaf = next;
+        chainEnded = next == null;
+    }
+
+    private void cancel() {
+        for (PageId pid : issued)
+            pool.prefetchCancelled(pid);
+        issued.clear();
+    }
+}
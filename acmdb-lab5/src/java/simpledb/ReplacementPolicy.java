@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs a free frame.  The BufferPool tells the policy about every
+ * page it admits, every hit on a resident page and every page it drops, and
+ * asks it for a victim when the pool is full.
+ * <p>
+ * Implementations are not thread safe; the BufferPool calls them while
+ * holding its own latch.
+ */
+public interface ReplacementPolicy {
+
+    /** The replacement policies a BufferPool can be configured with. */
+    enum Kind {
+        /** Second-chance CLOCK. */
+        CLOCK,
+        /** LRU-K with K = 2, which keeps one-off scans from flushing hot pages. */
+        LRU_K;
+
+        /**
+         * Create a new, empty policy of this kind.
+         *
+         * @param capacity the number of frames the policy is expected to track
+         */
+        public ReplacementPolicy create(int capacity) {
+            switch (this) {
+                case CLOCK:
+                    return new ClockPolicy();
+                case LRU_K:
+                    return new LRUKPolicy(2, capacity);
+                default:
+                    throw new IllegalArgumentException("unknown replacement policy " + this);
+            }
+        }
+    }
+
+    /**
+     * Start tracking a page that has just been brought into the pool.  This
+     * counts as the first reference to the page.
+     */
+    void admit(PageId pid);
+
+    /**
+     * Start tracking a page that was read ahead of its first use.  This does
+     * not count as a reference; the first access() does.
+     */
+    void admitPrefetched(PageId pid);
+
+    /** Record a reference to a page that is already tracked. */
+    void access(PageId pid);
+
+    /** Stop tracking pid, e.g. because the page was discarded. */
+    void remove(PageId pid);
+
+    /**
+     * Choose a page to evict and stop tracking it.
+     *
+     * @param evictable tells whether a tracked page may be evicted right now
+     *   (e.g. it is not dirty)
+     * @return the victim, or null if no tracked page is evictable
+     */
+    PageId evict(Predicate<PageId> evictable);
+
+    /** @return the number of pages currently tracked */
+    int size();
+
+    /**
+     * @return every tracked page, hottest first: the page the policy would
+     *   evict last comes first, the next victim comes last
+     */
+    List<PageId> hottestFirst();
+}
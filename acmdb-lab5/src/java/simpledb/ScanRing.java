@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * A small ring of buffer pool frames private to one large sequential scan.
+ * Pages a scan reads through its ring are not handed to the pool's
+ * replacement policy; once the ring is full each new page reuses the frame
+ * of the page read ring-size pages earlier, so a scan of a table much larger
+ * than the pool only ever occupies a handful of frames.
+ * <p>
+ * A ring is obtained from {@link BufferPool#newScanRing(int)} and passed to
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)}.
+ * It is owned by a single iterator and is not thread safe.
+ */
+public class ScanRing {
+
+    private final PageId[] slots;
+    private int next;
+
+    ScanRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("a scan ring needs at least one frame");
+        this.slots = new PageId[size];
+        this.next = 0;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * @return the page whose frame the next page read through this ring
+     *   replaces, or null while the ring is still filling up
+     */
+    PageId victim() {
+        return slots[next];
+    }
+
+    /** Record that pid now occupies the frame returned by victim(). */
+    void add(PageId pid) {
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+    }
+}
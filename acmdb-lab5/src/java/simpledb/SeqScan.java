@@ -15,6 +15,10 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator tableIt = null;
+    /** The fields the operators above this scan use, or null for all. */
+    private int[] neededColumns = null;
+    /** The batch nextBatch() fills, reused from call to call. */
+    private transient TupleBatch batch = null;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -73,15 +77,42 @@ public class SeqScan implements DbIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.tableIt = null;
+        this.neededColumns = null;
+        this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Tell the scan which fields of its tuples the operators above it use,
+     * such as the fields a Project outputs and a Filter or Aggregate reads.
+     * Tables stored by column decode only those fields; the others of the
+     * returned tuples may be left unset.  The TupleDesc of the scan is not
+     * changed, so field indexes stay the same.  Takes effect on the next
+     * call to open().
+     *
+     * @param columns the indexes of the fields used, or null for all of them
+     * @see DbFile#iterator(TransactionId, int[])
+     */
+    public void setNeededColumns(int[] columns) {
+        this.neededColumns = columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the indexes of the fields the operators above this scan use,
+     *   or null if they may use all of them
+     */
+    public int[] getNeededColumns() {
+        return neededColumns == null ? null : neededColumns.clone();
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.tableIt = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.tableIt = neededColumns == null ? file.iterator(tid)
+                : file.iterator(tid, neededColumns);
         tableIt.open();
     }
 
@@ -97,6 +128,14 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        return aliasedTupleDesc(tableid, tableAlias);
+    }
+
+    /**
+     * @return the TupleDesc of the table, with its field names prefixed by
+     *   tableAlias and a "."
+     */
+    static TupleDesc aliasedTupleDesc(int tableid, String tableAlias) {
         TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
         int num = td.numFields();
         Type[] typeAr = new Type[num];
@@ -123,6 +162,21 @@ public class SeqScan implements DbIterator {
         return tableIt.next();
     }
 
+    /**
+     * Fill a batch straight from the table's iterator.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(tableIt == null)
+            throw new IllegalStateException();
+        if(batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        while(!batch.isFull() && tableIt.hasNext())
+            batch.add(tableIt.next());
+        return batch.isEmpty() ? null : batch;
+    }
+
     public void close() {
         // some code goes here
         if(tableIt != null){
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * SlotBitmap holds which slots of a page are in use, one bit per slot, and
+ * answers questions about them a 64-bit word at a time.
+ * <p>
+ * The bits are laid out as in the header bytes of the pages: slot i is bit
+ * i%8 of byte i/8, which makes it bit i%64 of the little-endian word i/64.
+ * The bitmap is a copy of those bytes, so pages that keep their image up to
+ * date write the changed byte back with {@link #getByte(int)}.  The number
+ * of used slots is kept as slots change, so counting them is free.
+ */
+public class SlotBitmap {
+
+    private final long[] words;
+    private final int numSlots;
+    private int used;
+
+    /** Create a bitmap of numSlots slots, all of them free. */
+    public SlotBitmap(int numSlots) {
+        this.numSlots = numSlots;
+        this.words = new long[(numSlots + 63) >>> 6];
+    }
+
+    /**
+     * Create a bitmap of numSlots slots from the header bytes starting at
+     * offset in buf.  Bits past the last slot are ignored.
+     */
+    public SlotBitmap(ByteBuffer buf, int offset, int numSlots) {
+        this(numSlots);
+        ByteBuffer le = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int bytes = (numSlots + 7) >>> 3;
+        int full = bytes >>> 3;
+        for (int w = 0; w < full; ++w)
+            words[w] = le.getLong(offset + (w << 3));
+        for (int b = full << 3; b < bytes; ++b)
+            words[b >>> 3] |= (le.get(offset + b) & 0xFFL) << ((b & 7) << 3);
+        if ((numSlots & 63) != 0)
+            words[words.length - 1] &= (1L << numSlots) - 1;
+        for (long w : words)
+            used += Long.bitCount(w);
+    }
+
+    /** @return the number of slots */
+    public int numSlots() {
+        return numSlots;
+    }
+
+    /** @return the number of used slots */
+    public int numUsed() {
+        return used;
+    }
+
+    /** @return the number of free slots */
+    public int numFree() {
+        return numSlots - used;
+    }
+
+    /** @return true if slot i is used */
+    public boolean isUsed(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Mark slot i used or free. */
+    public void set(int i, boolean value) {
+        long bit = 1L << i;
+        long w = words[i >>> 6];
+        if (((w & bit) != 0) == value)
+            return;
+        words[i >>> 6] = w ^ bit;
+        used += value ? 1 : -1;
+    }
+
+    /** Mark every slot used. */
+    public void setAll() {
+        Arrays.fill(words, -1L);
+        if ((numSlots & 63) != 0)
+            words[words.length - 1] = (1L << numSlots) - 1;
+        used = numSlots;
+    }
+
+    /** @return the first free slot at or after from, or -1 if there is none */
+    public int nextFree(int from) {
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long bits = ~words[w] & (-1L << from);
+        while (bits == 0) {
+            if (++w == words.length)
+                return -1;
+            bits = ~words[w];
+        }
+        int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+        return i < numSlots ? i : -1;
+    }
+
+    /** @return the first used slot at or after from, or -1 if there is none */
+    public int nextUsed(int from) {
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long bits = words[w] & (-1L << from);
+        while (bits == 0) {
+            if (++w == words.length)
+                return -1;
+            bits = words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /** @return the last used slot at or before from, or -1 if there is none */
+    public int prevUsed(int from) {
+        if (from < 0)
+            return -1;
+        if (from >= numSlots)
+            from = numSlots - 1;
+        int w = from >>> 6;
+        long bits = words[w] & (-1L >>> (63 - (from & 63)));
+        while (bits == 0) {
+            if (--w < 0)
+                return -1;
+            bits = words[w];
+        }
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /** @return byte b of the header these bits are stored in */
+    public byte getByte(int b) {
+        return (byte) (words[b >>> 3] >>> ((b & 7) << 3));
+    }
+
+    /** Write the first len header bytes to dst, starting at offset. */
+    public void write(byte[] dst, int offset, int len) {
+        for (int b = 0; b < len; ++b)
+            dst[offset + b] = getByte(b);
+    }
+}
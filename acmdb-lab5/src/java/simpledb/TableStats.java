@@ -113,14 +113,14 @@ public class TableStats {
                 if(flag){
                     for(int i=0; i<numFields; ++i){
                         if(td.getFieldType(i) == Type.INT_TYPE)
-                            maxAr[i] = minAr[i] = ((IntField)tuple.getField(i)).getValue();
+                            maxAr[i] = minAr[i] = tuple.getInt(i);
                     }
                     flag = false;
                 }
                 else{
                     for(int i=0; i<numFields; ++i){
                         if(td.getFieldType(i) == Type.INT_TYPE) {
-                            int tmp = ((IntField)tuple.getField(i)).getValue();
+                            int tmp = tuple.getInt(i);
                             if(tmp < minAr[i]) minAr[i] = tmp;
                             else if(tmp > maxAr[i]) maxAr[i] = tmp;
                         }
@@ -140,9 +140,9 @@ public class TableStats {
                 tuple = dbFileIterator.next();
                 for(int i=0; i<numFields; ++i){
                     if(td.getFieldType(i) == Type.INT_TYPE)
-                        IntHistograms[i].addValue(((IntField)(tuple.getField(i))).getValue());
+                        IntHistograms[i].addValue(tuple.getInt(i));
                     else
-                        StringHistograms[i].addValue(((StringField)(tuple.getField(i))).getValue());
+                        StringHistograms[i].addValue(tuple.getString(i));
                 }
             }
             dbFileIterator.close();
@@ -43,20 +43,9 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
-            //write commit / abort records
-            if (abort) {
-                Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
-            }
-
-            try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            //write commit / abort records, logging the pages of a committing
+            //transaction or rolling back an aborting one, and release locks
+            Database.getBufferPool().transactionComplete(tid, !abort);
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
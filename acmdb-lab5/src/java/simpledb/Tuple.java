@@ -1,19 +1,50 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Tuples read from a page may be backed by the page's bytes, in which case
+ * each field is decoded the first time it is asked for.  The typed
+ * accessors {@link #getInt(int)} and {@link #getString(int)} read a value
+ * without going through a Field where they can, so operators that know the
+ * types of their fields need not allocate or unbox one per row.
+ * <p>
+ * A tuple made by a join may be a view of the two tuples it joins, which
+ * reads its fields from theirs by position; see
+ * {@link #Tuple(TupleDesc, Tuple, Tuple)}.  A tuple made by a projection
+ * may likewise be a view of the tuple it projects; see
+ * {@link #Tuple(TupleDesc, Tuple, int[])}.
  */
 public class Tuple implements Serializable {
     private static final long serialVersionUID = 1L;
     private TupleDesc td = null;
     private RecordId rid = null;
-    private ArrayList<Field> FieldList = null;
+    private Field[] fields = null;
+    /** The bytes the fields not decoded yet are read from, or null. */
+    private transient ByteBuffer source = null;
+    private transient int sourceOffset;
+    /**
+     * The tuples this one is a view of, or null; the first split fields
+     * are left's, the rest right's.  fields is null while they are set.
+     */
+    private transient Tuple left = null;
+    private transient Tuple right = null;
+    private transient int split;
+    /**
+     * The tuple this one is a projection of, or null, and the field of base
+     * each field of this one is.  fields is null while base is set.
+     */
+    private transient Tuple base = null;
+    private transient int[] baseFields;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -23,13 +54,107 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         this.td = td;
-        this.FieldList = new ArrayList<>(td.numFields());
-        for(int i=0; i<td.numFields(); ++i){
-            FieldList.add(null);
-        }
+        this.fields = new Field[td.numFields()];
         // some code goes here
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a buffer as they are
+     * needed.  The bytes must stay unchanged while the tuple is backed by
+     * them; see {@link #materialize()}.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param source
+     *            the buffer holding the tuple's fields in their on-disk format.
+     * @param offset
+     *            the index in source of the tuple's first field.
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.source = source;
+        this.sourceOffset = offset;
+    }
+
+    /**
+     * Create a tuple that is the concatenation of two others, without
+     * copying their fields: field i is field i of left, for i below the
+     * number of fields of left, and otherwise the matching field of right.
+     * The view is decoupled from left and right by {@link #materialize()},
+     * which setField() calls, so changing the view never changes them.
+     *
+     * @param td
+     *            the schema of this tuple, the merge of the schemas of left
+     *            and right.
+     * @see TupleDesc#merge(TupleDesc, TupleDesc)
+     */
+    Tuple(TupleDesc td, Tuple left, Tuple right) {
+        this.td = td;
+        this.left = left;
+        this.right = right;
+        this.split = left.getTupleDesc().numFields();
+    }
+
+    /**
+     * Create a tuple that is a projection of another, without copying its
+     * fields: field i is field fieldIds[i] of base.  Like a join view, it is
+     * decoupled from base by {@link #materialize()}, which setField() calls.
+     *
+     * @param td
+     *            the schema of this tuple, one field for each of fieldIds.
+     */
+    Tuple(TupleDesc td, Tuple base, int[] fieldIds) {
+        this.td = td;
+        this.base = base;
+        this.baseFields = fieldIds;
+    }
+
+    /**
+     * @return true if fields of this tuple are still read from source, at
+     *   the given offset
+     */
+    boolean isBackedBy(ByteBuffer source, int offset) {
+        return this.source != null && this.source == source && sourceOffset == offset;
+    }
+
+    /**
+     * Decode any fields that have not been decoded yet, so this tuple no
+     * longer depends on the bytes it was read from, or on the tuples it is
+     * a view of.
+     */
+    void materialize() {
+        if (left != null || base != null) {
+            Field[] fs = new Field[td.numFields()];
+            for (int i = 0; i < fs.length; ++i)
+                fs[i] = getField(i);
+            fields = fs;
+            left = null;
+            right = null;
+            base = null;
+            baseFields = null;
+            return;
+        }
+        if (source == null)
+            return;
+        for (int i = 0; i < fields.length; ++i)
+            getField(i);
+        source = null;
+    }
+
+    private Field decodeField(ByteBuffer src, int i) {
+        try {
+            return td.getFieldType(i).parse(src,
+                    sourceOffset + td.getFieldOffset(i, src, sourceOffset));
+        } catch (java.text.ParseException e) {
+            throw new IllegalStateException("parsing error!", e);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -68,7 +193,8 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        this.FieldList.set(i, f);
+        materialize();
+        this.fields[i] = f;
     }
 
     /**
@@ -79,7 +205,106 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return this.FieldList.get(i);
+        if (left != null)
+            return i < split ? left.getField(i) : right.getField(i - split);
+        if (base != null)
+            return base.getField(baseFields[i]);
+        Field f = this.fields[i];
+        ByteBuffer src = source;
+        if (f == null && src != null) {
+            f = decodeField(src, i);
+            this.fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *   that has been set.  A field not decoded yet is read straight from
+     *   the bytes of the tuple, without decoding it into an IntField.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws ClassCastException if the field is not an INT_TYPE field
+     */
+    public int getInt(int i) {
+        if (left != null)
+            return i < split ? left.getInt(i) : right.getInt(i - split);
+        if (base != null)
+            return base.getInt(baseFields[i]);
+        Field f = this.fields[i];
+        ByteBuffer src = source;
+        if (f == null && src != null) {
+            if (td.getFieldType(i) != Type.INT_TYPE)
+                throw new ClassCastException("field " + i + " is not an int");
+            return FieldCodec.readInt(src, sourceOffset + td.getFieldOffset(i, src, sourceOffset));
+        }
+        return ((IntField) f).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field that
+     *   has been set.  A field not decoded yet is read straight from the
+     *   bytes of the tuple, without decoding it into a StringField.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws ClassCastException if the field is not a string field
+     */
+    public String getString(int i) {
+        if (left != null)
+            return i < split ? left.getString(i) : right.getString(i - split);
+        if (base != null)
+            return base.getString(baseFields[i]);
+        Field f = this.fields[i];
+        ByteBuffer src = source;
+        if (f == null && src != null) {
+            Type type = td.getFieldType(i);
+            if (type != Type.STRING_TYPE && type != Type.VARCHAR_TYPE)
+                throw new ClassCastException("field " + i + " is not a string");
+            return FieldCodec.readString(type, src, sourceOffset + td.getFieldOffset(i, src, sourceOffset));
+        }
+        return ((StringField) f).getValue();
+    }
+
+    /**
+     * Compare the ith field, a string field, with a string operand, as
+     * {@link StringField#compare} would.  A field not decoded yet is
+     * compared as it is stored, without decoding it.
+     *
+     * @param key
+     *            the bytes of operand, from {@link FieldCodec#stringBytes}
+     */
+    boolean compareString(int i, Predicate.Op op, StringField operand, byte[] key) {
+        if (left != null)
+            return i < split ? left.compareString(i, op, operand, key)
+                    : right.compareString(i - split, op, operand, key);
+        if (base != null)
+            return base.compareString(baseFields[i], op, operand, key);
+        ByteBuffer src = source;
+        if (this.fields[i] == null && src != null)
+            return FieldCodec.compareString(td.getFieldType(i), src,
+                    sourceOffset + td.getFieldOffset(i, src, sourceOffset), op, key);
+        return getField(i).compare(op, operand);
+    }
+
+    /**
+     * @return the hash code of the ith field, which must have been set.  A
+     *   field not decoded yet is hashed as it is stored, without decoding it.
+     *
+     * @param i
+     *            field index to hash. Must be a valid index.
+     */
+    public int hashField(int i) {
+        if (left != null)
+            return i < split ? left.hashField(i) : right.hashField(i - split);
+        if (base != null)
+            return base.hashField(baseFields[i]);
+        ByteBuffer src = source;
+        if (this.fields[i] == null && src != null)
+            return FieldCodec.hash(td.getFieldType(i), src,
+                    sourceOffset + td.getFieldOffset(i, src, sourceOffset));
+        return getField(i).hashCode();
     }
 
     /**
@@ -93,8 +318,9 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         //throw new UnsupportedOperationException("Implement this");
+        materialize();
         StringBuilder builder = new StringBuilder();
-        for(Field field : FieldList){
+        for(Field field : fields){
             builder.append(field.toString());
             builder.append("\t");
         }
@@ -108,7 +334,8 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return this.FieldList.listIterator();
+        materialize();
+        return Arrays.asList(fields).iterator();
     }
 
     /**
@@ -117,6 +344,8 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        // the source bytes are laid out by the old TupleDesc
+        materialize();
         this.td = td;
     }
 }
@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds a run of tuples passed between operators by {@link
+ * DbIterator#nextBatch()}, so an operator is called once per batch rather
+ * than once per tuple.
+ * <p>
+ * A batch has a selection vector: the indexes of the rows still selected.
+ * An operator such as Filter narrows the selection in place instead of
+ * copying the rows it keeps, and {@link #size()} and {@link #get(int)} see
+ * only the selected rows.  The rows are usually tuples backed by the bytes
+ * of their page, so a batch reads each column it is asked for straight
+ * from the page, without first copying the batch out column by column.
+ */
+public class TupleBatch {
+
+    /** The number of rows a batch holds unless told otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final Tuple[] rows;
+    private int numRows;
+    /** The rows selected, in order, if selected is true; else all rows are. */
+    private final int[] selection;
+    private boolean selected;
+    private int numSelected;
+
+    /**
+     * Create an empty batch of tuples of the given schema that holds up to
+     * DEFAULT_CAPACITY rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch of tuples of the given schema that holds up to
+     * capacity rows.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a batch must hold a row");
+        this.td = td;
+        this.rows = new Tuple[capacity];
+        this.selection = new int[capacity];
+    }
+
+    /**
+     * @return the schema of the tuples in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return true if no more rows can be added to this batch
+     */
+    public boolean isFull() {
+        return numRows == rows.length;
+    }
+
+    /**
+     * Add a row to the end of this batch; it is selected.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (selected)
+            selection[numSelected++] = numRows;
+        rows[numRows++] = t;
+    }
+
+    /**
+     * @return the number of rows selected
+     */
+    public int size() {
+        return selected ? numSelected : numRows;
+    }
+
+    /**
+     * @return true if no rows are selected
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the ith selected row
+     * @throws IndexOutOfBoundsException if i is not below size()
+     */
+    public Tuple get(int i) {
+        if (i >= size())
+            throw new IndexOutOfBoundsException(i + " of " + size() + " rows");
+        return rows[selected ? selection[i] : i];
+    }
+
+    /**
+     * Narrow the selection to the selected rows p keeps.
+     */
+    public void filter(Predicate p) {
+        int n = 0;
+        if (selected) {
+            for (int i = 0; i < numSelected; ++i) {
+                int row = selection[i];
+                if (p.filter(rows[row]))
+                    selection[n++] = row;
+            }
+        } else {
+            for (int row = 0; row < numRows; ++row) {
+                if (p.filter(rows[row]))
+                    selection[n++] = row;
+            }
+            selected = true;
+        }
+        numSelected = n;
+    }
+
+    /**
+     * Remove all rows, so the batch can be filled again.
+     */
+    public void clear() {
+        Arrays.fill(rows, 0, numRows, null);
+        numRows = 0;
+        numSelected = 0;
+        selected = false;
+    }
+}
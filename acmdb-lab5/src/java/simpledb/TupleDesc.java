@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -41,6 +42,10 @@ public class TupleDesc implements Serializable {
     }
 
     private ArrayList<TDItem> tdItemList = null;
+    /** Field offsets, computed on first use by getFieldOffset. */
+    private transient int[] offsets = null;
+    /** Whether every field is of fixed length, computed on first use. */
+    private transient Boolean fixedSize = null;
     /**
      * @return
      *        An iterator which iterates over all the field TDItems
@@ -165,7 +170,9 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Tuples are of a fixed size unless a field is of variable
+     *         length, in which case this is the most a tuple can take.
+     * @see #isFixedSize()
      */
     public int getSize() {
         // some code goes here
@@ -175,6 +182,79 @@ public class TupleDesc implements Serializable {
         return ret;
     }
 
+    /**
+     * @return true if every tuple with this TupleDesc takes {@link #getSize()}
+     *         bytes, false if some field is of variable length
+     */
+    public boolean isFixedSize() {
+        Boolean fixed = fixedSize;
+        if (fixed == null) {
+            fixed = true;
+            for (TDItem tdItem : tdItemList)
+                if (!tdItem.fieldType.isFixedLength())
+                    fixed = false;
+            fixedSize = fixed;
+        }
+        return fixed;
+    }
+
+    /**
+     * @return the fewest bytes a tuple with this TupleDesc can take
+     */
+    public int getMinSize() {
+        int ret = 0;
+        for (TDItem tdItem : tdItemList)
+            ret += tdItem.fieldType.getMinLen();
+        return ret;
+    }
+
+    /**
+     * @return the number of bytes t takes when its fields are serialized one
+     *         after another, which is {@link #getSize()} for tuples of a
+     *         fixed size
+     * @param t a tuple with this TupleDesc, with every field set
+     */
+    public int getSize(Tuple t) {
+        int ret = 0;
+        for (int i = 0; i < numFields(); ++i)
+            ret += getFieldType(i).getLen(t.getField(i));
+        return ret;
+    }
+
+    /**
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         tuple with this TupleDesc serialized in buf at the given
+     *         offset.  Tuples of a fixed size do not need buf; for others
+     *         the lengths of the fields before the ith are read from it.
+     */
+    public int getFieldOffset(int i, ByteBuffer buf, int offset) {
+        if (isFixedSize())
+            return getFieldOffset(i);
+        int off = 0;
+        for (int j = 0; j < i; ++j)
+            off += getFieldType(j).getLen(buf, offset + off);
+        return off;
+    }
+
+    /**
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         tuple with this TupleDesc.  Only meaningful for tuples of a
+     *         fixed size; see {@link #getFieldOffset(int, ByteBuffer, int)}.
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        int[] offs = offsets;
+        if (offs == null) {
+            offs = new int[numFields()];
+            for (int j = 1; j < offs.length; ++j)
+                offs[j] = offs[j - 1] + getFieldType(j - 1).getLen();
+            offsets = offs;
+        }
+        return offs[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
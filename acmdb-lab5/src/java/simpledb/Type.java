@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,20 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(FieldCodec.readInt(buf, offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            FieldCodec.writeInt(buf, offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,15 +57,117 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new StringField(FieldCodec.readString(this, buf, offset), STRING_LEN);
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            // same bytes as StringField.serialize
+            FieldCodec.writeString(this, buf, offset, ((StringField) f).getValue());
+        }
+    }, VARCHAR_TYPE() {
+        /** the most a field takes: a short length and STRING_LEN bytes */
+        @Override
+        public int getLen() {
+            return STRING_LEN+2;
+        }
+
+        @Override
+        public boolean isFixedLength() {
+            return false;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 2;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 2 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public int getLen(ByteBuffer buf, int offset) {
+            return 2 + buf.getShort(offset);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readShort();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("couldn't parse", 0);
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new StringField(FieldCodec.readString(this, buf, offset), STRING_LEN);
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            // only the characters of the string, after their number
+            FieldCodec.writeString(this, buf, offset, ((StringField) f).getValue());
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type;
+   *   for types of variable length, the most a field can take.
    */
     public abstract int getLen();
 
+  /**
+   * @return true if every field of this type takes {@link #getLen()} bytes,
+   *   false if each takes only as many as its value needs
+   */
+    public boolean isFixedLength() {
+        return true;
+    }
+
+  /**
+   * @return the fewest bytes a field of this type can take
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes f takes when serialized
+   * @param f a field of this type
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes taken by the field of this type serialized
+   *   in buf at the given offset
+   */
+    public int getLen(ByteBuffer buf, int offset) {
+        return getLen();
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +177,25 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at the given offset.  The position of
+   *   the buffer is not used or changed.
+   * @param buf The buffer to read from
+   * @param offset The index in buf the field starts at
+   * @throws ParseException if the buffer does not hold a field of this type
+   *   at that offset
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
+  /**
+   * Write a field of this type into a buffer at the given offset, in the
+   * format {@link #parse(ByteBuffer, int)} reads.  The position of the
+   * buffer is not used or changed.
+   * @param f The field to write
+   * @param buf The buffer to write to
+   * @param offset The index in buf to write the field at
+   */
+    public abstract void serialize(Field f, ByteBuffer buf, int offset);
+
 }
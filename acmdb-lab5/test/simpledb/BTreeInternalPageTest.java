@@ -313,6 +313,39 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.getPageData() after the page is changed
+	 */
+	@Test public void pageDataRoundTrip() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		page.deleteKeyAndRightChild(it.next());
+		page.deleteKeyAndLeftChild(it.next());
+		it = page.iterator();
+		BTreeEntry e = it.next();
+		e.setRightChild(new BTreePageId(pid.getTableId(), 70000, BTreePageId.LEAF));
+		page.updateEntry(e);
+		// a new last entry, shifting the others into the slots freed above
+		BTreeEntry last = page.reverseIterator().next();
+		page.insertEntry(new BTreeEntry(new IntField(70000), last.getRightChild(),
+				new BTreePageId(pid.getTableId(), 70001, BTreePageId.LEAF)));
+		page.setParentId(new BTreePageId(pid.getTableId(), 7, BTreePageId.INTERNAL));
+
+		BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertEquals(page.getParentId(), copy.getParentId());
+		assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+		Iterator<BTreeEntry> expected = page.iterator();
+		Iterator<BTreeEntry> actual = copy.iterator();
+		while (expected.hasNext()) {
+			BTreeEntry a = expected.next();
+			BTreeEntry b = actual.next();
+			assertEquals(a.getKey(), b.getKey());
+			assertEquals(a.getLeftChild(), b.getLeftChild());
+			assertEquals(a.getRightChild(), b.getRightChild());
+		}
+		assertFalse(actual.hasNext());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
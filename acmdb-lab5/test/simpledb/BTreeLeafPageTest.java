@@ -336,6 +336,50 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.getPageData() after the page is changed
+	 */
+	@Test public void pageDataRoundTrip() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		Iterator<Tuple> it = page.iterator();
+		for (int i = 0; i < 5; ++i)
+			page.deleteTuple(it.next());
+		for (int i = 0; i < 3; ++i)
+			page.insertTuple(BTreeUtility.getBTreeTuple(20000 + i, 2));
+		page.setParentId(new BTreePageId(pid.getTableId(), 7, BTreePageId.INTERNAL));
+		page.setRightSiblingId(new BTreePageId(pid.getTableId(), 9, BTreePageId.LEAF));
+
+		BTreeLeafPage copy = new BTreeLeafPage(pid, page.getPageData(), 0);
+		assertEquals(page.getParentId(), copy.getParentId());
+		assertEquals(page.getRightSiblingId(), copy.getRightSiblingId());
+		assertEquals(null, copy.getLeftSiblingId());
+		assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+		Iterator<Tuple> expected = page.iterator();
+		Iterator<Tuple> actual = copy.iterator();
+		while (expected.hasNext())
+			assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+		assertFalse(actual.hasNext());
+	}
+
+	/**
+	 * Unit test for BTreeLeafPage.getBeforeImage(): the image keeps the
+	 * contents the page had when it was set
+	 */
+	@Test public void beforeImage() throws Exception {
+		byte[] data = EXAMPLE_DATA.clone();
+		BTreeLeafPage page = new BTreeLeafPage(pid, data, 0);
+		int empty = page.getNumEmptySlots();
+
+		page.setBeforeImage();
+		page.insertTuple(BTreeUtility.getBTreeTuple(20000, 2));
+		page.setParentId(new BTreePageId(pid.getTableId(), 7, BTreePageId.INTERNAL));
+		BTreeLeafPage before = page.getBeforeImage();
+		assertEquals(empty, before.getNumEmptySlots());
+		assertEquals(empty - 1, page.getNumEmptySlots());
+		assertEquals(new BTreePageId(pid.getTableId(), 0, BTreePageId.ROOT_PTR), before.getParentId());
+		assertTrue(Arrays.equals(EXAMPLE_DATA, data));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -2,6 +2,9 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +96,26 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.loadSchema(): tables may declare their page size
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(schema)) {
+            out.println("wide (a int, b int) pagesize 32768");
+            out.println("narrow (a int pk, b int)");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        Catalog catalog = Database.getCatalog();
+        assertEquals(32768, catalog.getDatabaseFile(catalog.getTableId("wide")).getPageSize());
+        assertEquals(BufferPool.getPageSize(),
+                catalog.getDatabaseFile(catalog.getTableId("narrow")).getPageSize());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * FieldCodec, which reads, compares and hashes fields as they are stored.
+ */
+public class FieldCodecTest extends SimpleDbTestBase {
+
+    private static final String[] STRINGS = {
+        "", "a", "ab", "abc", "b", "ba", "zebra", "Zebra", "café", "ÿþ"
+    };
+
+    private static final Type[] STRING_TYPES = {Type.STRING_TYPE, Type.VARCHAR_TYPE};
+
+    /**
+     * Unit test for FieldCodec.write() and read(): they store fields as
+     * Type.serialize() does, and read back what they stored
+     */
+    @Test public void roundTrip() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(512);
+        FieldCodec.write(Type.INT_TYPE, buf, 3, new IntField(-77));
+        assertEquals(-77, FieldCodec.readInt(buf, 3));
+        assertEquals(new IntField(-77), Type.INT_TYPE.parse(buf, 3));
+
+        for (Type type : STRING_TYPES) {
+            for (String s : STRINGS) {
+                ByteBuffer expected = ByteBuffer.allocate(512);
+                StringField f = new StringField(s, Type.STRING_LEN);
+                buf = ByteBuffer.allocate(512);
+                FieldCodec.write(type, buf, 7, f);
+                type.serialize(f, expected, 7);
+                assertEquals(expected, buf);
+                assertEquals(s, FieldCodec.readString(type, buf, 7));
+                assertEquals(f, FieldCodec.read(type, buf, 7));
+            }
+        }
+
+        // a string longer than a field is cut short
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN + 10; i++)
+            sb.append('x');
+        FieldCodec.writeString(Type.STRING_TYPE, buf, 0, sb.toString());
+        assertEquals(Type.STRING_LEN, FieldCodec.stringLength(Type.STRING_TYPE, buf, 0));
+    }
+
+    /**
+     * Unit test for FieldCodec.compare(): stored fields compare as the
+     * decoded fields do
+     */
+    @Test public void compare() {
+        ByteBuffer buf = ByteBuffer.allocate(512);
+        for (Type type : STRING_TYPES) {
+            for (String s : STRINGS) {
+                StringField f = new StringField(s, Type.STRING_LEN);
+                FieldCodec.write(type, buf, 0, f);
+                for (String t : STRINGS) {
+                    StringField operand = new StringField(t, Type.STRING_LEN);
+                    for (Predicate.Op op : Predicate.Op.values())
+                        assertEquals(s + " " + op + " " + t, f.compare(op, operand),
+                                FieldCodec.compare(type, buf, 0, op, operand));
+                }
+                // operands that cannot be stored are compared as strings
+                StringField wide = new StringField("Ā", Type.STRING_LEN);
+                assertNull(FieldCodec.stringBytes(wide.getValue()));
+                assertEquals(f.compare(Predicate.Op.LESS_THAN, wide),
+                        FieldCodec.compare(type, buf, 0, Predicate.Op.LESS_THAN, wide));
+            }
+        }
+
+        for (int v : new int[] {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE}) {
+            FieldCodec.writeInt(buf, 0, v);
+            IntField f = new IntField(v);
+            for (int w : new int[] {Integer.MIN_VALUE, 0, 1, Integer.MAX_VALUE}) {
+                for (Predicate.Op op : Predicate.Op.values())
+                    assertEquals(f.compare(op, new IntField(w)),
+                            FieldCodec.compare(Type.INT_TYPE, buf, 0, op, new IntField(w)));
+            }
+        }
+    }
+
+    /**
+     * Unit test for FieldCodec.hash(): stored fields hash as the decoded
+     * fields do
+     */
+    @Test public void hash() {
+        ByteBuffer buf = ByteBuffer.allocate(512);
+        for (Type type : STRING_TYPES) {
+            for (String s : STRINGS) {
+                FieldCodec.writeString(type, buf, 5, s);
+                assertEquals(new StringField(s, Type.STRING_LEN).hashCode(),
+                        FieldCodec.hash(type, buf, 5));
+            }
+        }
+        FieldCodec.writeInt(buf, 5, -12345);
+        assertEquals(new IntField(-12345).hashCode(), FieldCodec.hash(Type.INT_TYPE, buf, 5));
+    }
+
+    /**
+     * Unit test for Tuple.hashField() and the string comparison in
+     * Predicate.filter() on tuples backed by the bytes of a page
+     */
+    @Test public void backedTuples() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+        FieldCodec.writeInt(buf, 0, 42);
+        FieldCodec.writeString(Type.STRING_TYPE, buf, 4, "zebra");
+
+        Tuple t = new Tuple(td, buf, 0);
+        assertEquals(42, t.hashField(0));
+        assertEquals("zebra".hashCode(), t.hashField(1));
+        StringField operand = new StringField("zeb", Type.STRING_LEN);
+        assertTrue(new Predicate(1, Predicate.Op.LIKE, operand).filter(t));
+        assertTrue(new Predicate(1, Predicate.Op.GREATER_THAN, operand).filter(t));
+        assertFalse(new Predicate(1, Predicate.Op.EQUALS, operand).filter(t));
+        assertTrue(t.isBackedBy(buf, 0));
+
+        t.materialize();
+        assertEquals("zebra".hashCode(), t.hashField(1));
+        assertTrue(new Predicate(1, Predicate.Op.GREATER_THAN, operand).filter(t));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FieldCodecTest.class);
+    }
+}
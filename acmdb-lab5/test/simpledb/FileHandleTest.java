@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FileHandleTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("handle", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for FileHandle.read() and FileHandle.write()
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        FileHandle handle = FileHandle.open(tempFile());
+        assertEquals(0, handle.length());
+
+        handle.write(new byte[] {1, 2, 3, 4}, 8);
+        assertEquals(12, handle.length());
+        handle.write(new byte[] {9}, 0);
+        assertEquals(12, handle.length());
+
+        byte[] data = new byte[6];
+        assertEquals(6, handle.read(data, 0));
+        assertArrayEquals(new byte[] {9, 0, 0, 0, 0, 0}, data);
+        // short read at the end of the file
+        assertEquals(4, handle.read(data, 8));
+        assertEquals(3, data[2]);
+        assertEquals(0, handle.read(data, 12));
+    }
+
+    /**
+     * Unit test for FileHandle.open() and reopen(): one handle per file,
+     * left as it is by open() and refreshed by reopen()
+     */
+    @Test public void sharedHandle() throws Exception {
+        File f = tempFile();
+        FileHandle handle = FileHandle.open(f);
+        handle.write(new byte[100], 0);
+        assertSame(handle, FileHandle.open(new File(f.getPath())));
+        assertEquals(100, FileHandle.open(f).length());
+
+        FileChannel channel = handle.channel();
+        assertSame(handle, FileHandle.open(f));
+        assertTrue(channel.isOpen());
+        assertSame(handle, FileHandle.reopen(f));
+        assertFalse(channel.isOpen());
+    }
+
+    /**
+     * Unit test for FileHandle.length(): changes made other than through
+     * the handle are seen, and deleted files are forgotten
+     */
+    @Test public void externalChanges() throws Exception {
+        File f = tempFile();
+        FileHandle handle = FileHandle.open(f);
+        handle.write(new byte[100], 0);
+        assertNotNull(handle.map(0, 100));
+
+        // cut short, then grown, other than through the handle
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(40);
+        }
+        assertEquals(40, handle.length());
+        assertNull(handle.map(0, 100));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(40);
+            raf.write(new byte[] {1, 2, 3, 4});
+        }
+        ByteBuffer view = handle.map(40, 4);
+        assertNotNull(view);
+        assertEquals(4, view.get(3));
+
+        // deleted: the next open makes a new handle
+        FileChannel channel = handle.channel();
+        assertTrue(f.delete());
+        assertEquals(0, handle.length());
+        assertFalse(channel.isOpen());
+        assertTrue(f.createNewFile());
+        assertNotSame(handle, FileHandle.open(f));
+    }
+
+    /**
+     * Unit test for FileHandle: channels closed to make room are reopened
+     */
+    @Test public void manyFiles() throws Exception {
+        ArrayList<FileHandle> handles = new ArrayList<FileHandle>();
+        for (int i = 0; i < FileHandle.MAX_OPEN_CHANNELS + 10; ++i) {
+            FileHandle handle = FileHandle.open(tempFile());
+            handle.write(new byte[] {(byte) i}, 0);
+            handles.add(handle);
+        }
+        for (int i = 0; i < handles.size(); ++i) {
+            byte[] data = new byte[1];
+            assertEquals(1, handles.get(i).read(data, 0));
+            assertEquals((byte) i, data[0]);
+        }
+    }
+
+    /**
+     * Unit test for FileHandle.map(): views follow writes and file growth
+     */
+    @Test public void mapFollowsWrites() throws Exception {
+        FileHandle handle = FileHandle.open(tempFile());
+        handle.write(new byte[] {1, 2, 3, 4}, 0);
+        ByteBuffer view = handle.map(0, 4);
+        assertEquals(4, view.remaining());
+        assertEquals(2, view.get(1));
+
+        // writes through the channel show up in an existing view
+        handle.write(new byte[] {7}, 1);
+        assertEquals(7, view.get(1));
+
+        // past the end until the file grows
+        assertNull(handle.map(4, 4));
+        handle.write(new byte[] {5, 6, 7, 8}, 4);
+        view = handle.map(4, 4);
+        assertEquals(5, view.get(0));
+        assertEquals(8, view.get(3));
+        assertEquals(8, handle.length());
+    }
+
+    /**
+     * Unit test for FileHandle.writeBatch(): blocks land at their offsets
+     * whatever order they come in, across gaps
+     */
+    @Test public void writeBatch() throws Exception {
+        FileHandle handle = FileHandle.open(tempFile());
+        long[] offsets = {8, 0, 4, 20};
+        ByteBuffer[] blocks = new ByteBuffer[offsets.length];
+        for (int i = 0; i < blocks.length; ++i)
+            blocks[i] = ByteBuffer.wrap(new byte[] {(byte) (i + 1), 0, 0, (byte) (i + 1)});
+        handle.writeBatch(offsets, blocks);
+        assertEquals(24, handle.length());
+        for (ByteBuffer b : blocks)
+            assertFalse(b.hasRemaining());
+
+        byte[] data = new byte[24];
+        assertEquals(24, handle.read(data, 0));
+        assertArrayEquals(new byte[] {2, 0, 0, 2, 3, 0, 0, 3, 1, 0, 0, 1,
+                0, 0, 0, 0, 0, 0, 0, 0, 4, 0, 0, 4}, data);
+    }
+
+    /**
+     * Unit test for FileHandle.readBatch(): blocks are filled from their
+     * offsets whatever order they come in, and reading past the end fails
+     */
+    @Test public void readBatch() throws Exception {
+        FileHandle handle = FileHandle.open(tempFile());
+        byte[] data = new byte[24];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = (byte) i;
+        handle.write(data, 0);
+
+        long[] offsets = {8, 0, 4, 20};
+        ByteBuffer[] blocks = new ByteBuffer[offsets.length];
+        for (int i = 0; i < blocks.length; ++i)
+            blocks[i] = ByteBuffer.allocate(4);
+        handle.readBatch(offsets, blocks);
+        for (int i = 0; i < blocks.length; ++i) {
+            assertFalse(blocks[i].hasRemaining());
+            assertEquals(offsets[i], blocks[i].get(0));
+            assertEquals(offsets[i] + 3, blocks[i].get(3));
+        }
+
+        try {
+            handle.readBatch(new long[] {20}, new ByteBuffer[] {ByteBuffer.allocate(8)});
+            fail("expected to run into the end of the file");
+        } catch (java.io.EOFException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class FrameArenaTest {
+
+    /**
+     * Unit test for FrameArena.allocate() and release()
+     */
+    @Test public void allocateAndRelease() {
+        FrameArena arena = new FrameArena(3, 64);
+        int a = arena.allocate();
+        int b = arena.allocate();
+        int c = arena.allocate();
+        assertEquals(-1, arena.allocate());
+        assertEquals(0, arena.numFree());
+        assertTrue(a != b && b != c && a != c);
+
+        arena.release(b);
+        assertEquals(b, arena.allocate());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void releaseTwice() {
+        FrameArena arena = new FrameArena(2, 64);
+        int a = arena.allocate();
+        arena.release(a);
+        arena.release(a);
+    }
+
+    /**
+     * Unit test for FrameArena.frame(): frames are separate, off the heap
+     */
+    @Test public void framesDoNotOverlap() {
+        FrameArena arena = new FrameArena(4, 64);
+        for (int i = 0; i < 4; ++i) {
+            ByteBuffer frame = arena.frame(i);
+            assertTrue(frame.isDirect());
+            assertEquals(64, frame.capacity());
+            for (int j = 0; j < 64; ++j)
+                frame.put(j, (byte) i);
+        }
+        for (int i = 0; i < 4; ++i) {
+            ByteBuffer frame = arena.frame(i);
+            assertEquals(i, frame.get(0));
+            assertEquals(i, frame.get(63));
+        }
+    }
+
+    /**
+     * Unit test for FrameArena.pin() and unpin()
+     */
+    @Test public void pinCounts() {
+        FrameArena arena = new FrameArena(1, 64);
+        int a = arena.allocate();
+        assertFalse(arena.isPinned(a));
+        arena.pin(a);
+        arena.pin(a);
+        arena.unpin(a);
+        assertTrue(arena.isPinned(a));
+        arena.unpin(a);
+        assertFalse(arena.isPinned(a));
+        try {
+            arena.unpin(a);
+            fail("unpinned a frame that was not pinned");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /** Insert n tuples in a transaction of their own, and commit it. */
+    private void insert(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): full pages are skipped without
+     * being locked
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        insert(504 * 3);
+        assertEquals(3, empty.numPages());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(3, t.getRecordId().getPageId().pageNumber());
+        for (int i = 0; i < 3; ++i)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), i)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile.deleteTuple(): freed space is used by the next insert
+     */
+    @Test public void deleteFreesSpace() throws Exception {
+        insert(504 * 2);
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 1), Permissions.READ_ONLY);
+        Tuple victim = page.iterator().next();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.open(): the map is persisted, and rebuilt
+     * when it is missing
+     */
+    @Test public void persisted() throws Exception {
+        insert(504 * 2 + 1);
+        // commit leaves the pages, and so their bits, to be written later
+        Database.getBufferPool().flushAllPages();
+        File mapFile = new File(empty.getFile().getPath() + FreeSpaceMap.SUFFIX);
+        assertTrue(mapFile.exists());
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        FreeSpaceMap fsm = FreeSpaceMap.open(reopened);
+        assertEquals(2, fsm.nextFree(0));
+
+        assertTrue(mapFile.delete());
+        fsm = FreeSpaceMap.open(reopened);
+        assertEquals(2, fsm.nextFree(0));
+        assertEquals(-1, fsm.nextFree(3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
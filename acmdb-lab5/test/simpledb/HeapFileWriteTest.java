@@ -43,6 +43,70 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() on a memory-mapped file: the
+     * mapping grows with the file and sees pages flushed by the BufferPool
+     */
+    @Test public void addTupleMapped() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        assertTrue(mapped.isMemoryMapped());
+
+        for (int i = 0; i < 1009; ++i)
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(3, mapped.numPages());
+        Database.getBufferPool().flushAllPages();
+
+        HeapPage last = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(503, last.getNumEmptySlots());
+        HeapPage first = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 0));
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(new IntField(0), first.iterator().next().getField(0));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped file: tuples
+     * read from a page keep their values when the page is written again
+     */
+    @Test public void mappedTuplesAreStable() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(24100, 2));
+        mapped.writePage(page);
+
+        Tuple t = ((HeapPage) mapped.readPage(pid)).iterator().next();
+        HeapPage rewritten = new HeapPage(pid, HeapPage.createEmptyPageData());
+        rewritten.insertTuple(Utility.getHeapTuple(777, 2));
+        mapped.writePage(rewritten);
+        assertEquals(24100, t.getInt(0));
+        assertEquals(777, ((HeapPage) mapped.readPage(pid)).iterator().next().getInt(0));
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): pages given out of order, with
+     * a gap, end up where they belong, growing the file
+     */
+    @Test public void writePages() throws Exception {
+        java.util.ArrayList<Page> pages = new java.util.ArrayList<Page>();
+        for (int pgNo : new int[] {3, 0, 1}) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+        assertEquals(4, empty.numPages());
+
+        for (int pgNo : new int[] {0, 1, 3}) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pgNo));
+            assertEquals(new IntField(pgNo), page.iterator().next().getField(0));
+        }
+        HeapPage gap = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 2));
+        assertFalse(gap.iterator().hasNext());
+    }
+
     /**
      * JUnit suite target
      */
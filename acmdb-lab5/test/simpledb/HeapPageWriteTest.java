@@ -1,5 +1,6 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,53 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after a tuple read from the page
+     * is moved to another slot
+     */
+    @Test public void moveTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        int value = ((IntField) first.getField(1)).getValue();
+
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+        page.insertTuple(first);
+        assertTrue(first.getRecordId().tupleno() != 0);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        boolean found = false;
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().tupleno() == first.getRecordId().tupleno()) {
+                assertEquals(value, ((IntField) t.getField(1)).getValue());
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the image keeps the contents
+     * the page had when it was set, and the bytes the page was built from
+     * are left alone
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        int empty = page.getNumEmptySlots();
+
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+        assertEquals(empty, page.getBeforeImage().getNumEmptySlots());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(-2, 2));
+        assertEquals(empty - 1, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(empty - 2, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
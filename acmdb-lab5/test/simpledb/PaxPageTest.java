@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * PaxPages, which keep the fields of their tuples grouped by column.
+ */
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD =
+            new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-3, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-3, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple row(int n) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField("row " + n, Type.STRING_LEN));
+        t.setField(2, new IntField(-n));
+        return t;
+    }
+
+    private static ArrayList<String> contents(Iterator<Tuple> it) {
+        ArrayList<String> rows = new ArrayList<String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getRecordId().tupleno() + ":" + t.getField(0) + ":"
+                    + t.getField(1) + ":" + t.getField(2));
+        }
+        return rows;
+    }
+
+    /**
+     * Unit test for PaxPage.fromRows(): a HeapPage laid out by column holds
+     * the same tuples in the same slots
+     */
+    @Test public void fromRows() throws Exception {
+        HeapPage heap = new HeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 20; ++i) {
+            Tuple t = row(i);
+            heap.insertTuple(t);
+            inserted.add(t);
+        }
+        heap.deleteTuple(inserted.get(3));
+        heap.deleteTuple(inserted.get(11));
+
+        PaxPage pax = new PaxPage(pid, PaxPage.fromRows(heap.getPageData(), TD));
+        assertEquals(heap.getNumEmptySlots(), pax.getNumEmptySlots());
+        assertFalse(pax.isSlotUsed(3));
+        assertEquals(contents(heap.iterator()), contents(pax.iterator()));
+    }
+
+    /**
+     * Unit test for PaxPage.iterator(int[]): only the given fields are
+     * decoded
+     */
+    @Test public void someColumns() throws Exception {
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData(BufferPool.getPageSize()));
+        for (int i = 0; i < 10; ++i)
+            page.insertTuple(row(i));
+        // the inserted tuples are kept with all their fields
+        page = new PaxPage(pid, page.getPageData());
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(new int[] {2}); it.hasNext(); ++n) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(-n), t.getField(2));
+            assertEquals(n, t.getRecordId().tupleno());
+        }
+        assertEquals(10, n);
+    }
+
+    /**
+     * Unit test for PaxPage.insertTuple(), deleteTuple() and getPageData()
+     */
+    @Test public void insertDeleteRoundTrip() throws Exception {
+        PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData(BufferPool.getPageSize()));
+        int slots = page.getNumEmptySlots();
+        // 4 + 132 + 4 bytes and a header bit a tuple, as on a HeapPage
+        assertEquals(BufferPool.getPageSize() * 8 / (140 * 8 + 1), slots);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < slots; ++i) {
+            Tuple t = row(i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        try {
+            page.insertTuple(row(slots));
+            fail("expected the page to be full");
+        } catch (DbException expected) {
+        }
+        page.setBeforeImage();
+        for (int i = 0; i < slots; i += 2)
+            page.deleteTuple(inserted.get(i));
+        assertEquals((slots + 1) / 2, page.getNumEmptySlots());
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        assertEquals(contents(page.iterator()), contents(copy.iterator()));
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        assertEquals(0, page.getBeforeImage().getNumEmptySlots());
+
+        for (int i = 1; i < slots; i += 2)
+            page.deleteTuple(inserted.get(i));
+        assertArrayEquals(PaxPage.createEmptyPageData(BufferPool.getPageSize()), page.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced page gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.CLOCK.create(3);
+        for (int i = 0; i < 3; ++i)
+            policy.admit(pid(i));
+        // the first sweep clears every bit, then page 0 is reached again
+        assertEquals(pid(0), policy.evict(pid -> true));
+
+        policy.admit(pid(3));
+        policy.access(pid(1));
+        // page 1 was referenced again, page 2 was not
+        assertEquals(pid(2), policy.evict(pid -> true));
+        assertEquals(2, policy.size());
+    }
+
+    /**
+     * Unit test for LRUKPolicy: pages touched once by a scan are replaced
+     * before pages that are being reused.
+     */
+    @Test public void lruKScanResistance() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU_K.create(4);
+        policy.admit(pid(0));
+        policy.admit(pid(1));
+        // a few other references in between so these are not correlated
+        policy.admit(pid(2));
+        policy.admit(pid(3));
+        policy.access(pid(0));
+        policy.access(pid(1));
+
+        // a scan streams through new pages; each is evicted in turn
+        for (int i = 4; i < 20; ++i) {
+            PageId victim = policy.evict(pid -> true);
+            assertEquals(i == 4 ? pid(2) : i == 5 ? pid(3) : pid(i - 2), victim);
+            policy.admit(pid(i));
+        }
+        policy.remove(pid(18));
+        policy.remove(pid(19));
+        assertEquals(pid(0), policy.evict(pid -> true));
+        assertEquals(pid(1), policy.evict(pid -> true));
+        assertNull(policy.evict(pid -> true));
+    }
+
+    /**
+     * Unit test for LRUKPolicy: back-to-back references count once.
+     */
+    @Test public void lruKCorrelatedReferences() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU_K.create(4);
+        policy.admit(pid(0));
+        policy.access(pid(0));
+        policy.admit(pid(1));
+        policy.admit(pid(2));
+        policy.admit(pid(3));
+        policy.access(pid(1));
+        // page 0 was only ever referenced in a single burst
+        assertEquals(pid(0), policy.evict(pid -> true));
+    }
+
+    /**
+     * Unit test for LRUKPolicy: reading a page ahead is not a reference.
+     */
+    @Test public void lruKPrefetchedPages() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.LRU_K.create(4);
+        policy.admit(pid(0));
+        policy.admitPrefetched(pid(1));
+        policy.admit(pid(2));
+        policy.admit(pid(3));
+        policy.access(pid(0));
+        // the scan uses the page read ahead once; it is still cold
+        policy.access(pid(1));
+        assertEquals(pid(1), policy.evict(pid -> true));
+        assertEquals(pid(2), policy.evict(pid -> true));
+    }
+
+    /**
+     * Unit test for both policies: pages that cannot be evicted are skipped.
+     */
+    @Test public void skipUnevictable() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(3);
+            for (int i = 0; i < 3; ++i)
+                policy.admit(pid(i));
+            assertEquals(pid(2), policy.evict(pid -> pid.pageNumber() == 2));
+            assertNull(policy.evict(pid -> false));
+            assertEquals(2, policy.size());
+        }
+    }
+
+    /**
+     * Unit test for both policies: pages are listed in the reverse of the
+     * order they would be evicted in.
+     */
+    @Test public void hottestFirst() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(4);
+            for (int i = 0; i < 4; ++i)
+                policy.admit(pid(i));
+            if (kind == ReplacementPolicy.Kind.CLOCK)
+                policy.evict(pid -> false);
+            policy.access(pid(1));
+            policy.access(pid(2));
+            List<PageId> order = policy.hottestFirst();
+            assertEquals(4, order.size());
+            for (int i = 3; i >= 0; --i)
+                assertEquals(order.get(i), policy.evict(pid -> true));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class SlotBitmapTest {
+
+    /**
+     * Unit test for SlotBitmap(ByteBuffer, int, int): bit i%8 of byte i/8
+     * is slot i, and bits past the last slot are ignored
+     */
+    @Test public void readsHeaderBytes() {
+        byte[] page = new byte[32];
+        page[2] = (byte) 0x81;   // slots 0 and 7
+        page[3] = (byte) 0x02;   // slot 9
+        page[10] = (byte) 0x40;  // slot 70
+        page[11] = (byte) 0xFF;  // slots 72..74, then past the end
+        SlotBitmap bits = new SlotBitmap(ByteBuffer.wrap(page), 2, 75);
+        assertEquals(75, bits.numSlots());
+        assertEquals(7, bits.numUsed());
+        assertEquals(68, bits.numFree());
+        for (int i : new int[] {0, 7, 9, 70, 72, 74})
+            assertTrue(bits.isUsed(i));
+        assertFalse(bits.isUsed(1));
+        assertFalse(bits.isUsed(71));
+        assertEquals((byte) 0x07, bits.getByte(9));
+    }
+
+    /**
+     * Unit test for SlotBitmap.set(): the count follows the bits
+     */
+    @Test public void setKeepsCount() {
+        SlotBitmap bits = new SlotBitmap(130);
+        bits.set(5, true);
+        bits.set(5, true);
+        bits.set(129, true);
+        assertEquals(2, bits.numUsed());
+        bits.set(5, false);
+        bits.set(6, false);
+        assertEquals(1, bits.numUsed());
+        assertEquals(129, bits.numFree());
+        bits.setAll();
+        assertEquals(130, bits.numUsed());
+        assertEquals(-1, bits.nextFree(0));
+    }
+
+    /**
+     * Unit test for SlotBitmap.nextFree(), nextUsed() and prevUsed() across
+     * word boundaries
+     */
+    @Test public void searches() {
+        SlotBitmap bits = new SlotBitmap(200);
+        for (int i = 0; i < 150; ++i)
+            bits.set(i, true);
+        bits.set(64, false);
+        assertEquals(64, bits.nextFree(0));
+        assertEquals(150, bits.nextFree(65));
+        assertEquals(-1, bits.nextFree(200));
+
+        assertEquals(63, bits.nextUsed(63));
+        assertEquals(65, bits.nextUsed(64));
+        assertEquals(-1, bits.nextUsed(150));
+        bits.set(199, true);
+        assertEquals(199, bits.nextUsed(150));
+
+        assertEquals(199, bits.prevUsed(500));
+        assertEquals(149, bits.prevUsed(198));
+        assertEquals(63, bits.prevUsed(64));
+        assertEquals(-1, bits.prevUsed(-1));
+
+        // the free slots past 199 do not exist
+        for (int i = 150; i < 199; ++i)
+            bits.set(i, true);
+        assertEquals(-1, bits.nextFree(65));
+    }
+
+    /**
+     * Unit test for SlotBitmap.write(): the header bytes read back the same
+     */
+    @Test public void writeRoundTrips() {
+        SlotBitmap bits = new SlotBitmap(100);
+        for (int i = 0; i < 100; i += 3)
+            bits.set(i, true);
+        byte[] header = new byte[13];
+        bits.write(header, 0, header.length);
+        SlotBitmap copy = new SlotBitmap(ByteBuffer.wrap(header), 0, 100);
+        assertEquals(bits.numUsed(), copy.numUsed());
+        for (int i = 0; i < 100; ++i)
+            assertEquals(bits.isUsed(i), copy.isUsed(i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotBitmapTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * HeapPages of tables with VARCHAR fields, which use the slotted format.
+ */
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD =
+            new TupleDesc(new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-2, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-2, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple row(int n, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<String> contents(HeapPage page) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            rows.add(((IntField) t.getField(0)).getValue() + ":" + t.getField(1));
+        }
+        return rows;
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() and hasRoomFor(): short strings
+     * take only the bytes they need
+     */
+    @Test public void insertPacksShortStrings() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        // 10 bytes for the smallest record and its entry
+        assertEquals((BufferPool.getPageSize() - 8) / 10, page.getNumEmptySlots());
+        int n = 0;
+        while (page.hasRoomFor(row(n, "abc")))
+            page.insertTuple(row(n++, "abc"));
+        // a 9 byte record and a 4 byte entry each, rather than 136 bytes
+        assertEquals((BufferPool.getPageSize() - 8) / 13, n);
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(row(n, "abc"));
+            fail("expected the page to be full");
+        } catch (DbException expected) {
+        }
+
+        ArrayList<String> rows = contents(page);
+        assertEquals(n, rows.size());
+        assertEquals("0:abc", rows.get(0));
+        assertEquals((n - 1) + ":abc", rows.get(n - 1));
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() on a slotted page
+     */
+    @Test public void pageDataRoundTrips() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(row(1, ""));
+        page.insertTuple(row(2, "hello"));
+        page.insertTuple(row(3, "a string somewhat longer than the others"));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(contents(page), contents(copy));
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple() and insertTuple(): the holes
+     * deleted records leave are closed up when an insert needs the room
+     */
+    @Test public void deleteThenCompact() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.hasRoomFor(row(i, "abc")); ++i)
+            page.insertTuple(row(i, "abc"));
+        // reading the page back leaves tuples backed by its bytes
+        page = new HeapPage(pid, page.getPageData());
+        ArrayList<Tuple> onPage = new ArrayList<Tuple>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            onPage.add(it.next());
+
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < onPage.size(); ++i) {
+            if (i % 2 == 0)
+                page.deleteTuple(onPage.get(i));
+            else
+                expected.add(i + ":abc");
+        }
+        // 9 bytes freed per delete, in holes; 16 needed per insert
+        int added = 0;
+        String longer = "abcdefghij";
+        while (page.hasRoomFor(row(1000 + added, longer))) {
+            page.insertTuple(row(1000 + added, longer));
+            expected.add((1000 + added) + ":" + longer);
+            ++added;
+        }
+        assertEquals((onPage.size() + 1) / 2 * 9 / 16, added);
+
+        // the tuples read before the records moved are unchanged
+        for (int i = 1; i < onPage.size(); i += 2)
+            assertEquals("abc", onPage.get(i).getField(1).toString());
+        assertEquals(sorted(expected), sorted(contents(page)));
+        assertEquals(expected, sorted(contents(new HeapPage(pid, page.getPageData()))));
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple(): deleting every record gives the
+     * whole page back
+     */
+    @Test public void deleteAll() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int empty = page.getNumEmptySlots();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 50; ++i) {
+            Tuple t = row(i, "value " + i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (Tuple t : inserted)
+            page.deleteTuple(t);
+        assertEquals(empty, page.getNumEmptySlots());
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    private static ArrayList<String> sorted(ArrayList<String> rows) {
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * TupleBatch, and the selection vector that Filter narrows.
+ */
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private static TupleBatch batchOf(int n, int capacity) {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), capacity);
+        for (int i = 0; i < n; ++i)
+            batch.add(Utility.getHeapTuple(new int[] {i, i % 3}));
+        return batch;
+    }
+
+    /**
+     * Unit test for TupleBatch.add(), isFull() and clear()
+     */
+    @Test public void addAndClear() {
+        TupleBatch batch = batchOf(4, 4);
+        assertTrue(batch.isFull());
+        assertEquals(4, batch.size());
+        assertEquals(2, batch.get(2).getInt(0));
+        try {
+            batch.add(Utility.getHeapTuple(new int[] {9, 9}));
+            fail("expected the batch to be full");
+        } catch (IllegalStateException expected) {
+        }
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertFalse(batch.isFull());
+    }
+
+    /**
+     * Unit test for TupleBatch.filter(): the selection narrows in place, and
+     * rows added later are selected
+     */
+    @Test public void filter() {
+        TupleBatch batch = batchOf(10, 16);
+        batch.filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(0)));
+        assertEquals(4, batch.size());
+        for (int i = 0; i < batch.size(); ++i)
+            assertEquals(3 * i, batch.get(i).getInt(0));
+        try {
+            batch.get(4);
+            fail("expected only the selected rows");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        batch.filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3)));
+        assertEquals(2, batch.size());
+        assertEquals(6, batch.get(0).getInt(0));
+        assertEquals(9, batch.get(1).getInt(0));
+
+        batch.add(Utility.getHeapTuple(new int[] {42, 1}));
+        assertEquals(3, batch.size());
+        assertEquals(42, batch.get(2).getInt(0));
+
+        batch.filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        assertTrue(batch.isEmpty());
+    }
+
+    /**
+     * Unit test for the default DbIterator.nextBatch(), which gathers tuples
+     * from next()
+     */
+    @Test public void defaultNextBatch() throws Exception {
+        java.util.ArrayList<Tuple> tuples = new java.util.ArrayList<Tuple>();
+        for (int i = 0; i < TupleBatch.DEFAULT_CAPACITY + 10; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+        it.open();
+        assertEquals(TupleBatch.DEFAULT_CAPACITY, it.nextBatch().size());
+        TupleBatch last = it.nextBatch();
+        assertEquals(10, last.size());
+        assertEquals(TupleBatch.DEFAULT_CAPACITY, last.get(0).getInt(0));
+        assertNull(it.nextBatch());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
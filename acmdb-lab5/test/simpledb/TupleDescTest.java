@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
 import org.junit.Test;
@@ -133,6 +134,31 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.isFixedSize(), getSize(Tuple) and
+     * getFieldOffset(int, ByteBuffer, int) with a VARCHAR field
+     */
+    @Test public void variableSize() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.VARCHAR_TYPE, Type.INT_TYPE});
+        assertFalse(td.isFixedSize());
+        assertTrue(Utility.getTupleDesc(3).isFixedSize());
+        assertEquals(Type.STRING_LEN + 2 + 4, td.getSize());
+        assertEquals(6, td.getMinSize());
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("hello", Type.STRING_LEN));
+        t.setField(1, new IntField(7));
+        assertEquals(11, td.getSize(t));
+
+        ByteBuffer buf = ByteBuffer.allocate(20);
+        Type.VARCHAR_TYPE.serialize(t.getField(0), buf, 3);
+        Type.INT_TYPE.serialize(t.getField(1), buf, 10);
+        assertEquals(7, td.getFieldOffset(1, buf, 3));
+        Tuple read = new Tuple(td, buf, 3);
+        assertEquals(new IntField(7), read.getField(1));
+        assertEquals("hello", read.getField(0).toString());
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +58,81 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.getInt() and Tuple.getString(), on set fields and
+     * on fields still in the bytes the tuple was read from
+     */
+    @Test public void typedAccessors() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        Tuple tup = new Tuple(td);
+        tup.setField(0, new StringField("abc", Type.STRING_LEN));
+        tup.setField(1, new IntField(-7));
+        assertEquals("abc", tup.getString(0));
+        assertEquals(-7, tup.getInt(1));
+
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate(4 + td.getSize());
+        Type.STRING_TYPE.serialize(new StringField("xyz", Type.STRING_LEN), bytes, 4);
+        Type.INT_TYPE.serialize(new IntField(42), bytes, 4 + Type.STRING_TYPE.getLen());
+        Tuple backed = new Tuple(td, bytes, 4);
+        assertEquals(42, backed.getInt(1));
+        assertEquals("xyz", backed.getString(0));
+        assertEquals(new IntField(42), backed.getField(1));
+        try {
+            backed.getInt(0);
+            fail("expected a string field not to be read as an int");
+        } catch (ClassCastException expected) {
+        }
+        try {
+            backed.getString(1);
+            fail("expected an int field not to be read as a string");
+        } catch (ClassCastException expected) {
+        }
+    }
+
+    /**
+     * Unit test for Tuple(TupleDesc, Tuple, Tuple), a view of two joined
+     * tuples, and for setField() decoupling it from them
+     */
+    @Test public void joinedView() {
+        Tuple left = Utility.getHeapTuple(new int[] {1, 2});
+        Tuple right = Utility.getHeapTuple(new int[] {3, 4, 5});
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        // a view of another view and a third tuple, as a chain of joins makes
+        Tuple view = new Tuple(TupleDesc.merge(td, Utility.getTupleDesc(1)),
+                new Tuple(td, left, right), Utility.getHeapTuple(6));
+        for (int i = 0; i < 6; ++i) {
+            assertEquals(new IntField(i + 1), view.getField(i));
+            assertEquals(i + 1, view.getInt(i));
+            assertEquals(i + 1, view.hashField(i));
+        }
+        assertEquals("1\t2\t3\t4\t5\t6\t", view.toString());
+
+        view = new Tuple(td, left, right);
+        view.setField(3, new IntField(-4));
+        assertEquals(new IntField(-4), view.getField(3));
+        assertEquals(new IntField(4), right.getField(1));
+        assertEquals(new IntField(5), view.getField(4));
+    }
+
+    /**
+     * Unit test for Tuple(TupleDesc, Tuple, int[]), a projection of a tuple,
+     * and for setField() decoupling it from it
+     */
+    @Test public void projectedView() {
+        Tuple base = Utility.getHeapTuple(new int[] {1, 2, 3});
+        Tuple view = new Tuple(Utility.getTupleDesc(2), base, new int[] {2, 0});
+        assertEquals(new IntField(3), view.getField(0));
+        assertEquals(1, view.getInt(1));
+        assertEquals(3, view.hashField(0));
+        assertEquals("3\t1\t", view.toString());
+
+        view = new Tuple(Utility.getTupleDesc(2), base, new int[] {2, 0});
+        view.setField(0, new IntField(-3));
+        assertEquals(new IntField(-3), view.getField(0));
+        assertEquals(new IntField(3), base.getField(2));
+        assertEquals(new IntField(1), view.getField(1));
+    }
+
     /**
      * JUnit suite target
      */
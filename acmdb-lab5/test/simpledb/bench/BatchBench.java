@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares reading a plan a tuple at a time through next() with reading it
+ * a batch at a time through nextBatch(), for SUM of one field over the
+ * rows a filter keeps, and for the same query run by Aggregate.
+ * <p>
+ * Run with <code>ant runbench -Dbench=BatchBench [-Dargs="rows passes"]</code>.
+ * The filter keeps about half the rows; the pool holds the whole table, so
+ * the time goes to the operators rather than to the file.
+ */
+public class BatchBench {
+
+    private static final int COLUMNS = 8;
+    private static final int MAX_VALUE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                MAX_VALUE, null, null);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(hf, "bench");
+        Database.resetBufferPool(hf.numPages() + 64);
+        System.out.println(rows + " rows, " + hf.numPages() + " pages");
+
+        String[] modes = {"tuples", "batches", "aggregate"};
+        // first round warms up the JIT and loads the pool
+        for (int round = 0; round < 2; ++round) {
+            for (String mode : modes) {
+                long sum = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < passes; ++i)
+                    sum = run(hf, mode);
+                double secs = (System.nanoTime() - start) / 1e9;
+                if (round > 0)
+                    System.out.printf("%-9s %8.1f ms/pass %12.0f tuples/s  (sum %d)%n",
+                            mode, secs * 1000 / passes, (double) rows * passes / secs, sum);
+            }
+        }
+    }
+
+    /** SELECT SUM(f7) FROM bench WHERE f3 < MAX_VALUE / 2 */
+    private static long run(HeapFile hf, String mode) throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(3, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        DbIterator plan = new Filter(p, new SeqScan(tid, hf.getId()));
+        long sum = 0;
+        if (mode.equals("aggregate")) {
+            plan = new Aggregate(plan, 7, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            plan.open();
+            sum = plan.next().getInt(0);
+        } else if (mode.equals("batches")) {
+            plan.open();
+            TupleBatch batch;
+            while ((batch = plan.nextBatch()) != null) {
+                for (int i = 0; i < batch.size(); ++i)
+                    sum += batch.get(i).getInt(7);
+            }
+        } else {
+            plan.open();
+            while (plan.hasNext())
+                sum += plan.next().getInt(7);
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures commit throughput and latency of small insert transactions
+ * running in several threads at once, with commits under FORCE and under
+ * NO FORCE.
+ * <p>
+ * Run with <code>ant runbench -Dbench=CommitBench [-Dargs="threads commits tuples"]</code>.
+ * Each thread inserts into a table of its own, so the transactions never
+ * wait for each other's locks; each commits the given number of
+ * transactions of the given number of tuples.  Latency is the time spent
+ * in Transaction.commit.
+ */
+public class CommitBench {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int tuples = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        System.out.println(threads + " threads, " + commits + " commits each, "
+                + tuples + " tuples per commit");
+
+        // first round warms up the JIT
+        for (int round = 0; round < 2; ++round) {
+            for (boolean force : new boolean[] {true, false}) {
+                long[] latencies = run(force, threads, round == 0 ? commits / 4 : commits, tuples);
+                if (round == 0)
+                    continue;
+                long total = latencies[latencies.length - 1];
+                long[] sorted = Arrays.copyOf(latencies, latencies.length - 1);
+                Arrays.sort(sorted);
+                System.out.printf("%-9s %8.0f commits/s  p50 %6.2f ms  p99 %6.2f ms%n",
+                        force ? "force" : "no-force", sorted.length / (total / 1e9),
+                        sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 99 / 100] / 1e6);
+            }
+        }
+    }
+
+    /**
+     * @return the latency of every commit, followed by the elapsed time of
+     *   the whole run, in nanoseconds
+     */
+    private static long[] run(boolean force, int threads, final int commits, final int tuples)
+            throws Exception {
+        Database.reset();
+        Database.getBufferPool().setForce(force);
+        final ArrayList<HeapFile> files = new ArrayList<HeapFile>();
+        for (int i = 0; i < threads; ++i)
+            files.add(SystemTestUtil.createRandomHeapFile(2, 0, null, null));
+
+        final long[] latencies = new long[threads * commits + 1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            final int n = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        HeapFile f = files.get(n);
+                        for (int c = 0; c < commits; ++c) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            for (int j = 0; j < tuples; ++j)
+                                Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+                                        Utility.getHeapTuple(j, 2));
+                            long start = System.nanoTime();
+                            t.commit();
+                            latencies[n * commits + c] = System.nanoTime() - start;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        latencies[latencies.length - 1] = System.nanoTime() - start;
+        return latencies;
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures a selective filter over a full table scan, the case where most
+ * tuples are read off a page only to be thrown away by the predicate.
+ * <p>
+ * Run with <code>ant runbench -Dbench=FilterScanBench [-Dargs="rows passes"]</code>.
+ * The predicate keeps about 1% of the rows and looks at one of the
+ * table's fields; the pool holds the whole table, so the scan never
+ * touches the file after the first pass.
+ */
+public class FilterScanBench {
+
+    private static final int COLUMNS = 8;
+    private static final int MAX_VALUE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                MAX_VALUE, null, null);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(hf, "bench");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.out.println(rows + " rows, " + hf.numPages() + " pages");
+
+        Predicate p = new Predicate(3, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 100));
+        // first round warms up the JIT and loads the pool
+        for (int round = 0; round < 2; ++round) {
+            long matched = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < passes; ++i) {
+                TransactionId tid = new TransactionId();
+                Filter filter = new Filter(p, new SeqScan(tid, hf.getId()));
+                filter.open();
+                while (filter.hasNext()) {
+                    filter.next();
+                    ++matched;
+                }
+                filter.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            if (round > 0)
+                System.out.printf("filter   %8.1f ms/pass %12.0f tuples/s  (%d matched)%n",
+                        secs * 1000 / passes, (double) rows * passes / secs, matched / passes);
+        }
+    }
+}
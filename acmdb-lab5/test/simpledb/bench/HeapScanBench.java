@@ -0,0 +1,61 @@
+package simpledb.bench;
+
+import java.io.File;
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares full-scan throughput of a HeapFile read through its file channel
+ * with the same file read through a memory mapping.
+ * <p>
+ * Run with <code>ant runbench -Dbench=HeapScanBench [-Dargs="rows passes"]</code>.
+ * Both modes scan the same file, which stays in the OS page cache, so the
+ * difference is the cost of getting a page's bytes into a HeapPage.
+ */
+public class HeapScanBench {
+
+    private static final int COLUMNS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                1 << 16, null, null);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        System.out.println(rows + " rows, " + (f.length() / BufferPool.getPageSize()) + " pages");
+
+        // one warm-up round for the JIT and the page cache
+        for (int round = 0; round < 2; ++round) {
+            boolean report = round > 0;
+            scan("channel", new HeapFile(f, td, false), passes, report);
+            scan("mmap", new HeapFile(f, td, true), passes, report);
+        }
+    }
+
+    private static void scan(String name, HeapFile hf, int passes, boolean report)
+            throws Exception {
+        Database.reset();
+        Database.getCatalog().addTable(hf, "bench");
+        long tuples = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; ++i) {
+            // a cold pool each pass, so every page is read from the file
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId());
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+                ++tuples;
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        if (report)
+            System.out.printf("%-8s %8.1f ms/pass %12.0f tuples/s %10.0f pages/s%n", name,
+                    secs * 1000 / passes, tuples / secs,
+                    (double) hf.numPages() * passes / secs);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures a 4-way equi-join, a left-deep chain of HashEquiJoins over four
+ * tables, summing one field of the last table over the joined rows.
+ * <p>
+ * Run with <code>ant runbench -Dbench=JoinBench [-Dargs="rows passes"]</code>.
+ * Each table holds the given number of rows of random values below that
+ * number, so each join matches about one row of its right input for each
+ * row of its left; the pool holds all four tables.
+ */
+public class JoinBench {
+
+    private static final int COLUMNS = 4;
+    private static final int TABLES = 4;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        HeapFile[] tables = new HeapFile[TABLES];
+        int pages = 0;
+        for (int i = 0; i < TABLES; ++i) {
+            File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows, rows,
+                    null, null);
+            tables[i] = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+            Database.getCatalog().addTable(tables[i], "t" + i);
+            pages += tables[i].numPages();
+        }
+        Database.resetBufferPool(pages + 64);
+        System.out.println(TABLES + " tables of " + rows + " rows, " + pages + " pages");
+
+        // first round warms up the JIT and loads the pool
+        for (int round = 0; round < 2; ++round) {
+            long matched = 0;
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < passes; ++i) {
+                TransactionId tid = new TransactionId();
+                DbIterator plan = new SeqScan(tid, tables[0].getId());
+                for (int t = 1; t < TABLES; ++t) {
+                    // field 1 of the last table joined to field 0 of the next
+                    JoinPredicate p = new JoinPredicate((t - 1) * COLUMNS + 1,
+                            Predicate.Op.EQUALS, 0);
+                    plan = new HashEquiJoin(p, plan, new SeqScan(tid, tables[t].getId()));
+                }
+                int last = (TABLES - 1) * COLUMNS + 2;
+                plan.open();
+                while (plan.hasNext()) {
+                    sum += plan.next().getInt(last);
+                    ++matched;
+                }
+                plan.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            if (round > 0)
+                System.out.printf("join     %8.1f ms/pass %12.0f rows/s  (%d joined, sum %d)%n",
+                        secs * 1000 / passes, (double) matched / secs, matched / passes,
+                        sum / passes);
+        }
+    }
+}
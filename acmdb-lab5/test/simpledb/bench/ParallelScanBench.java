@@ -0,0 +1,72 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares a full-table aggregate over a SeqScan with the same aggregate
+ * over a ParallelSeqScan with more and more workers.
+ * <p>
+ * Run with <code>ant runbench -Dbench=ParallelScanBench [-Dargs="rows passes"]</code>.
+ * The query is SUM of one field over every row.  It runs once with a pool
+ * that holds the table and once with the default pool, so that every
+ * pass reads the file again.  Workers only help up to the number of
+ * processors, printed first.
+ */
+public class ParallelScanBench {
+
+    private static final int COLUMNS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                1 << 16, null, null);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(hf, "bench");
+        int cpus = Runtime.getRuntime().availableProcessors();
+        System.out.println(rows + " rows, " + hf.numPages() + " pages, " + cpus + " processors");
+
+        System.out.println("pool holds the table:");
+        Database.resetBufferPool(hf.numPages() + 64);
+        measure(hf, rows, passes, cpus);
+        System.out.println("pool of " + BufferPool.DEFAULT_PAGES + " pages:");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        measure(hf, rows, passes, cpus);
+    }
+
+    private static void measure(HeapFile hf, int rows, int passes, int cpus)
+            throws Exception {
+        int[] workers = {0, 1, 2, 4, Math.max(8, cpus)};
+        // first round warms up the JIT and loads the pool
+        for (int round = 0; round < 2; ++round) {
+            for (int w : workers) {
+                long sum = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < passes; ++i)
+                    sum = run(hf, w);
+                double secs = (System.nanoTime() - start) / 1e9;
+                if (round > 0)
+                    System.out.printf("  %-12s %8.1f ms/pass %12.0f tuples/s  (sum %d)%n",
+                            w == 0 ? "SeqScan" : w + " workers", secs * 1000 / passes,
+                            (double) rows * passes / secs, sum);
+            }
+        }
+    }
+
+    /** SELECT SUM(f5) FROM bench, with a SeqScan if workers is 0 */
+    private static long run(HeapFile hf, int workers) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator scan = workers == 0 ? new SeqScan(tid, hf.getId())
+                : new ParallelSeqScan(tid, hf.getId(), "bench", workers);
+        Aggregate agg = new Aggregate(scan, 5, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        long sum = agg.next().getInt(0);
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the row layout of HeapFile with the column layout of PaxFile for
+ * an analytical query over a wide table: SUM of one field over the rows a
+ * filter on another field keeps.
+ * <p>
+ * Run with <code>ant runbench -Dbench=PaxBench [-Dargs="rows passes"]</code>.
+ * Both tables hold the same rows.  The query runs once with a pool that
+ * holds both tables, so pages and the tuples decoded from them stay
+ * resident, and once with the default pool, so every pass reads and
+ * decodes the pages again.  Each scan is told the two fields the query
+ * uses; the HeapFile decodes fields lazily as they are asked for, the
+ * PaxFile decodes only their minipages.
+ */
+public class PaxBench {
+
+    private static final int COLUMNS = 16;
+    private static final int MAX_VALUE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File rowFile = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows,
+                MAX_VALUE, null, tuples);
+        File paxFile = File.createTempFile("table", ".dat");
+        paxFile.deleteOnExit();
+        HeapFileEncoder.convertPax(tuples, paxFile, BufferPool.getPageSize(), COLUMNS);
+        tuples = null;
+
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile heap = new HeapFile(rowFile, td);
+        PaxFile pax = new PaxFile(paxFile, td);
+        Database.getCatalog().addTable(heap, "heap");
+        Database.getCatalog().addTable(pax, "pax");
+        System.out.println(rows + " rows of " + COLUMNS + " fields, " + heap.numPages()
+                + " pages each");
+
+        System.out.println("pool holds both tables:");
+        Database.resetBufferPool(heap.numPages() + pax.numPages() + 64);
+        measure(heap, pax, rows, passes);
+        System.out.println("pool of " + BufferPool.DEFAULT_PAGES + " pages:");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        measure(heap, pax, rows, passes);
+    }
+
+    private static void measure(HeapFile heap, PaxFile pax, int rows, int passes)
+            throws Exception {
+        // first round warms up the JIT and loads the pool
+        for (int round = 0; round < 2; ++round) {
+            for (DbFile f : new DbFile[] {heap, pax}) {
+                long sum = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < passes; ++i)
+                    sum = run(f);
+                double secs = (System.nanoTime() - start) / 1e9;
+                if (round > 0)
+                    System.out.printf("  %-6s %8.1f ms/pass %12.0f tuples/s  (sum %d)%n",
+                            f == heap ? "heap" : "pax", secs * 1000 / passes,
+                            (double) rows * passes / secs, sum);
+            }
+        }
+    }
+
+    /** SELECT SUM(f7) FROM f WHERE f3 < MAX_VALUE / 2 */
+    private static long run(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.setNeededColumns(new int[] {3, 7});
+        Predicate p = new Predicate(3, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        Aggregate agg = new Aggregate(new Filter(p, scan), 7, Aggregator.NO_GROUPING,
+                Aggregator.Op.SUM);
+        agg.open();
+        long sum = ((IntField) agg.next().getField(0)).getValue();
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
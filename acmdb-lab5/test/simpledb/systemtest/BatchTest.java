@@ -0,0 +1,174 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Plans read a batch at a time through nextBatch() return the same tuples,
+ * in the same order, as when read a tuple at a time.
+ */
+public class BatchTest extends SimpleDbTestBase {
+
+    /** Builds a new plan over the tables of a test. */
+    private interface Plan {
+        DbIterator create(TransactionId tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> drain(DbIterator it, boolean batched)
+            throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        if (batched) {
+            TupleBatch batch;
+            while ((batch = it.nextBatch()) != null) {
+                assertFalse(batch.isEmpty());
+                assertTrue(batch.size() <= TupleBatch.DEFAULT_CAPACITY);
+                for (int i = 0; i < batch.size(); ++i)
+                    rows.add(SystemTestUtil.tupleToList(batch.get(i)));
+            }
+        } else {
+            while (it.hasNext())
+                rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Check that plan gives the same rows both ways, and through a
+     * BatchIterator, and return them.
+     */
+    private static ArrayList<ArrayList<Integer>> check(Plan plan) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = drain(plan.create(tid), false);
+        assertEquals(expected, drain(plan.create(tid), true));
+        assertEquals(expected, drain(new BatchIterator(plan.create(tid)), false));
+        Database.getBufferPool().transactionComplete(tid);
+        return expected;
+    }
+
+    @Test public void scanFilterProject() throws Exception {
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        ArrayList<ArrayList<Integer>> rows = check(new Plan() {
+            public DbIterator create(TransactionId tid) {
+                return new SeqScan(tid, table.getId());
+            }
+        });
+        assertEquals(5000, rows.size());
+
+        rows = check(new Plan() {
+            public DbIterator create(TransactionId tid) {
+                Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+                ArrayList<Integer> fields = new ArrayList<Integer>();
+                fields.add(2);
+                fields.add(1);
+                return new Project(fields, new Type[] {Type.INT_TYPE, Type.INT_TYPE},
+                        new Filter(p, new Filter(p, new SeqScan(tid, table.getId()))));
+            }
+        });
+        assertTrue(rows.size() > 0 && rows.size() < 5000);
+        for (ArrayList<Integer> row : rows)
+            assertTrue(row.get(1) < 100);
+    }
+
+    @Test public void hashJoin() throws Exception {
+        // more distinct keys on the left than one build of the map holds,
+        // and about one match for each row on the right
+        ArrayList<ArrayList<Integer>> leftTuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> rightTuples = new ArrayList<ArrayList<Integer>>();
+        final HeapFile left = SystemTestUtil.createRandomHeapFile(2, 20000, 20000, null,
+                leftTuples);
+        final HeapFile right = SystemTestUtil.createRandomHeapFile(2, 3000, 2000, null,
+                rightTuples);
+        ArrayList<ArrayList<Integer>> rows = check(new Plan() {
+            public DbIterator create(TransactionId tid) {
+                return new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+            }
+        });
+        int[] leftKeys = new int[2000];
+        for (ArrayList<Integer> t : leftTuples) {
+            if (t.get(1) < leftKeys.length)
+                leftKeys[t.get(1)]++;
+        }
+        int matches = 0;
+        for (ArrayList<Integer> t : rightTuples)
+            matches += leftKeys[t.get(0)];
+        assertEquals(matches, rows.size());
+        assertTrue(rows.size() > TupleBatch.DEFAULT_CAPACITY);
+
+        // a probe side that reads ahead loses nothing if it is read one way
+        assertEquals(rows, check(new Plan() {
+            public DbIterator create(TransactionId tid) {
+                return new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, left.getId()),
+                        new BatchIterator(new SeqScan(tid, right.getId())));
+            }
+        }));
+
+        // operators not open refuse nextBatch(), even over open children
+        TransactionId tid = new TransactionId();
+        DbIterator scan1 = new SeqScan(tid, left.getId());
+        DbIterator scan2 = new SeqScan(tid, right.getId());
+        scan1.open();
+        scan2.open();
+        DbIterator[] unopened = {
+                new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0), scan1, scan2),
+                new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)), scan2)};
+        for (DbIterator it : unopened) {
+            try {
+                it.nextBatch();
+                fail("expected an unopened " + it.getClass().getSimpleName()
+                        + " to refuse nextBatch()");
+            } catch (IllegalStateException expected) {
+            }
+        }
+        scan1.close();
+        scan2.close();
+        Database.getBufferPool().transactionComplete(tid);
+        for (ArrayList<Integer> row : rows)
+            assertEquals(row.get(1), row.get(2));
+    }
+
+    @Test public void aggregateAndOrderBy() throws Exception {
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 50, null,
+                new ArrayList<ArrayList<Integer>>());
+        ArrayList<ArrayList<Integer>> rows = check(new Plan() {
+            public DbIterator create(TransactionId tid) {
+                return new Aggregate(new SeqScan(tid, table.getId()), 1, 0,
+                        Aggregator.Op.SUM);
+            }
+        });
+        assertEquals(50, rows.size());
+
+        // the aggregate is computed by open(); before that there is nothing
+        Aggregate unopened = new Aggregate(new SeqScan(new TransactionId(), table.getId()),
+                1, 0, Aggregator.Op.SUM);
+        try {
+            unopened.nextBatch();
+            fail("expected an unopened Aggregate to refuse nextBatch()");
+        } catch (IllegalStateException expected) {
+        }
+
+        rows = check(new Plan() {
+            public DbIterator create(TransactionId tid) {
+                return new OrderBy(1, false, new SeqScan(tid, table.getId()));
+            }
+        });
+        assertEquals(5000, rows.size());
+        for (int i = 1; i < rows.size(); ++i)
+            assertTrue(rows.get(i - 1).get(1) >= rows.get(i).get(1));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -0,0 +1,28 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+
+import simpledb.*;
+
+/**
+ * A HeapFile that counts the pages read from its file, for tests of what
+ * the BufferPool reads and when.
+ */
+public class InstrumentedHeapFile extends HeapFile {
+    public int readCount = 0;
+
+    public InstrumentedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    public InstrumentedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    public Page readPage(PageId pid) throws NoSuchElementException {
+        readCount += 1;
+        return super.readPage(pid);
+    }
+}
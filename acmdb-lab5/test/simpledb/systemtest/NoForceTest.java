@@ -0,0 +1,145 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Exercises NO FORCE commits, turned on with setForce(false): committed
+ * pages are written lazily, and a restart that finds them unwritten
+ * recovers them from the log.
+ */
+public class NoForceTest extends SimpleDbTestBase {
+
+    private static final int PER_PAGE = 504;
+
+    private static void insert(Transaction t, DbFile f, int from, int n,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        for (int i = from; i < from + n; ++i) {
+            Tuple tup = Utility.getHeapTuple(new int[] {i, -i});
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            if (tuples != null)
+                tuples.add(SystemTestUtil.tupleToList(tup));
+        }
+    }
+
+    /** @return the number of tuples on the page as it is on disk */
+    private static int tuplesOnDisk(HeapFile f, int pageNo) {
+        HeapPage p = (HeapPage) f.readPage(new HeapPageId(f.getId(), pageNo));
+        int n = 0;
+        for (java.util.Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next())
+            ++n;
+        return n;
+    }
+
+    /** Forget everything in memory, as a crash would, and recover. */
+    private static HeapFile restart(HeapFile f) throws Exception {
+        Database.reset();
+        HeapFile reopened = new HeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+        return reopened;
+    }
+
+    @Before public void noForce() {
+        Database.getBufferPool().setForce(false);
+    }
+
+    @Test public void commitLeavesPagesInPool() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, f, 0, 10, null);
+        t.commit();
+
+        assertEquals(0, tuplesOnDisk(f, 0));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(10, tuplesOnDisk(f, 0));
+    }
+
+    @Test public void recoverRedoesCommitted() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PER_PAGE, null, tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, f, 0, 2 * PER_PAGE, tuples);
+        t.commit();
+
+        f = restart(f);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void recoverUndoesUnfinished() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PER_PAGE, null, tuples);
+        BufferPool pool = Database.resetBufferPool(4);
+        pool.setSteal(true);
+        pool.setForce(false);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, f, 0, PER_PAGE, tuples);
+        t1.commit();
+
+        // more pages than the pool holds, so some are written uncommitted
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, f, PER_PAGE, 6 * PER_PAGE, null);
+
+        f = restart(f);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void concurrentCommits() throws Exception {
+        final int threads = 8;
+        final int commits = 20;
+        final ArrayList<ArrayList<ArrayList<Integer>>> expected =
+                new ArrayList<ArrayList<ArrayList<Integer>>>();
+        final ArrayList<HeapFile> files = new ArrayList<HeapFile>();
+        for (int i = 0; i < threads; ++i) {
+            expected.add(new ArrayList<ArrayList<Integer>>());
+            files.add(SystemTestUtil.createRandomHeapFile(2, 0, null, null));
+        }
+
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            final int n = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int c = 0; c < commits; ++c) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            insert(t, files.get(n), c * 10, 10, expected.get(n));
+                            t.commit();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        assertEquals(new ArrayList<Throwable>(), errors);
+
+        for (int i = 0; i < threads; ++i)
+            SystemTestUtil.matchTuples(files.get(i), expected.get(i));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NoForceTest.class);
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Exercises a BufferPool that keeps pages in off-heap frames: scans that
+ * evict and reuse frames must see every tuple, tuples must stay valid after
+ * the frame they were read from is reused, and aborted changes made in a
+ * frame must be undone.
+ */
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private static BufferPool offHeapPool(int pages) {
+        return Database.resetBufferPool(new BufferPool(pages, BufferPool.DEFAULT_POLICY, 1, true));
+    }
+
+    @Test public void scanReusesFrames() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        BufferPool pool = offHeapPool(4);
+        assertEquals(4, pool.getFrameArena().numFrames());
+        // read every page through the replacement policy
+        pool.setScanRingFraction(Double.MAX_VALUE);
+        pool.setPrefetchDepth(0);
+
+        // hold on to tuples from every page while their frames are reused
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> kept = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            kept.add(t);
+            seen.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getFrameArena().numFree());
+
+        for (int i = 0; i < kept.size(); ++i)
+            assertEquals(seen.get(i), SystemTestUtil.tupleToList(kept.get(i)));
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void abortUndoesFrameChanges() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        offHeapPool(4);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(f, t));
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
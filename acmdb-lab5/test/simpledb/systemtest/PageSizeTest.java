@@ -0,0 +1,111 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Tables with pages of their own size, sharing a pool that is budgeted in
+ * bytes.
+ */
+public class PageSizeTest extends SimpleDbTestBase {
+
+    /** @return a new two-column table with pages of the given size */
+    private static InstrumentedHeapFile createTable(int pageSize, int rows,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        if (tuples == null)
+            tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2), pageSize);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static void touch(TransactionId tid, DbFile f, int... pageNos) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        for (int pageNo : pageNos) {
+            PageId pid = new HeapPageId(f.getId(), pageNo);
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid);
+        }
+    }
+
+    @Test public void largePages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // 32 KB pages of 8-byte tuples hold 4032 each
+        HeapFile table = createTable(32768, 10000, tuples);
+        assertEquals(3, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 3000; ++i) {
+            Tuple tup = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), tup);
+            tuples.add(SystemTestUtil.tupleToList(tup));
+        }
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(4, table.numPages());
+
+        Database.reset();
+        HeapFile reopened = new HeapFile(table.getFile(), table.getTupleDesc(), 32768);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    @Test public void poolBudgetsBytes() throws Exception {
+        InstrumentedHeapFile big = createTable(16384, 8000, null);
+        InstrumentedHeapFile small = createTable(4096, 4000, null);
+        // 32 KB: two big pages, or one and four small ones
+        BufferPool pool = Database.resetBufferPool(new BufferPool(8, BufferPool.DEFAULT_POLICY, 1));
+        assertEquals(8 * BufferPool.getPageSize(), pool.getCapacityBytes());
+
+        TransactionId tid = new TransactionId();
+        touch(tid, big, 0, 1);
+        // the first small page needs the room of the first big one
+        touch(tid, small, 0, 1, 2, 3);
+        assertEquals(2, big.readCount);
+        assertEquals(4, small.readCount);
+        touch(tid, big, 1);
+        touch(tid, small, 0, 1, 2, 3);
+        assertEquals(2, big.readCount);
+        assertEquals(4, small.readCount);
+        touch(tid, big, 0);
+        assertEquals(3, big.readCount);
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void ofBytes() throws Exception {
+        BufferPool pool = BufferPool.ofBytes(100000, BufferPool.DEFAULT_POLICY, 2, true);
+        assertEquals(100000, pool.getCapacityBytes());
+        assertEquals(100000 / BufferPool.getPageSize(), pool.getFrameArena().numFrames());
+        Database.resetBufferPool(pool);
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile large = createTable(16384, 5000, tuples);
+        SystemTestUtil.matchTuples(large, tuples);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile normal = createTable(BufferPool.getPageSize(), 5000, tuples);
+        SystemTestUtil.matchTuples(normal, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Tables read by several threads at once through ParallelSeqScan.
+ */
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+    /** A table of several morsels, the last of them short. */
+    private static HeapFile createTable(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 30000, null, tuples);
+        assertTrue(table.numPages() > 3 * ParallelSeqScan.MORSEL_PAGES);
+        assertTrue(table.numPages() % ParallelSeqScan.MORSEL_PAGES != 0);
+        return table;
+    }
+
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(tuples);
+        for (int workers : new int[] {1, 3, 8}) {
+            TransactionId tid = new TransactionId();
+            ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", workers);
+            assertTrue(scan.getTupleDesc().getFieldName(0).startsWith("t."));
+            SystemTestUtil.matchTuples(scan, tuples);
+            // the pages are locked for the transaction, and no longer pinned
+            for (int i = 0; i < table.numPages(); ++i) {
+                HeapPageId pid = new HeapPageId(table.getId(), i);
+                assertTrue(Database.getBufferPool().holdsLock(tid, pid));
+                assertFalse(Database.getBufferPool().isPinned(pid));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void rewindAndBatches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(tuples);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        for (int i = 0; i < 100; ++i)
+            scan.next();
+        scan.rewind();
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null)
+            n += batch.size();
+        assertEquals(tuples.size(), n);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void closeEarly() throws Exception {
+        HeapFile table = createTable(new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.close();
+        for (int i = 0; i < table.numPages(); ++i)
+            assertFalse(Database.getBufferPool().isPinned(new HeapPageId(table.getId(), i)));
+        try {
+            scan.hasNext();
+            fail("expected a closed scan to refuse hasNext()");
+        } catch (IllegalStateException expected) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void aggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = createTable(tuples);
+        int expected = 0;
+        for (ArrayList<Integer> tuple : tuples)
+            expected += tuple.get(2);
+        TransactionId tid = new TransactionId();
+        Aggregate sum = new Aggregate(new ParallelSeqScan(tid, table.getId(), "t", 4), 2,
+                Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        assertEquals(expected, sum.next().getInt(0));
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Tables stored in PaxFiles, and scans that only decode some of their
+ * columns.
+ */
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 6;
+
+    /** @return a new PaxFile holding the given number of random rows */
+    private static PaxFile createTable(int rows, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        Random r = new Random();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; ++j)
+                tuple.add(r.nextInt(1000));
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertPax(tuples, f, BufferPool.getPageSize(), COLUMNS);
+        PaxFile table = new PaxFile(f, Utility.getTupleDesc(COLUMNS, "c"));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createTable(5000, tuples);
+        // 24-byte tuples, as many to a page as on a HeapPage
+        assertEquals((5000 + 168) / 169, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void scanSomeColumns() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createTable(1000, tuples);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid, new int[] {1, 4});
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            ArrayList<Integer> expected = tuples.get(n++);
+            assertNull(t.getField(0));
+            assertEquals(new IntField(expected.get(1)), t.getField(1));
+            assertEquals(new IntField(expected.get(4)), t.getField(4));
+            assertNull(t.getField(5));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1000, n);
+    }
+
+    @Test public void insertAndDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createTable(1000, tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() % 2 == 0)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims) {
+            tuples.remove(SystemTestUtil.tupleToList(tup));
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        }
+        for (int i = 0; i < 2000; ++i) {
+            Tuple tup = Utility.getHeapTuple(i, COLUMNS);
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), tup);
+            tuples.add(SystemTestUtil.tupleToList(tup));
+        }
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        PaxFile reopened = new PaxFile(table.getFile(), table.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    @Test public void planNeedsColumns() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PaxFile table = createTable(2000, tuples);
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c3", Predicate.Op.LESS_THAN, "500");
+        lp.addProjectField("t.c1", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        DbIterator node = plan;
+        while (!(node instanceof SeqScan))
+            node = ((Operator) node).getChildren()[0];
+        assertArrayEquals(new int[] {1, 3}, ((SeqScan) node).getNeededColumns());
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(3) < 500) {
+                ArrayList<Integer> out = new ArrayList<Integer>();
+                out.add(tuple.get(1));
+                expected.add(out);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a select * uses every column
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("*", null);
+        node = lp.physicalPlan(tid, stats, false);
+        while (!(node instanceof SeqScan))
+            node = ((Operator) node).getChildren()[0];
+        assertNull(((SeqScan) node).getNeededColumns());
+    }
+
+    @Test public void catalogLayout() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        java.io.FileWriter w = new java.io.FileWriter(schema);
+        w.write("wide (a int, b int, c int) layout pax pagesize 8192\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("wide"));
+        assertTrue(f instanceof PaxFile);
+        assertEquals(8192, f.getPageSize());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
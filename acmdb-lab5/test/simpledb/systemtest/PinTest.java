@@ -0,0 +1,94 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Exercises the pin protocol of the BufferPool: pages handed out by getPage
+ * stay resident until they are unpinned or their transaction completes,
+ * and scans unpin as they go, so a pool much smaller than a table can scan
+ * it.
+ */
+public class PinTest extends SimpleDbTestBase {
+
+    @Test public void pinnedPagesAreNotEvicted() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool pool = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId p0 = new HeapPageId(f.getId(), 0);
+        HeapPageId p1 = new HeapPageId(f.getId(), 1);
+        HeapPageId p2 = new HeapPageId(f.getId(), 2);
+
+        pool.getPage(tid, p0, Permissions.READ_ONLY);
+        pool.getPage(tid, p1, Permissions.READ_ONLY);
+        assertTrue(pool.isPinned(p0));
+        try {
+            pool.getPage(tid, p2, Permissions.READ_ONLY);
+            fail("evicted a pinned page");
+        } catch (DbException expected) {
+        }
+
+        pool.unpinPage(tid, p0);
+        assertFalse(pool.isPinned(p0));
+        pool.getPage(tid, p2, Permissions.READ_ONLY);
+        assertTrue(pool.isPinned(p1));
+        assertTrue(pool.isPinned(p2));
+
+        // pins left at the end of the transaction are dropped
+        pool.transactionComplete(tid);
+        assertFalse(pool.isPinned(p1));
+        assertFalse(pool.isPinned(p2));
+        pool.unpinPage(tid, p1);
+    }
+
+    @Test public void pinsAreCounted() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        BufferPool pool = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId p0 = new HeapPageId(f.getId(), 0);
+
+        pool.getPage(tid, p0, Permissions.READ_ONLY);
+        pool.getPage(tid, p0, Permissions.READ_ONLY);
+        pool.unpinPage(tid, p0);
+        assertTrue(pool.isPinned(p0));
+        pool.unpinPage(tid, p0);
+        assertFalse(pool.isPinned(p0));
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void modifiedPagesStayPinnedUntilCached() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BufferPool pool = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+
+        // the file hands the page back still pinned, not yet marked dirty
+        Page page = f.insertTuple(tid, Utility.getHeapTuple(new int[] {1, 2})).get(0);
+        assertTrue(pool.isPinned(page.getId()));
+        pool.unpinPage(tid, page.getId());
+
+        // the pool gives the pin back once it has cached the page dirty
+        pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] {3, 4}));
+        assertFalse(pool.isPinned(page.getId()));
+        assertEquals(tid, pool.getPage(tid, page.getId(), Permissions.READ_ONLY).isDirty());
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void scanFitsInOnePage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, tuples);
+        BufferPool pool = Database.resetBufferPool(1);
+        pool.setPrefetchDepth(0);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
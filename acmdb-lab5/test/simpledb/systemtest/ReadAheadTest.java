@@ -0,0 +1,57 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Sequential scans read ahead: every page must still be read exactly once
+ * and every page read ahead must be accounted for as a hit or a miss.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private long scanHeapFile(int depth) throws Exception {
+        final int PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setPrefetchDepth(depth);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+        return pool.getPrefetchHits() + pool.getPrefetchMisses();
+    }
+
+    @Test public void heapFileReadAhead() throws Exception {
+        // every page after the first one is read ahead
+        assertEquals(29, scanHeapFile(BufferPool.DEFAULT_PREFETCH_DEPTH));
+    }
+
+    @Test public void heapFileReadAheadOff() throws Exception {
+        assertEquals(0, scanHeapFile(0));
+    }
+
+    @Test public void btreeLeafReadAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        BTreeScan scan = new BTreeScan(tid, f.getId(), "table", null);
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(pool.getPrefetchHits() + pool.getPrefetchMisses() > 0);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
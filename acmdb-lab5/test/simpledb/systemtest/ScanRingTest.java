@@ -0,0 +1,66 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Scans of a table much larger than the buffer pool should go through a
+ * scan ring and leave the pages of other tables alone.
+ */
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+
+    private InstrumentedHeapFile createTable(int pages, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*pages, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    /** Scan small, then big, then small again; return the reads of the second small scan. */
+    private int rescanAfterLargeScan(BufferPool pool) throws Exception {
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> big = new ArrayList<ArrayList<Integer>>();
+        InstrumentedHeapFile smallTable = createTable(4, small);
+        InstrumentedHeapFile bigTable = createTable(5 * POOL_PAGES, big);
+        Database.resetBufferPool(pool);
+
+        SystemTestUtil.matchTuples(smallTable, small);
+        assertEquals(4, smallTable.readCount);
+        SystemTestUtil.matchTuples(bigTable, big);
+        assertEquals(5 * POOL_PAGES, bigTable.readCount);
+
+        smallTable.readCount = 0;
+        SystemTestUtil.matchTuples(smallTable, small);
+        return smallTable.readCount;
+    }
+
+    @Test public void largeScanKeepsOtherPages() throws Exception {
+        assertEquals(0, rescanAfterLargeScan(new BufferPool(POOL_PAGES)));
+    }
+
+    @Test public void largeScanWithoutRingFloodsPool() throws Exception {
+        BufferPool pool = new BufferPool(POOL_PAGES);
+        pool.setScanRingFraction(Double.MAX_VALUE);
+        assertEquals(4, rescanAfterLargeScan(pool));
+    }
+
+    @Test public void smallTableNeedsNoRing() {
+        BufferPool pool = new BufferPool(POOL_PAGES);
+        assertNull(pool.newScanRing(POOL_PAGES / 2));
+        assertNotNull(pool.newScanRing(POOL_PAGES + 1));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Exercises a BufferPool split into several shards: concurrent scans must
+ * see every tuple, and the frame budget must hold for the pool as a whole
+ * no matter how pages hash to shards.
+ */
+public class ShardedBufferPoolTest extends SimpleDbTestBase {
+
+    @Test public void concurrentScans() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        Database.resetBufferPool(new BufferPool(8, BufferPool.DEFAULT_POLICY, 4));
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Integer> counts = Collections.synchronizedList(new ArrayList<Integer>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        SeqScan scan = new SeqScan(tid, f.getId(), "");
+                        int count = 0;
+                        scan.open();
+                        while (scan.hasNext()) {
+                            scan.next();
+                            count++;
+                        }
+                        scan.close();
+                        Database.getBufferPool().transactionComplete(tid);
+                        counts.add(count);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(Collections.emptyList(), errors);
+        for (int count : counts)
+            assertEquals(tuples.size(), count);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void frameBudgetIsGlobal() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        // four shards of one frame each; dirty pages cannot be evicted
+        Database.resetBufferPool(new BufferPool(4, BufferPool.DEFAULT_POLICY, 4));
+        TransactionId tid = new TransactionId();
+
+        // four pages fit whichever shards they land in
+        int perPage = 504;
+        for (int i = 0; i < 4 * perPage; ++i)
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(4, f.numPages());
+
+        // a fifth would over-admit
+        try {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(0, 2));
+            fail("expected the pool to run out of clean pages");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ShardedBufferPoolTest.class);
+    }
+}
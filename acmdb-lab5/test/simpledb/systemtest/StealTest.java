@@ -0,0 +1,163 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Exercises the STEAL policy, turned on with setSteal: transactions may
+ * dirty more pages than the pool holds, and pages written before commit
+ * are put back on abort.
+ */
+public class StealTest extends SimpleDbTestBase {
+
+    private static final int PER_PAGE = 504;
+
+    private static void insert(TransactionId tid, DbFile f, int n,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        for (int i = 0; i < n; ++i) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, -i});
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            if (tuples != null)
+                tuples.add(SystemTestUtil.tupleToList(t));
+        }
+    }
+
+    @Test public void largeInsertCommits() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        Database.resetBufferPool(4).setSteal(true);
+
+        TransactionId tid = new TransactionId();
+        insert(tid, f, 10 * PER_PAGE, tuples);
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        assertEquals(10, f.numPages());
+        // the scan writes the committed pages as it evicts them
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void abortPutsBackStolenPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3 * PER_PAGE, null, tuples);
+        Database.resetBufferPool(4).setSteal(true);
+
+        // empties the three pages, then dirties six more than the pool holds
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext())
+            victims.add(it.next());
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        insert(tid, f, 6 * PER_PAGE, null);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void transactionAbortPutsBackStolenPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PER_PAGE, null, tuples);
+        Database.resetBufferPool(3).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), f, 5 * PER_PAGE, null);
+        t.abort();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void btreeAbortPutsBackStolenPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 1000, null, tuples, 0);
+        Database.resetBufferPool(16).setSteal(true);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20000; ++i)
+            Database.getBufferPool().insertTuple(tid, f.getId(),
+                    BTreeUtility.getBTreeTuple(new int[] {i, i}));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * A page stolen and changed again is written by a FORCE commit;
+     * recovery must redo it as committed, not as it was when stolen.
+     */
+    @Test public void forceCommitAfterStealRecovers() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        Database.getBufferPool().setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), f, 1, tuples);
+        // writes the page early, logging it with one tuple
+        Database.getBufferPool().flushAllPages();
+        insert(t.getId(), f, 1, tuples);
+        t.commit();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void cleanerWritesUnpinnedPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BufferPool pool = Database.resetBufferPool(new BufferPool(8, BufferPool.DEFAULT_POLICY, 1));
+        pool.setSteal(true);
+
+        TransactionId tid = new TransactionId();
+        // half the frames are still free
+        insert(tid, f, 4 * PER_PAGE, null);
+        assertEquals(0, pool.cleanPages());
+        // one free frame, and one of the two the cleaner aims for has to be
+        // made clean
+        insert(tid, f, 3 * PER_PAGE, null);
+        assertEquals(1, pool.cleanPages());
+        int clean = 0;
+        for (int i = 0; i < f.numPages(); ++i) {
+            Page p = pool.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            if (p.isDirty() == null)
+                clean++;
+            pool.unpinPage(tid, p.getId());
+        }
+        assertEquals(1, clean);
+        pool.transactionComplete(tid, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void noSteal() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Database.resetBufferPool(4).setSteal(false);
+
+        TransactionId tid = new TransactionId();
+        try {
+            insert(tid, f, 5 * PER_PAGE, null);
+            fail("expected the pool to run out of clean pages");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealTest.class);
+    }
+}
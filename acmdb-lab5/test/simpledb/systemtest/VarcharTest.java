@@ -0,0 +1,121 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Tables with VARCHAR fields, stored on slotted pages.
+ */
+public class VarcharTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.VARCHAR_TYPE};
+
+    /** @return a table of rows (i, "name" + i), converted from text */
+    private static HeapFile createTable(Type[] types, int rows, ArrayList<String> expected)
+            throws Exception {
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < rows; ++i) {
+            w.write(i + ",name" + i + "\n");
+            expected.add(i + ":name" + i);
+        }
+        w.close();
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 2, types);
+        HeapFile table = new HeapFile(f, new TupleDesc(types));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static ArrayList<String> scan(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<String> rows = new ArrayList<String>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getField(0) + ":" + t.getField(1));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test public void smallerThanFixedStrings() throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        HeapFile varchar = createTable(TYPES, 5000, expected);
+        HeapFile fixed = createTable(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, 5000,
+                new ArrayList<String>());
+        Collections.sort(expected);
+        assertEquals(expected, scan(varchar));
+        // at most 18 bytes a row, with its directory entry, against 136
+        assertTrue(varchar.numPages() * 7 <= fixed.numPages());
+    }
+
+    @Test public void insertAndDelete() throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        HeapFile table = createTable(TYPES, 1000, expected);
+
+        Transaction t = new Transaction();
+        t.start();
+        // deletes leave holes the longer strings need closed up
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() % 2 == 0)
+                victims.add(tup);
+        }
+        it.close();
+        for (Tuple tup : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+            expected.remove(tup.getField(0) + ":" + tup.getField(1));
+        }
+        for (int i = 0; i < 1000; ++i) {
+            Tuple tup = new Tuple(table.getTupleDesc());
+            tup.setField(0, new IntField(-i));
+            tup.setField(1, new StringField("a longer string " + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), tup);
+            expected.add(-i + ":a longer string " + i);
+        }
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        Collections.sort(expected);
+
+        Database.reset();
+        HeapFile reopened = new HeapFile(table.getFile(), table.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(expected, scan(reopened));
+    }
+
+    @Test public void catalogType() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("people (id int, name varchar)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        TupleDesc td = Database.getCatalog().getTupleDesc(
+                Database.getCatalog().getTableId("people"));
+        assertEquals(Type.VARCHAR_TYPE, td.getFieldType(1));
+        assertFalse(td.isFixedSize());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VarcharTest.class);
+    }
+}
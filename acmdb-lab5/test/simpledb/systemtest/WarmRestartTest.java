@@ -0,0 +1,132 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * The pages resident at a clean shutdown are saved and read back in bulk
+ * when the database starts again.
+ */
+public class WarmRestartTest extends SimpleDbTestBase {
+
+    private static final int PER_PAGE = 992;
+
+    private static InstrumentedHeapFile open(File f) {
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static void touch(TransactionId tid, DbFile f, int... pageNos) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        for (int pageNo : pageNos) {
+            PageId pid = new HeapPageId(f.getId(), pageNo);
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid);
+        }
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("pages", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Test public void shutdownSavesHotPages() throws Exception {
+        File data = SystemTestUtil.createRandomHeapFileUnopened(1, 20 * PER_PAGE, 1000, null, null);
+        InstrumentedHeapFile table = open(data);
+        Database.resetBufferPool(new BufferPool(8, BufferPool.DEFAULT_POLICY, 1));
+        TransactionId tid = new TransactionId();
+        // 3, 4 and 5 are reused, the rest only seen once
+        touch(tid, table, 3, 4, 5, 3, 4, 5, 10, 11, 12, 13, 14, 15);
+        Database.getBufferPool().transactionComplete(tid);
+        File saved = Database.getLogFile().residentPagesFile();
+        Database.getLogFile().shutdown();
+        saved.deleteOnExit();
+        assertTrue(saved.exists());
+
+        // a smaller pool only has room for the hottest pages
+        Database.reset();
+        table = open(data);
+        BufferPool pool = Database.resetBufferPool(new BufferPool(4, BufferPool.DEFAULT_POLICY, 1));
+        assertEquals(4, pool.preloadPages(saved));
+        saved.delete();
+
+        tid = new TransactionId();
+        touch(tid, table, 3, 4, 5, 15);
+        assertEquals(0, table.readCount);
+        touch(tid, table, 14);
+        assertEquals(1, table.readCount);
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void skipsWhatIsGone() throws Exception {
+        File data = SystemTestUtil.createRandomHeapFileUnopened(1, 4 * PER_PAGE, 1000, null, null);
+        File other = SystemTestUtil.createRandomHeapFileUnopened(1, 4 * PER_PAGE, 1000, null, null);
+        InstrumentedHeapFile table = open(data);
+        InstrumentedHeapFile gone = open(other);
+        BufferPool pool = Database.resetBufferPool(new BufferPool(16, BufferPool.DEFAULT_POLICY, 2));
+        TransactionId tid = new TransactionId();
+        touch(tid, table, 0, 1, 2, 3);
+        touch(tid, gone, 0);
+        pool.transactionComplete(tid);
+        File saved = tempFile();
+        pool.saveResidentPages(saved);
+
+        // the other table is gone and this one lost its last two pages
+        Database.reset();
+        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(data, "rw")) {
+            raf.setLength(2 * BufferPool.getPageSize());
+        }
+        table = open(data);
+        pool = Database.resetBufferPool(new BufferPool(16, BufferPool.DEFAULT_POLICY, 2));
+        // one page is already resident
+        tid = new TransactionId();
+        touch(tid, table, 1);
+        assertEquals(1, pool.preloadPages(saved));
+        touch(tid, table, 0, 1);
+        assertEquals(1, table.readCount);
+        pool.transactionComplete(tid);
+    }
+
+    @Test public void preloaderFailureIsThrownLater() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.startPreloader(new File(tempFile().getPath() + ".missing")).join();
+        try {
+            pool.flushAllPages();
+            fail("expected the preloader's failure");
+        } catch (java.io.IOException expected) {
+        }
+        // thrown once
+        pool.flushAllPages();
+    }
+
+    @Test public void preloadedBTreeMatches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BTreeScan(tid, f.getId(), "table", null), tuples);
+        pool.transactionComplete(tid);
+        File saved = tempFile();
+        pool.saveResidentPages(saved);
+
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(pool.preloadPages(saved) > 0);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BTreeScan(tid, f.getId(), "table", null), tuples);
+        pool.transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmRestartTest.class);
+    }
+}